@@ -1,24 +1,29 @@
 package de.engehausen.qrio;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
-
-import javax.imageio.ImageIO;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -31,16 +36,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.ChecksumException;
 import com.google.zxing.EncodeHintType;
+import com.google.zxing.FormatException;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 
+import de.engehausen.qrio.util.BlockDeflater;
+import de.engehausen.qrio.util.CapacityPlanner;
+import de.engehausen.qrio.util.ChannelMultiplexer;
 import de.engehausen.qrio.util.ChunkIterator;
+import de.engehausen.qrio.util.Degradation;
+import de.engehausen.qrio.util.FountainCode;
+import de.engehausen.qrio.util.FountainEncoder;
 import de.engehausen.qrio.util.FrameEnumerator;
+import de.engehausen.qrio.util.FrameHeader;
+import de.engehausen.qrio.util.FrameHeaderEncoder;
+import de.engehausen.qrio.util.FrameWriter;
+import de.engehausen.qrio.util.MappedChunkSpliterator;
+import de.engehausen.qrio.util.MissingChunks;
 import de.engehausen.qrio.util.OptionsHelper;
+import de.engehausen.qrio.util.OrderedParallelIterator;
+import de.engehausen.qrio.util.ParityCode;
+import de.engehausen.qrio.util.ParityEncoder;
+import de.engehausen.qrio.util.QrMatrix;
+import de.engehausen.qrio.util.SymbolGrid;
+import de.engehausen.qrio.util.VideoWriter;
 
 /**
  * Generator for a sequence of QR codes which represent a file.
@@ -52,10 +76,15 @@ public class Generator {
 	protected static final char PAD_CHARACTER = '!';
 	private static final String PAD_SYMBOL = Character.toString(PAD_CHARACTER);
 	private static final String PADDING_MAX = PAD_SYMBOL.repeat(4);
+	// binary payloads: optional padding bytes, the version byte and the raw bytes;
+	// neither byte occurs at the start of Base64 text
+	protected static final byte BINARY_PAD = (byte) 0xf0;
+	protected static final byte BINARY_VERSION = (byte) 0xf1;
+	private static final char BINARY_PAD_CHARACTER = (char) (BINARY_PAD & 0xff);
+	private static final char BINARY_VERSION_CHARACTER = (char) (BINARY_VERSION & 0xff);
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Generator.class);
 
-	private static final String IMAGE_FORMAT = "png";
 	private static final String COMMAND_NAME = "generate";
 	private static final Options OPTIONS;
 	private static final String OPT_INPUT = "input";
@@ -71,21 +100,72 @@ public class Generator {
 	private static final String OPT_WAIT = "wait";
 	private static final String OPT_WAIT_DESC = "wait in ms between frames in playback mode";
 	private static final String OPT_WAIT_DEFAULT = "500";
+	private static final String OPT_HOLD = "hold";
+	private static final String OPT_HOLD_DESC = "show each frame for the given number of display refreshes instead of waiting; renders paced at the nominal refresh rate of the display";
 	private static final String OPT_PREFIX = "prefix";
 	private static final String OPT_PREFIX_DESC = "prefix of QR code images";
+	private static final String OPT_MP4 = "mp4";
+	private static final String OPT_MP4_DESC = "write the QR codes into the given .mp4 video instead of images";
+	private static final String OPT_FPS = "fps";
+	private static final String OPT_FPS_DESC = "frame rate of the video";
+	private static final String OPT_FPS_DEFAULT = "1000 / wait";
+	private static final String OPT_REPEATS = "repeats";
+	private static final String OPT_REPEATS_DESC = "number of video frames showing each QR code";
+	private static final String OPT_REPEATS_DEFAULT = "1";
 	private static final String OPT_QUIRKS_MODE = "quirks-mode";
 	private static final String OPT_QUIRKS_MODE_DESC = "zxing sometimes cannot decode QR codes it produced itself. This tries to compensate (recommended).";
 	private static final String OPT_ENUMERATE_FRAMES = "enumerate";
-	private static final String OPT_ENUMERATE_FRAMES_DESC = "stores a frame counter with the data; can be used to fail fast on decoding";
+	private static final String OPT_ENUMERATE_FRAMES_DESC = "stores a frame counter with the data; can be used to fail fast on decoding (not with -f)";
+	private static final String OPT_HEADER = "header";
+	private static final String OPT_HEADER_DESC = "stores a header with the data (transfer id, sequence number, totals and checksum); detects missing and corrupt frames on decoding";
+	private static final String OPT_BINARY = "binary";
+	private static final String OPT_BINARY_DESC = "store the raw bytes in the QR codes instead of Base64 text; a third more data per QR code";
+	private static final String OPT_COMPRESS = "compress";
+	private static final String OPT_COMPRESS_DESC = "compress the input; blocks which do not compress well are stored as they are";
+	private static final String OPT_LEVEL = "level";
+	private static final String OPT_LEVEL_DESC = "PNG compression level from 0 (fast) to 9 (small), -1 for the default of the PNG writer";
+	private static final String OPT_LEVEL_DEFAULT = Integer.toString(FrameWriter.DEFAULT_LEVEL);
+	private static final String OPT_FOUNTAIN = "fountain";
+	private static final String OPT_FOUNTAIN_DESC = "fountain-code the input and generate the given number of symbols, 0 for an endless stream (only when showing QR codes)";
+	private static final String OPT_PARITY = "parity";
+	private static final String OPT_PARITY_DESC = "add K parity frames to every N data frames, given as N:K; up to K lost frames of such a group can be rebuilt";
+	private static final String OPT_INTERLEAVE = "interleave";
+	private static final String OPT_INTERLEAVE_DESC = "number of parity-protected groups to interleave, i.e. length of frame loss bursts to survive";
+	private static final String OPT_INTERLEAVE_DEFAULT = "4";
+	private static final String OPT_MISSING = "missing";
+	private static final String OPT_MISSING_DESC = "only encode the chunks listed in the given manifest of an interrupted transfer (see read --missing); the other options must be the same as for the transfer";
+	private static final String OPT_GRID = "grid";
+	private static final String OPT_GRID_DESC = "show or write the given rows by columns of QR codes per frame, given as RxC (requires --header or -f, see read --grid)";
+	private static final String OPT_GRID_DEFAULT = "1x1";
+	private static final String OPT_RGB = "rgb";
+	private static final String OPT_RGB_DESC = "show or write three QR codes per frame, one in each color channel (requires --header or -f, see read --rgb); for color-accurate displays and cameras";
+	private static final String OPT_CALIBRATION = "calibration";
+	private static final String OPT_CALIBRATION_DESC = "start with a calibration frame of the color channels (with --rgb), so the reader can correct for channels bleeding into each other";
+	private static final String OPT_THREADS = "threads";
+	private static final String OPT_THREADS_DESC = "number of threads encoding QR codes";
+	private static final String OPT_THREADS_DEFAULT = "1";
+	private static final String OPT_LEVEL_EC = "ec";
+	private static final String OPT_LEVEL_EC_DESC = "error correction level of the QR codes: L, M, Q or H";
+	private static final String OPT_LEVEL_EC_DEFAULT = ErrorCorrectionLevel.H.name();
+	private static final String OPT_AUTO_TUNE = "auto-tune";
+	private static final String OPT_AUTO_TUNE_DESC = "find the largest bytes per QR code and the error correction level still readable at the QR dimension (see --degrade), report the throughput and use them";
+	private static final String OPT_DEGRADE = "degrade";
+	private static final String OPT_DEGRADE_DESC = "degradation of the QR codes when auto-tuning, given as scale:blur:noise (scale of the QR codes as captured, blur radius in pixels, noise in gray levels); the viewer shows QR codes three times as large";
+	private static final String OPT_DEGRADE_DEFAULT = "2:1:8";
 	private static final String OPT_VERBOSE = "verbose";
 	private static final String OPT_VERBOSE_DESC = "turn on debug information";
 
-	private static final Map<EncodeHintType, Object> QUALITY = Map.of(
-		EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H,
-		EncodeHintType.MARGIN, 0
-		);
+	// payloads which must be read back per tuning step
+	private static final int TUNE_TRIALS = 3;
+	// number of chunks in flight per encoding thread
+	private static final int WINDOW_PER_THREAD = 4;
 	private static boolean QUIRKS_MODE;
 	private static boolean ENUMERATE;
+	private static boolean BINARY;
+	private static Map<EncodeHintType, Object> QUALITY = quality(ErrorCorrectionLevel.H);
+	private static FrameHeaderEncoder HEADER;
+	private static ParityCode PARITY;
+	private static int INTERLEAVE;
 
 	static {
 		final Options options = new Options();
@@ -106,10 +186,26 @@ public class Generator {
 			.optionWithArg(OPT_WAIT, toDefault(OPT_WAIT_DESC, OPT_WAIT_DEFAULT))
 			.build()
 		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_HOLD, OPT_HOLD_DESC)
+			.build()
+		);
 		options.addOption(OptionsHelper
 			.optionWithArg(OPT_PREFIX, OPT_PREFIX_DESC)
 			.build()
 		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_MP4, OPT_MP4_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_FPS, toDefault(OPT_FPS_DESC, OPT_FPS_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_REPEATS, toDefault(OPT_REPEATS_DESC, OPT_REPEATS_DEFAULT))
+			.build()
+		);
 		options.addOption(OptionsHelper
 			.optionWithArg(OPT_DIMENSION, toDefault(OPT_DIMENSION_DESC, OPT_DIMENSION_DEFAULT))
 			.build()
@@ -122,6 +218,66 @@ public class Generator {
 			.option(OPT_ENUMERATE_FRAMES, OPT_ENUMERATE_FRAMES_DESC)
 			.build()
 		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_HEADER, OPT_HEADER_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_BINARY, OPT_BINARY_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.option(OPT_COMPRESS, OPT_COMPRESS_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_LEVEL, toDefault(OPT_LEVEL_DESC, OPT_LEVEL_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_FOUNTAIN, OPT_FOUNTAIN_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_PARITY, OPT_PARITY_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_INTERLEAVE, toDefault(OPT_INTERLEAVE_DESC, OPT_INTERLEAVE_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_MISSING, OPT_MISSING_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_LEVEL_EC, toDefault(OPT_LEVEL_EC_DESC, OPT_LEVEL_EC_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.option(OPT_AUTO_TUNE, OPT_AUTO_TUNE_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_DEGRADE, toDefault(OPT_DEGRADE_DESC, OPT_DEGRADE_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_GRID, toDefault(OPT_GRID_DESC, OPT_GRID_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_RGB, OPT_RGB_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_CALIBRATION, OPT_CALIBRATION_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_THREADS, toDefault(OPT_THREADS_DESC, OPT_THREADS_DEFAULT))
+			.build()
+		);
 		options.addOption(OptionsHelper
 			.option(OPT_VERBOSE, OPT_VERBOSE_DESC)
 			.build()
@@ -133,16 +289,48 @@ public class Generator {
 		return String.format("%s (default: %s)", text, value);
 	}
 
+	// hints for QR codes of the given error correction level
+	private static Map<EncodeHintType, Object> quality(final ErrorCorrectionLevel level) {
+		return Map.of(
+			EncodeHintType.ERROR_CORRECTION, level,
+			EncodeHintType.MARGIN, 0
+			);
+	}
+
+	/**
+	 * Converts bytes into the text of a QR code.
+	 * @param input the bytes to convert
+	 * @param padding the number of padding characters to prepend
+	 * @param binary {@code true} for a binary payload, whose characters
+	 * are the bytes (ISO-8859-1, stored in byte mode), {@code false} for
+	 * Base64 text
+	 * @return the text
+	 */
+	protected static String toText(final byte[] input, final int padding, final boolean binary) {
+		if (binary) {
+			final StringBuilder result = new StringBuilder(padding + 1 + input.length);
+			for (int i = 0; i < padding; i++) {
+				result.append(BINARY_PAD_CHARACTER);
+			}
+			return result
+				.append(BINARY_VERSION_CHARACTER)
+				.append(new String(input, StandardCharsets.ISO_8859_1))
+				.toString();
+		}
+		final String text = Base64.getEncoder().encodeToString(input);
+		return padding > 0 ? PAD_SYMBOL.repeat(padding) + text : text;
+	}
+
 	// naive use of zxing QR code generator to encode the given bytes
 	private static BufferedImage create(final QRCodeWriter encoder, final byte[] input, final int dimension) {
-		return create(encoder, Base64.getEncoder().encodeToString(input), dimension);
+		return create(encoder, toText(input, 0, BINARY), dimension);
 	}
-	private static BufferedImage create(final QRCodeWriter encoder, final String pseudoBase64, final int dimension) {
+	private static BufferedImage create(final QRCodeWriter encoder, final String text, final int dimension) {
 		try {
 			return MatrixToImageWriter
 				.toBufferedImage(
 					encoder.encode(
-						pseudoBase64,
+						text,
 						BarcodeFormat.QR_CODE,
 						dimension,
 						dimension,
@@ -155,62 +343,311 @@ public class Generator {
 	// generates a more "reliable" QR code for the given bytes
 	// as zxing seems to sometimes not be able to decode a QR
 	// code it generated itself, this performs a sanity check
-	// if the check fails, an attempt is made to slightly alter
-	// the bytes with "padding" content to produce a decodable
-	// QR code
-	private static BufferedImage createQuirksMode(final QRCodeWriter encoder, final byte[] input, final int dimension) {
-		BufferedImage img;
-		String str = Base64.getEncoder().encodeToString(input);
-		boolean ok = false;
-		do {
-			img = create(encoder, str, dimension);
-			try {
-				final BufferedImage scaledAndColor = new BufferedImage(3 * img.getWidth(), 3 * img.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-				final Graphics2D g2d = (Graphics2D) scaledAndColor.getGraphics();
+	// on the modules of the code; if the check fails, variants
+	// of the bytes with "padding" content are tried to produce
+	// a decodable QR code
+	private static BufferedImage createQuirksMode(final byte[] input, final int dimension) {
+		final boolean binary = BINARY;
+		final QrMatrix plain = verified(toText(input, 0, binary), input);
+		if (plain != null) {
+			return MatrixToImageWriter.toBufferedImage(plain.render(dimension, dimension, 0));
+		}
+		// "this should not happen", try all padded variants at once
+		LOGGER.trace("need to pad: {}", Base64.getEncoder().encodeToString(input));
+		final QrMatrix padded = IntStream
+			.range(1, PADDING_MAX.length())
+			.parallel()
+			.mapToObj(count -> verified(toText(input, count, binary), input))
+			.filter(Objects::nonNull)
+			.findFirst()
+			.orElseThrow(() -> new IllegalStateException("cannot produce readable QR code (zxing issue)"));
+		return MatrixToImageWriter.toBufferedImage(padded.render(dimension, dimension, 0));
+	}
+
+	// encodes the text and checks that its modules decode to the expected bytes;
+	// returns null if the check fails
+	private static QrMatrix verified(final String text, final byte[] expected) {
+		try {
+			final QrMatrix result = new QrMatrix(text, QUALITY);
+			return Arrays.equals(result.decode(Reader::toBytes), expected) ? result : null;
+		} catch (WriterException e) {
+			throw new IllegalStateException(e);
+		} catch (ChecksumException | FormatException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	protected static Stream<BufferedImage> create(final InputStream input, final int chunkSize, final int dimension) {
+		return create(input, chunkSize, dimension, 1);
+	}
+
+	protected static Stream<BufferedImage> create(final InputStream input, final int chunkSize, final int dimension, final int threads) {
+		return create(
+			StreamSupport
+				.stream(
+					Spliterators.spliterator(
+						new ChunkIterator(input, chunkSize),
+						1,
+						Spliterator.NONNULL | Spliterator.ORDERED),
+						false
+				),
+			dimension,
+			threads
+		);
+	}
+
+	protected static Stream<BufferedImage> create(final File input, final int chunkSize, final int dimension, final int threads) throws IOException {
+		final FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+		try {
+			final Spliterator<ByteBuffer> chunks = new MappedChunkSpliterator(channel, chunkSize);
+			LOGGER.debug("{} chunks to encode", Long.valueOf(chunks.estimateSize()));
+			return create(
+				StreamSupport
+					.stream(chunks, false)
+					.map(MappedChunkSpliterator::toBytes),
+				dimension,
+				threads
+			).onClose(() -> {
 				try {
-					g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-					g2d.drawImage(img, 0, 0, 3 * img.getWidth(), 3 * img.getHeight(), null);
-				} finally {
-					g2d.dispose();
+					channel.close();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
 				}
-				final byte[] sanity = Reader.readQR(scaledAndColor);
-				ok = Arrays.equals(sanity, input);
-				if (!ok) {
-					// "this should not happen", zxing reads incorrect data from
-					// of a scaled version of a code it created itself
-					str = pad(str);
-				}
-			} catch (NotFoundException e) {
-				// "this should not happen", zxing cannot read a scaled version
-				// of a code it created itself
-				str = pad(str);
-			}
-		} while (!ok);
-		return img;
+			});
+		} catch (IOException|RuntimeException e) {
+			channel.close();
+			throw e;
+		}
 	}
 
-	protected static Stream<BufferedImage> create(final InputStream input, final int chunkSize, final int dimension) {
-		final QRCodeWriter encoder = new QRCodeWriter();
-		final Function<byte[], byte[]> augmenter = ENUMERATE ? new FrameEnumerator() : Function.identity();
+	/**
+	 * Creates the QR codes of fountain code symbols for the given input.
+	 * @param data the input
+	 * @param symbolSize the bytes per QR code, including the overhead of the symbols
+	 * @param dimension the dimension of the QR codes
+	 * @param threads the number of encoding threads
+	 * @param symbols the number of symbols to generate, {@code 0} for an endless stream
+	 * @return the QR codes
+	 */
+	protected static Stream<BufferedImage> createFountain(final ByteBuffer data, final int symbolSize, final int dimension, final int threads, final long symbols) {
+		if (symbolSize <= FountainCode.OVERHEAD) {
+			throw new IllegalArgumentException(String.format("fountain code symbols need more than %d bytes", Integer.valueOf(FountainCode.OVERHEAD)));
+		}
+		final FountainEncoder encoder = new FountainEncoder(data, symbolSize);
+		LOGGER.debug("{} blocks to fountain-code", Integer.valueOf(encoder.getCode().getBlockCount()));
+		final Stream<byte[]> endless = StreamSupport
+			.stream(
+				Spliterators.spliteratorUnknownSize(
+					encoder,
+					Spliterator.NONNULL | Spliterator.ORDERED),
+					false
+			);
+		// the symbols carry their own identification, they are not enumerated
+		return encode(symbols > 0 ? endless.limit(symbols) : endless, dimension, threads);
+	}
+
+	/**
+	 * Adds parity frames to the given chunks.
+	 * @param chunks the chunks to protect
+	 * @param code the code of the groups of frames
+	 * @param depth the number of groups to interleave
+	 * @return the data and parity frames
+	 */
+	protected static Stream<byte[]> protect(final Stream<byte[]> chunks, final ParityCode code, final int depth) {
+		return StreamSupport
+			.stream(
+				Spliterators.spliteratorUnknownSize(
+					new ParityEncoder(chunks.iterator(), code, depth),
+					Spliterator.NONNULL | Spliterator.ORDERED),
+					false
+			)
+			.onClose(chunks::close);
+	}
+
+	/**
+	 * Creates the frames of the chunks missing of a transfer. The chunks of
+	 * regular files are read where they are, compressed or streamed input is
+	 * read up to the chunks missing.
+	 * @param input the input
+	 * @param chunkSize the size of the chunks
+	 * @param compress {@code true} if the input is compressed
+	 * @param header the encoder of the headers of the transfer
+	 * @param missing the chunks missing
+	 * @return the frames of the chunks missing
+	 * @throws IOException in case of error
+	 */
+	protected static Stream<byte[]> createMissing(final File input, final int chunkSize, final boolean compress, final FrameHeaderEncoder header, final MissingChunks missing) throws IOException {
+		if (!compress && input.isFile()) {
+			final FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+			return missing
+				.indices()
+				.mapToObj(index -> header.apply(index, read(channel, index, chunkSize)))
+				.onClose(() -> {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+		}
+		final InputStream in = compress ? new BlockDeflater(new FileInputStream(input), Deflater.BEST_COMPRESSION) : new FileInputStream(input);
+		final int last = missing.indices().max().orElse(-1);
+		final AtomicInteger sequence = new AtomicInteger(-1);
 		return StreamSupport
 			.stream(
 				Spliterators.spliterator(
-					new ChunkIterator(input, chunkSize),
+					new ChunkIterator(in, chunkSize),
 					1,
 					Spliterator.NONNULL | Spliterator.ORDERED),
 					false
 			)
-			.map(augmenter)
-			.map(bytes -> Generator.QUIRKS_MODE ? createQuirksMode(encoder, bytes, dimension) : create(encoder, bytes, dimension));
+			// the chunks are numbered as they are read, the stream is sequential
+			.takeWhile(chunk -> sequence.incrementAndGet() <= last)
+			.filter(chunk -> missing.contains(sequence.get()))
+			.map(chunk -> header.apply(sequence.get(), chunk))
+			.onClose(() -> {
+				try {
+					in.close();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+	}
+
+	private static Stream<BufferedImage> create(final Stream<byte[]> input, final int dimension, final int threads) {
+		final Function<byte[], byte[]> augmenter;
+		if (HEADER != null) {
+			augmenter = HEADER;
+		} else {
+			augmenter = ENUMERATE ? new FrameEnumerator() : Function.identity();
+		}
+		return encodeFrames(input.map(augmenter), dimension, threads);
+	}
+
+	protected static Stream<BufferedImage> encodeFrames(final Stream<byte[]> frames, final int dimension, final int threads) {
+		return encode(PARITY == null ? frames : protect(frames, PARITY, INTERLEAVE), dimension, threads);
 	}
 
-	private static String pad(final String str) {
-		final String result = PAD_SYMBOL + str;
-		LOGGER.trace("need to pad: {}", str);
-		if (result.startsWith(PADDING_MAX)) {
-			throw new IllegalStateException("cannot produce readable QR code (zxing issue)");
+	private static Stream<BufferedImage> encode(final Stream<byte[]> chunks, final int dimension, final int threads) {
+		if (threads > 1) {
+			// the augmenter is stateful and applied on the consuming thread,
+			// only the encoding itself is done by the workers
+			final OrderedParallelIterator<byte[], BufferedImage> images = new OrderedParallelIterator<>(
+				chunks.iterator(),
+				() -> encoder(dimension),
+				threads,
+				WINDOW_PER_THREAD * threads
+			);
+			return StreamSupport
+				.stream(
+					Spliterators.spliteratorUnknownSize(
+						images,
+						Spliterator.NONNULL | Spliterator.ORDERED),
+						false
+				)
+				// the consumer may stop early
+				.onClose(images::shutdown)
+				.onClose(chunks::close);
 		}
-		return result;
+		return chunks.map(encoder(dimension));
+	}
+
+	// the complete input for fountain-coding; regular files are memory-mapped
+	private static ByteBuffer read(final File input) throws IOException {
+		if (input.isFile()) {
+			try (final FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+		try (final InputStream in = new FileInputStream(input)) {
+			return ByteBuffer.wrap(in.readAllBytes());
+		}
+	}
+
+	/**
+	 * Finds the capacity of QR codes of the given dimension per error correction level.
+	 * @param dimension the dimension of the QR codes
+	 * @param binary {@code true} for binary payloads, {@code false} for Base64 text
+	 * @param degradation the degradation the QR codes must survive
+	 * @return the largest number of bytes per QR code per level
+	 */
+	protected static Map<ErrorCorrectionLevel, Integer> tune(final int dimension, final boolean binary, final UnaryOperator<BufferedImage> degradation) {
+		return new CapacityPlanner(
+			bytes -> toText(bytes, 0, binary),
+			dimension,
+			image -> {
+				try {
+					return Reader.readQR(image);
+				} catch (NotFoundException | IllegalArgumentException | IllegalStateException e) {
+					return null;
+				}
+			},
+			degradation,
+			TUNE_TRIALS
+		).plan();
+	}
+
+	// prints the capacity per error correction level and the resulting throughput;
+	// the share is the number of data QR codes per frame
+	private static void report(final Map<ErrorCorrectionLevel, Integer> plan, final ErrorCorrectionLevel best, final int overhead, final double share, final int delay) {
+		System.out.printf("level  bytes per QR code  payload bytes/s (wait %d ms)%n", Integer.valueOf(delay));
+		plan.forEach((level, bytes) -> System.out.printf(
+			"%-5s  %17d  %29.1f%s%n",
+			level,
+			bytes,
+			Double.valueOf(Math.max(0, bytes.intValue() - overhead) * share * 1000 / delay),
+			level == best ? " *" : ""
+		));
+	}
+
+	// reads the chunk with the given index of a file
+	private static byte[] read(final FileChannel channel, final int index, final int chunkSize) {
+		try {
+			final long offset = (long) index * chunkSize;
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, channel.size() - offset));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) {
+					throw new IllegalStateException(String.format("chunk %d is beyond the end of the input", Integer.valueOf(index)));
+				}
+			}
+			return buffer.array();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// the length of the (compressed) input, -1 if it is unknown in advance
+	private static long length(final File input, final boolean compress) throws IOException {
+		if (!input.isFile()) {
+			return -1;
+		}
+		if (!compress) {
+			return input.length();
+		}
+		// compressing twice is cheaper than an incomplete header
+		try (final InputStream in = new BlockDeflater(new FileInputStream(input), Deflater.BEST_COMPRESSION)) {
+			return in.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	// the id of a transfer is derived from the input and the way it is chunked,
+	// so the frames of the same transfer generated again have the same id
+	private static int transfer(final File input, final int chunkSize, final boolean compress) {
+		final CRC32 crc = new CRC32();
+		crc.update(input.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		crc.update(ByteBuffer
+			.allocate(21)
+			.putLong(input.length())
+			.putLong(input.lastModified())
+			.putInt(chunkSize)
+			.put((byte) (compress ? 1 : 0))
+			.array());
+		return (int) crc.getValue();
+	}
+
+	private static Function<byte[], BufferedImage> encoder(final int dimension) {
+		final QRCodeWriter encoder = new QRCodeWriter();
+		return bytes -> Generator.QUIRKS_MODE ? createQuirksMode(bytes, dimension) : create(encoder, bytes, dimension);
 	}
 
 	private static void printHelp() {
@@ -221,9 +658,9 @@ public class Generator {
 	 * Main entry point. See {@code README.md} for usage.
 	 * @param args input arguments
 	 * @throws ParseException in case of error
-	 * @throws FileNotFoundException in case of error
+	 * @throws IOException in case of error
 	 */
-	public static void main(final String... args) throws ParseException, FileNotFoundException {
+	public static void main(final String... args) throws ParseException, IOException {
 		if (args.length == 0) {
 			printHelp();
 			return;
@@ -233,13 +670,21 @@ public class Generator {
 			final CommandLineParser clip = new DefaultParser();
 			final CommandLine cli = clip.parse(OPTIONS, args, true);
 			OptionsHelper.verbose(cli.hasOption(OPT_VERBOSE));
-			final int bytes = Integer.parseInt(cli.getOptionValue(OPT_BYTES, OPT_BYTES_DEFAULT));
+			int bytes = Integer.parseInt(cli.getOptionValue(OPT_BYTES, OPT_BYTES_DEFAULT));
 			if (bytes % 2 == 1) {
 				System.out.println("byte size must be a multiple of two");
 				System.exit(1);
 			}
 			final int dimension = Integer.parseInt(cli.getOptionValue(OPT_DIMENSION, OPT_DIMENSION_DEFAULT));
 			final int delay = Integer.parseInt(cli.getOptionValue(OPT_WAIT, OPT_WAIT_DEFAULT));
+			final int threads = Integer.parseInt(cli.getOptionValue(OPT_THREADS, OPT_THREADS_DEFAULT));
+			final SymbolGrid grid = SymbolGrid.parse(cli.getOptionValue(OPT_GRID, OPT_GRID_DEFAULT));
+			final boolean rgb = cli.hasOption(OPT_RGB);
+			if (cli.hasOption(OPT_CALIBRATION) && !rgb) {
+				System.out.println("Calibration frames are only needed for color channels\n");
+				printHelp();
+				System.exit(1);
+			}
 			final String filename = cli.getOptionValue(OPT_INPUT);
 			final File input = new File(filename);
 			if (!input.exists()) {
@@ -248,31 +693,173 @@ public class Generator {
 			}
 			QUIRKS_MODE = cli.hasOption(OPT_QUIRKS_MODE);
 			ENUMERATE= cli.hasOption(OPT_ENUMERATE_FRAMES);
-			final Stream<BufferedImage> imageStream = create(new FileInputStream(input), bytes, dimension);
+			if (ENUMERATE && cli.hasOption(OPT_FOUNTAIN)) {
+				// the symbols carry their own identification
+				System.out.println("Frame counters cannot be combined with fountain-coding\n");
+				printHelp();
+				System.exit(1);
+			}
+			BINARY = cli.hasOption(OPT_BINARY);
+			ErrorCorrectionLevel ecLevel = ErrorCorrectionLevel.valueOf(cli.getOptionValue(OPT_LEVEL_EC, OPT_LEVEL_EC_DEFAULT).toUpperCase());
+			Map<ErrorCorrectionLevel, Integer> plan = null;
+			if (cli.hasOption(OPT_AUTO_TUNE)) {
+				final Degradation degradation = Degradation.parse(cli.getOptionValue(OPT_DEGRADE, OPT_DEGRADE_DEFAULT));
+				System.out.printf("Tuning %dx%d QR codes for degradation %s...%n", Integer.valueOf(dimension), Integer.valueOf(dimension), degradation);
+				plan = tune(dimension, BINARY, degradation);
+				ecLevel = CapacityPlanner.best(plan);
+				// frame counters take one more byte, and the chunks must be a multiple of two
+				bytes = plan.get(ecLevel).intValue() - (ENUMERATE ? 2 : 0);
+				if (bytes <= 0) {
+					System.out.println("No QR code of this dimension survives the degradation");
+					System.exit(1);
+				}
+			}
+			QUALITY = quality(ecLevel);
+			final long symbols = Long.parseLong(cli.getOptionValue(OPT_FOUNTAIN, "-1"));
+			if (symbols == 0 && !cli.hasOption(OPT_SHOW)) {
+				System.out.println("Endless fountain-coded stream only possible when showing QR codes\n");
+				printHelp();
+				System.exit(1);
+			}
+			final String parity = cli.getOptionValue(OPT_PARITY);
+			int chunkSize = bytes;
+			if (parity != null) {
+				if (symbols >= 0) {
+					System.out.println("Parity frames cannot be combined with fountain-coding\n");
+					printHelp();
+					System.exit(1);
+				}
+				final String[] counts = parity.split(":");
+				if (counts.length != 2) {
+					System.out.println("Parity must be given as N:K\n");
+					printHelp();
+					System.exit(1);
+				}
+				// parity frames carry the longest chunk of their group plus overhead
+				chunkSize -= ParityCode.OVERHEAD;
+				if (chunkSize <= 0) {
+					System.out.printf("Parity frames need more than %d bytes%n", Integer.valueOf(ParityCode.OVERHEAD));
+					System.exit(1);
+				}
+				PARITY = new ParityCode(Integer.parseInt(counts[0]), Integer.parseInt(counts[1]));
+				INTERLEAVE = Integer.parseInt(cli.getOptionValue(OPT_INTERLEAVE, OPT_INTERLEAVE_DEFAULT));
+			}
+			if (cli.hasOption(OPT_HEADER)) {
+				if (symbols >= 0 || ENUMERATE) {
+					System.out.println("Frame headers cannot be combined with fountain-coding or frame counters\n");
+					printHelp();
+					System.exit(1);
+				}
+				chunkSize -= FrameHeader.OVERHEAD;
+				if (chunkSize <= 0) {
+					System.out.printf("Frame headers need more than %d bytes%n", Integer.valueOf(FrameHeader.OVERHEAD));
+					System.exit(1);
+				}
+				final boolean compress = cli.hasOption(OPT_COMPRESS);
+				final long length = length(input, compress);
+				final int transfer = transfer(input, chunkSize, compress);
+				HEADER = FrameHeaderEncoder.of(transfer, length, chunkSize);
+				LOGGER.debug("transfer {} of {} bytes", Integer.toHexString(transfer), Long.valueOf(length));
+			}
+			if (plan != null) {
+				final int overhead = bytes - chunkSize + (ENUMERATE ? 2 : 0) + (symbols >= 0 ? FountainCode.OVERHEAD : 0);
+				report(plan, ecLevel, overhead, grid.getSize() * (rgb ? ChannelMultiplexer.CHANNELS : 1) * (PARITY == null ? 1 : PARITY.getData() / (double) (PARITY.getData() + PARITY.getParity())), delay);
+				System.out.printf("Using -b %d --ec %s%n", Integer.valueOf(bytes), ecLevel);
+				if (!cli.hasOption(OPT_SHOW) && !cli.hasOption(OPT_PREFIX) && !cli.hasOption(OPT_MP4)) {
+					return;
+				}
+			}
+			if ((grid.getSize() > 1 || rgb) && HEADER == null && symbols < 0) {
+				// QR codes of a frame which cannot be decoded are skipped by the reader;
+				// only frame headers or fountain-coding detect and make up for them
+				System.out.println("Grids of QR codes and color channels require frame headers or fountain-coding\n");
+				printHelp();
+				System.exit(1);
+			}
+			MissingChunks missing = null;
+			if (cli.hasOption(OPT_MISSING)) {
+				if (HEADER == null || HEADER.getTotal() < 0) {
+					System.out.println("Missing chunks can only be encoded with frame headers of regular files\n");
+					printHelp();
+					System.exit(1);
+				}
+				missing = MissingChunks.read(new File(cli.getOptionValue(OPT_MISSING)));
+				if (missing.getTransfer() != HEADER.getTransfer() || missing.getTotal() != HEADER.getTotal()) {
+					System.out.println("The manifest belongs to another transfer (other input or options)");
+					System.exit(1);
+				}
+				LOGGER.debug("{} of {} chunks missing", Integer.valueOf(missing.getCount()), Integer.valueOf(missing.getTotal()));
+			}
+			final Stream<BufferedImage> symbolStream;
+			if (missing != null) {
+				symbolStream = encodeFrames(createMissing(input, chunkSize, cli.hasOption(OPT_COMPRESS), HEADER, missing), dimension, threads);
+			} else if (cli.hasOption(OPT_COMPRESS)) {
+				// the compressed input is streamed
+				final InputStream compressed = new BlockDeflater(new FileInputStream(input), Deflater.BEST_COMPRESSION);
+				if (symbols >= 0) {
+					try (final InputStream in = compressed) {
+						symbolStream = createFountain(ByteBuffer.wrap(in.readAllBytes()), bytes, dimension, threads, symbols);
+					}
+				} else {
+					symbolStream = create(compressed, chunkSize, dimension, threads);
+				}
+			} else if (symbols >= 0) {
+				symbolStream = createFountain(read(input), bytes, dimension, threads, symbols);
+			} else {
+				// regular files are memory-mapped, anything else is streamed
+				symbolStream = input.isFile() ?
+					create(input, chunkSize, dimension, threads) :
+					create(new FileInputStream(input), chunkSize, dimension, threads);
+			}
+			final Stream<BufferedImage> gridStream = grid.getSize() > 1 ? grid.tile(symbolStream) : symbolStream;
+			final Stream<BufferedImage> imageStream;
+			if (rgb) {
+				final Stream<BufferedImage> merged = ChannelMultiplexer.merge(gridStream);
+				imageStream = cli.hasOption(OPT_CALIBRATION) ?
+					Stream.concat(Stream.of(ChannelMultiplexer.calibration(grid.getWidth(dimension), grid.getHeight(dimension))), merged) :
+					merged;
+			} else {
+				imageStream = gridStream;
+			}
 			if (cli.hasOption(OPT_SHOW)) {
-				new Viewer(dimension, imageStream, delay).show();
+				final int hold = Integer.parseInt(cli.getOptionValue(OPT_HOLD, "0"));
+				new Viewer(grid.getWidth(dimension), grid.getHeight(dimension), imageStream, delay, hold).show();
+			} else if (cli.hasOption(OPT_MP4)) {
+				final File video = new File(cli.getOptionValue(OPT_MP4));
+				// by default a QR code is shown as long as by the viewer
+				final double fps = cli.hasOption(OPT_FPS) ? Double.parseDouble(cli.getOptionValue(OPT_FPS)) : 1000d / delay;
+				final int repeats = Integer.parseInt(cli.getOptionValue(OPT_REPEATS, OPT_REPEATS_DEFAULT));
+				final int count;
+				try (imageStream; final VideoWriter writer = new VideoWriter(video, fps, repeats)) {
+					imageStream.forEach(writer);
+					count = writer.getCount();
+				}
+				LOGGER.debug("wrote {} QR code frames to {}", Integer.valueOf(count), video);
 			} else {
 				final String prefix = cli.getOptionValue(OPT_PREFIX);
 				if (prefix == null) {
-					System.out.println("Prefix required if not showing directly\n");
+					System.out.println("Prefix or video required if not showing directly\n");
 					printHelp();
 					System.exit(1);
 				}
-				final AtomicInteger count = new AtomicInteger();
-				imageStream
-					.forEach(img -> {
-						try {
-							ImageIO.write(img, IMAGE_FORMAT, new File(String.format("%s%04d.png", prefix, count.incrementAndGet())));
-						} catch (IOException e) {
-							throw new IllegalStateException(e);
-						}
-					});
-				LOGGER.debug(String.format("wrote %s%04d.png ... %s%04d.png", prefix, 0, prefix, count.get()));
+				final int level = Integer.parseInt(cli.getOptionValue(OPT_LEVEL, OPT_LEVEL_DEFAULT));
+				final int count;
+				try (imageStream; final FrameWriter writer = new FrameWriter(prefix, level, threads)) {
+					imageStream.forEach(writer);
+					count = writer.getCount();
+				}
+				LOGGER.debug("wrote {} ... {}", FrameWriter.getFilename(prefix, 1), FrameWriter.getFilename(prefix, count));
 			}
-		} catch (MissingOptionException e) {
+		} catch (MissingOptionException|IllegalArgumentException e) {
+			// invalid options or arguments
 			System.out.printf("%s%n%n", e.getMessage());
 			printHelp();
 			System.exit(1);
+		} catch (IllegalStateException e) {
+			// failures while encoding or writing, the options are fine
+			LOGGER.debug("generating failed", e);
+			System.out.printf("Error: %s%n", e.getMessage());
+			System.exit(1);
 		}
 
 	}
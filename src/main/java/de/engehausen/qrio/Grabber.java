@@ -21,9 +21,11 @@ import java.io.File;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.StreamSupport;
 
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -37,6 +39,8 @@ import javax.swing.event.ChangeListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.engehausen.qrio.util.FrameValidator;
+import de.engehausen.qrio.util.QrLocator;
 import de.engehausen.qrio.util.ScreenIterator;
 import de.engehausen.qrio.util.Screenshot;
 
@@ -50,29 +54,44 @@ public class Grabber {
 
 	private static final Dimension LABEL_DIMENSION = new Dimension(96, 18);
 	private static final Dimension VALUE_DIMENSION = new Dimension(48, 18);
-	private static final int SCAN_MIN_MS = 100;
-	private static final int SCAN_MAX_MS = 2000;
 	private static final int TIMEOUT_MIN_S = 0;
 	private static final int TIMEOUT_MAX_S = 5;
+	// scale of the screenshot searched for the QR code
+	private static final double LOCATE_SCALE = 0.5;
+	// failed decodings in a row after which the QR code is located again
+	private static final int LOCATE_MISSES = 5;
 
 	private final DisplayMode displayMode;
 	private final JFrame frame;
 	private final ImagePanel panel;
 	private final JPanel preparePanel;
-	private final Function<byte[], byte[]> postprocessor;
-	private int scanInterval;
+	private final FrameValidator validator;
+	private final Predicate<BufferedImage> triage;
 	private int scanTimeout;
+	private boolean locate;
 	private final File output;
 
 	/**
 	 * Creates the tool.
 	 * @param output the file to output
-	 * @param postprocessor a post-processor for the bytes read
+	 * @param validator the validator of the bytes read
 	 * @throws AWTException in case of error
 	 */
-	public Grabber(final File output, final Function<byte[], byte[]> postprocessor) throws AWTException {
+	public Grabber(final File output, final FrameValidator validator) throws AWTException {
+		this(output, validator, null);
+	}
+
+	/**
+	 * Creates the tool.
+	 * @param output the file to output
+	 * @param validator the validator of the bytes read
+	 * @param triage the triage for screenshots, {@code null} to decode all screenshots
+	 * @throws AWTException in case of error
+	 */
+	public Grabber(final File output, final FrameValidator validator, final Predicate<BufferedImage> triage) throws AWTException {
 		this.output = output;
-		this.postprocessor = postprocessor;
+		this.validator = validator;
+		this.triage = triage;
 		displayMode = GraphicsEnvironment
 			.getLocalGraphicsEnvironment()
 			.getScreenDevices()[0]
@@ -92,7 +111,18 @@ public class Grabber {
 	protected void captured() {
 		frame.setVisible(false);
 		LOGGER.debug("capture region set to {}", panel.getArea());
-		final ScreenIterator screenIterator = new ScreenIterator(scanInterval, scanTimeout, panel.getArea());
+		grab(new ScreenIterator(scanTimeout, panel.getArea(), triage == null ? img -> true : triage));
+	}
+
+	protected void located() {
+		LOGGER.debug("locating QR code automatically");
+		grab(new ScreenIterator(
+			scanTimeout,
+			new QrLocator(new Rectangle(displayMode.getWidth(), displayMode.getHeight()), LOCATE_SCALE, LOCATE_MISSES),
+			triage == null ? img -> true : triage));
+	}
+
+	private void grab(final ScreenIterator screenIterator) {
 		new Thread(() -> {
 			final Function<byte[], byte[]> beeper = scanTimeout > 0 ?
 				Function.identity() :
@@ -103,15 +133,21 @@ public class Grabber {
 			try {
 				Reader.write(
 					output,
-					StreamSupport
-						.stream(Spliterators.spliterator(
-							screenIterator,
-							1,
-							Spliterator.NONNULL | Spliterator.ORDERED),
-							false)
-						.map(postprocessor)
-						.map(beeper)
+					Reader.decode(
+						StreamSupport
+							.stream(Spliterators.spliterator(
+								screenIterator,
+								1,
+								Spliterator.NONNULL | Spliterator.ORDERED),
+								false)
+							.onClose(screenIterator::stop)
+							.map(beeper),
+						validator
+					)
 				);
+				if (triage != null) {
+					LOGGER.debug("frame triage: {}", triage);
+				}
 				System.exit(0);
 			} catch (Throwable t) {
 				System.out.printf("%s%n%n", t.getMessage());
@@ -129,16 +165,16 @@ public class Grabber {
 	private JPanel createInitialDialog() {
 		final JPanel result = new JPanel();
 		result.setLayout(new BoxLayout(result, BoxLayout.Y_AXIS));
-		result.add(slider("Scan interval", "ms", SCAN_MIN_MS, SCAN_MAX_MS, 2 * SCAN_MIN_MS, 20, evt -> {
-			final JSlider src = (JSlider) evt.getSource();
-			scanInterval = src.getValue();
-		}));
 		result.add(slider("Scan timeout", "s", TIMEOUT_MIN_S, TIMEOUT_MAX_S, TIMEOUT_MAX_S - 1, 1, evt -> {
 			final JSlider src = (JSlider) evt.getSource();
 			scanTimeout = src.getValue();
 		}));
+		final JCheckBox locator = new JCheckBox("Locate QR code automatically");
+		locator.addActionListener(evt -> locate = locator.isSelected());
+		result.add(locator);
 		result.add(new JLabel("Click OK and select QR code region from the"));
-		result.add(new JLabel("screenshot taken after a two second delay."));
+		result.add(new JLabel("screenshot taken after a two second delay,"));
+		result.add(new JLabel("or have it located automatically."));
 		return result;
 	}
 
@@ -171,7 +207,8 @@ public class Grabber {
 	/**
 	 * Starts the tool by showing the grabbing parameters.
 	 * Once the parameters are set, the capture region will be
-	 * defined by the user, and afterwards grabbing commences.
+	 * defined by the user (or located automatically), and afterwards
+	 * grabbing commences.
 	 */
 	public void show() {
 		SwingUtilities.invokeLater(() -> {
@@ -181,6 +218,10 @@ public class Grabber {
 				"Set grabbing parameters",
 				JOptionPane.INFORMATION_MESSAGE
 				);
+			if (locate) {
+				located();
+				return;
+			}
 			final Timer timer = new Timer(2000, event -> {
 				setScreenshot(
 					Screenshot.capture(
@@ -2,15 +2,20 @@ package de.engehausen.qrio;
 
 import java.awt.AWTException;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -22,22 +27,28 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.jcodec.api.JCodecException;
+import org.jcodec.common.model.Picture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.NotFoundException;
-import com.google.zxing.Result;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
-import com.google.zxing.common.HybridBinarizer;
 
-import de.engehausen.qrio.util.FrameConcealer;
+import de.engehausen.qrio.util.BlockDeflater;
+import de.engehausen.qrio.util.ChannelSeparator;
+import de.engehausen.qrio.util.ConcurrentQrReader;
+import de.engehausen.qrio.util.FountainIterator;
+import de.engehausen.qrio.util.FrameValidator;
+import de.engehausen.qrio.util.FrameTriage;
 import de.engehausen.qrio.util.ImageIterator;
+import de.engehausen.qrio.util.MissingChunks;
 import de.engehausen.qrio.util.OptionsHelper;
+import de.engehausen.qrio.util.OrderedParallelIterator;
+import de.engehausen.qrio.util.ParityIterator;
+import de.engehausen.qrio.util.Reassembler;
+import de.engehausen.qrio.util.SegmentedVideoIterator;
 import de.engehausen.qrio.util.StatefulQrReader;
+import de.engehausen.qrio.util.SymbolGrid;
 import de.engehausen.qrio.util.VideoIterator;
 
 /**
@@ -61,10 +72,28 @@ public class Reader {
 	private static final String OPT_GRAB_DESC = "use screenshots to grab QR codes";
 	private static final String OPT_PREFIX = "prefix";
 	private static final String OPT_PREFIX_DESC = "prefix of QR code images to read from file system";
+	private static final String OPT_SEGMENTS = "segments";
+	private static final String OPT_SEGMENTS_DESC = "number of threads demuxing the video in parallel, split at its key frames";
+	private static final String OPT_SEGMENTS_DEFAULT = "1";
+	private static final String OPT_THREADS = "threads";
+	private static final String OPT_THREADS_DESC = "number of threads decoding video frames";
+	private static final String OPT_THREADS_DEFAULT = "1";
+	private static final String OPT_TRIAGE = "triage";
+	private static final String OPT_TRIAGE_DESC = "skip unchanged and blurred frames before decoding video frames or screenshots";
+	private static final String OPT_MISSING = "missing";
+	private static final String OPT_MISSING_DESC = "write the chunks still missing of an interrupted transfer to the given manifest (see generate --missing); without a source, only the manifest is written";
+	private static final String OPT_GRID = "grid";
+	private static final String OPT_GRID_DESC = "read the given rows by columns of QR codes per frame (see generate -g), not when grabbing; the QR codes of a frame are decoded in parallel";
+	private static final String OPT_GRID_DEFAULT = "1x1";
+	private static final String OPT_RGB = "rgb";
+	private static final String OPT_RGB_DESC = "read three QR codes per frame, one in each color channel (see generate --rgb), from video files or QR code images, not when grabbing; calibration frames are recognized by themselves";
 	private static final String OPT_VERBOSE = "verbose";
 	private static final String OPT_VERBOSE_DESC = "turn on debug information";
 
-	private static final MultiFormatReader READER;
+	// number of frames in flight per decoding thread
+	private static final int WINDOW_PER_THREAD = 4;
+
+	private static final ConcurrentQrReader READER = new ConcurrentQrReader((text, segments) -> toBytes(text, segments));
 
 	static {
 		final Options options = new Options();
@@ -85,43 +114,108 @@ public class Reader {
 			.optionWithArg(OPT_PREFIX, OPT_PREFIX_DESC)
 			.build()
 		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_SEGMENTS, toDefault(OPT_SEGMENTS_DESC, OPT_SEGMENTS_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.optionWithArg(OPT_THREADS, toDefault(OPT_THREADS_DESC, OPT_THREADS_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_TRIAGE, OPT_TRIAGE_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_MISSING, OPT_MISSING_DESC)
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOptionWithArg(OPT_GRID, toDefault(OPT_GRID_DESC, OPT_GRID_DEFAULT))
+			.build()
+		);
+		options.addOption(OptionsHelper
+			.longOption(OPT_RGB, OPT_RGB_DESC)
+			.build()
+		);
 		options.addOption(OptionsHelper
 			.option(OPT_VERBOSE, OPT_VERBOSE_DESC)
 			.build()
 		);
 		OPTIONS = options;
-		final MultiFormatReader reader = new MultiFormatReader();
-		reader.setHints(Map.of(
-			DecodeHintType.TRY_HARDER, Boolean.TRUE,
-			DecodeHintType.POSSIBLE_FORMATS, Collections.singleton(BarcodeFormat.QR_CODE)
-			)
-		);
-		READER = reader;
+	}
+
+	private static String toDefault(final String text, final String value) {
+		return String.format("%s (default: %s)", text, value);
 	}
 
 	/**
 	 * Reads the bytes of an image containing a QR code.
+	 * This method is thread-safe.
 	 * @param image the QR code image to process
 	 * @return the decoded bytes (may be empty, but never {@code null})
 	 * @throws NotFoundException in case of error
 	 */
 	public static byte[] readQR(final BufferedImage image) throws NotFoundException {
-		final Result result = READER
-			.decode(
-				new BinaryBitmap(
-					new HybridBinarizer(
-						new BufferedImageLuminanceSource(image)
-					)
-				)
-			);
-		if (result.getNumBits() == 0) {
-			return new byte[0]; // funny decoding issues where there are no result bits
+		return READER.read(image);
+	}
+
+	/**
+	 * Reads the bytes of all QR codes of an image containing a grid of QR codes.
+	 * This method is thread-safe.
+	 * @param image the image to process
+	 * @param grid the grid of QR codes in the image
+	 * @return the decoded bytes per QR code, row by row; {@code null} for tiles without a QR code
+	 */
+	public static List<byte[]> readQR(final BufferedImage image, final SymbolGrid grid) {
+		return READER.readAll(image, grid);
+	}
+
+	/**
+	 * Converts the contents of a QR code into the bytes it represents.
+	 * Binary payloads are read from the raw byte segments of the code,
+	 * anything else is taken as Base64 text.
+	 * @param text the text of the QR code
+	 * @param segments the raw byte segments of the QR code, may be {@code null}
+	 * @return the decoded bytes
+	 */
+	protected static byte[] toBytes(final String text, final List<byte[]> segments) {
+		if (segments == null || segments.isEmpty() || segments.get(0).length == 0) {
+			return toBytes(text);
+		}
+		final byte first = segments.get(0)[0];
+		if (first != Generator.BINARY_PAD && first != Generator.BINARY_VERSION) {
+			return toBytes(text);
+		}
+		final byte[] payload;
+		if (segments.size() == 1) {
+			payload = segments.get(0);
+		} else {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			segments.forEach(out::writeBytes);
+			payload = out.toByteArray();
+		}
+		// if this was padded, skip padding bytes
+		int idx = 0;
+		while (idx < payload.length && payload[idx] == Generator.BINARY_PAD) {
+			idx++;
+		}
+		if (idx == payload.length || payload[idx] != Generator.BINARY_VERSION) {
+			throw new IllegalStateException(String.format("unsupported binary payload version 0x%02x", Integer.valueOf(idx == payload.length ? 0 : payload[idx] & 0xff)));
 		}
+		return Arrays.copyOfRange(payload, idx + 1, payload.length);
+	}
+
+	/**
+	 * Converts the text of a QR code into the bytes it represents.
+	 * @param str the (possibly padded) Base64 text of the QR code
+	 * @return the decoded bytes
+	 */
+	protected static byte[] toBytes(final String str) {
 		// if this was padded, remove padding characters
 		// this does not use lastIndexOf, because if
 		// padding characters are present, they WILL be
 		// at the beginning
-		final String str = result.getText();
 		int idx = 0;
 		while (idx < str.length() && str.charAt(idx) == Generator.PAD_CHARACTER) {
 			idx++;
@@ -132,54 +226,226 @@ public class Reader {
 		return Base64.getDecoder().decode(str);
 	}
 
+	/**
+	 * Writes the chunks to the given file; compressed input
+	 * (see {@link BlockDeflater}) is decompressed. Frames with headers
+	 * passed on by a {@link FrameValidator#FrameValidator(boolean) reassembling validator}
+	 * are written in any order, and the input is only read until all chunks were received.
+	 * The stream is closed.
+	 * @param output the file to write
+	 * @param stream the chunks
+	 * @throws IOException in case of error
+	 */
 	protected static void write(final File output, final Stream<byte[]> stream) throws IOException {
-		try (final FileOutputStream out = new FileOutputStream(output)) {
-			stream
-				.forEach(chunk -> {
+		try (stream; final Reassembler reassembler = new Reassembler(output)) {
+			final Iterator<byte[]> chunks = stream.iterator();
+			while (!reassembler.isComplete() && chunks.hasNext()) {
+				reassembler.accept(chunks.next());
+			}
+		}
+		LOGGER.debug("wrote {}", output);
+	}
+
+	protected static Stream<byte[]> readVideo(final File input) throws IOException, JCodecException {
+		return readVideo(input, 1, 1, source -> true);
+	}
+
+	protected static Stream<byte[]> readVideo(final File input, final int threads, final int segments, final Predicate<LuminanceSource> triage) throws IOException, JCodecException {
+		return readVideo(input, threads, segments, triage, new FrameValidator());
+	}
+
+	protected static Stream<byte[]> readVideo(final File input, final int threads, final int segments, final Predicate<LuminanceSource> triage, final FrameValidator validator) throws IOException, JCodecException {
+		return readVideo(input, threads, segments, triage, validator, SymbolGrid.SINGLE);
+	}
+
+	protected static Stream<byte[]> readVideo(final File input, final int threads, final int segments, final Predicate<LuminanceSource> triage, final FrameValidator validator, final SymbolGrid grid) throws IOException, JCodecException {
+		// the QR codes are decoded from the luma planes of the video frames
+		final Stream<LuminanceSource> frames = video(input, VideoIterator.LUMINANCE, segments)
+			// the triage is stateful and sees all frames in order
+			.filter(triage);
+		return decodeFrames(frames.map(Collections::singletonList), threads, validator, grid);
+	}
+
+	protected static Stream<byte[]> readColorVideo(final File input, final int threads, final int segments, final Predicate<BufferedImage> triage, final FrameValidator validator, final SymbolGrid grid) throws IOException, JCodecException {
+		// the channels are separated in order, as calibration frames apply to subsequent frames
+		final Stream<List<LuminanceSource>> frames = video(input, VideoIterator.IMAGE, segments)
+			.filter(triage)
+			.map(new ChannelSeparator())
+			.filter(channels -> !channels.isEmpty());
+		return decodeFrames(frames, threads, validator, grid);
+	}
+
+	private static <T> Stream<T> video(final File input, final Function<Picture, T> converter, final int segments) throws IOException, JCodecException {
+		final VideoIterator<T> frames = segments > 1 ?
+			new SegmentedVideoIterator<>(input, converter, segments) :
+			new VideoIterator<>(input, converter);
+		return StreamSupport
+			.stream(
+				Spliterators.spliterator(
+					frames,
+					1,
+					Spliterator.NONNULL | Spliterator.IMMUTABLE | Spliterator.ORDERED),
+					false
+			)
+			.onClose(() -> {
 				try {
-					out.write(chunk);
+					frames.close();
 				} catch (IOException e) {
 					throw new IllegalStateException(e);
 				}
 			});
-		}
-		LOGGER.debug("wrote {}", output);
 	}
 
-	protected static Stream<byte[]> readVideo(final File input) throws IOException, JCodecException {
-		final FrameConcealer concealer = new FrameConcealer();
+	// decodes the QR codes of the given frames, each made of one or more luminance sources
+	private static Stream<byte[]> decodeFrames(final Stream<List<LuminanceSource>> frames, final int threads, final FrameValidator validator, final SymbolGrid grid) {
 		final StatefulQrReader qrReader = new StatefulQrReader();
+		if (threads > 1) {
+			// frames are decoded in parallel, but the results are returned
+			// in presentation order, so the stateful post-processing sees
+			// the same sequence as when decoding sequentially
+			final OrderedParallelIterator<List<LuminanceSource>, List<byte[]>> decoded = new OrderedParallelIterator<>(
+				frames.iterator(),
+				() -> frameDecoder(grid),
+				threads,
+				WINDOW_PER_THREAD * threads);
+			final Stream<byte[]> chunks = StreamSupport
+				.stream(
+					Spliterators.spliteratorUnknownSize(
+						decoded,
+						Spliterator.ORDERED),
+						false
+				)
+				// the input may not be read to its end
+				.onClose(decoded::shutdown)
+				.onClose(frames::close)
+				.flatMap(List::stream)
+				.map(qrReader::filter)
+				.filter(b -> b.length > 0);
+			return decode(chunks, validator);
+		}
+		return decode(
+			frames
+				.map(frameDecoder(grid))
+				.flatMap(List::stream)
+				.map(qrReader::filter)
+				.filter(b -> b.length > 0),
+			validator
+		);
+	}
+
+	/**
+	 * Decodes the chunks read from QR codes. If the chunks are parity-protected
+	 * frames, missing data frames are rebuilt first. If the chunks are fountain
+	 * code symbols, the stream ends as soon as the input is decoded,
+	 * otherwise the chunks are validated, and the validator verifies
+	 * that the transfer is complete once the chunks end.
+	 * @param chunks the chunks read
+	 * @param validator the validator for chunks which are not fountain-coded
+	 * @return the decoded chunks
+	 */
+	protected static Stream<byte[]> decode(final Stream<byte[]> chunks, final FrameValidator validator) {
+		return decode(chunks, validator, validator::finish);
+	}
+
+	/**
+	 * Decodes the chunks read from QR codes. If the chunks are parity-protected
+	 * frames, missing data frames are rebuilt first. If the chunks are fountain
+	 * code symbols, the stream ends as soon as the input is decoded,
+	 * otherwise the chunks are post-processed.
+	 * @param chunks the chunks read
+	 * @param postprocessor the post-processor for chunks which are not fountain-coded
+	 * @param onEnd called once chunks which are not fountain-coded end
+	 * @return the decoded chunks
+	 */
+	protected static Stream<byte[]> decode(final Stream<byte[]> chunks, final Function<byte[], byte[]> postprocessor, final Runnable onEnd) {
 		return StreamSupport
 			.stream(
-				Spliterators.spliterator(
-					new VideoIterator(input),
-					1,
-					Spliterator.NONNULL | Spliterator.IMMUTABLE | Spliterator.NONNULL),
+				Spliterators.spliteratorUnknownSize(
+					new FountainIterator(new ParityIterator(chunks.iterator()), postprocessor, onEnd),
+					Spliterator.NONNULL | Spliterator.ORDERED),
 					false
 			)
-			.map(qrReader::apply)
-			.filter(b -> b.length > 0)
-			.map(concealer);
+			.onClose(chunks::close);
+	}
+
+	// decoder for video frames; the result holds the QR codes
+	// of the frame, null for tiles without a QR code
+	private static Function<List<LuminanceSource>, List<byte[]>> frameDecoder(final SymbolGrid grid) {
+		return sources -> {
+			if (sources.size() > 1 || grid.getSize() > 1) {
+				return READER.readAll(sources, grid);
+			}
+			try {
+				return Collections.singletonList(READER.read(sources.get(0)));
+			} catch (NotFoundException e) {
+				return Collections.singletonList(null);
+			}
+		};
 	}
 
 	protected static Stream<byte[]> readFiles(final String prefix) throws IOException, JCodecException {
-		final Function<byte[], byte[]> postProcess = new FrameConcealer();
-		return StreamSupport
+		return readFiles(prefix, new FrameValidator());
+	}
+
+	protected static Stream<byte[]> readFiles(final String prefix, final FrameValidator validator) throws IOException, JCodecException {
+		return readFiles(prefix, validator, SymbolGrid.SINGLE);
+	}
+
+	protected static Stream<byte[]> readFiles(final String prefix, final FrameValidator validator, final SymbolGrid grid) throws IOException, JCodecException {
+		return readFiles(prefix, validator, grid, false);
+	}
+
+	protected static Stream<byte[]> readFiles(final String prefix, final FrameValidator validator, final SymbolGrid grid, final boolean color) throws IOException, JCodecException {
+		final Stream<BufferedImage> images = StreamSupport
 			.stream(
 				Spliterators.spliterator(
 					new ImageIterator(prefix),
 					1,
 					Spliterator.NONNULL | Spliterator.ORDERED),
 					false
-			)
-			.map(img -> {
-				try {
-					return readQR(img);
-				} catch (NotFoundException e) {
-					throw new IllegalStateException(e);
-				}
-			})
-			.map(postProcess);
+			);
+		if (color) {
+			// the last frame may have blank channels
+			return decode(
+				images
+					.map(new ChannelSeparator())
+					.flatMap(channels -> READER.readAll(channels, grid).stream())
+					.filter(Objects::nonNull),
+				validator
+			);
+		}
+		if (grid.getSize() > 1) {
+			// the last frame of a grid may not be full
+			return decode(
+				images
+					.flatMap(img -> readQR(img, grid).stream())
+					.filter(Objects::nonNull),
+				validator
+			);
+		}
+		return decode(
+			images
+				.map(img -> {
+					try {
+						return readQR(img);
+					} catch (NotFoundException e) {
+						throw new IllegalStateException(e);
+					}
+				}),
+			validator
+		);
+	}
+
+	// writes the manifest of the chunks missing of an interrupted transfer to the output
+	private static void writeMissing(final File output, final File manifest) throws IOException {
+		final MissingChunks missing = Reassembler.getMissing(output);
+		if (missing == null) {
+			Files.deleteIfExists(manifest.toPath());
+			System.out.printf("No interrupted transfer to %s%n", output);
+			return;
+		}
+		missing.write(manifest);
+		System.out.printf("%d of %d chunks missing, see %s%n", Integer.valueOf(missing.getCount()), Integer.valueOf(missing.getTotal()), manifest);
 	}
 
 	private static void printHelp() {
@@ -206,45 +472,65 @@ public class Reader {
 			OptionsHelper.verbose(cli.hasOption(OPT_VERBOSE));
 			final String filename = cli.getOptionValue(OPT_OUTPUT);
 			final File output = new File(filename);
+			final int threads = Integer.parseInt(cli.getOptionValue(OPT_THREADS, OPT_THREADS_DEFAULT));
+			final int segments = Integer.parseInt(cli.getOptionValue(OPT_SEGMENTS, OPT_SEGMENTS_DEFAULT));
+			final FrameTriage triage = cli.hasOption(OPT_TRIAGE) ? new FrameTriage() : null;
+			final File manifest = cli.hasOption(OPT_MISSING) ? new File(cli.getOptionValue(OPT_MISSING)) : null;
+			final SymbolGrid grid = SymbolGrid.parse(cli.getOptionValue(OPT_GRID, OPT_GRID_DEFAULT));
 			if (cli.hasOption(OPT_GRAB)) {
-				new Grabber(output, new FrameConcealer()).show();
+				if (grid.getSize() > 1) {
+					// the grabber decodes one QR code per screenshot
+					System.out.println("Grids of QR codes cannot be grabbed from the screen, read a video or frames instead\n");
+					printHelp();
+					System.exit(1);
+				}
+				if (cli.hasOption(OPT_RGB)) {
+					// the grabber decodes the luminance of the screenshots
+					System.out.println("Color channels cannot be grabbed from the screen, read a video or frames instead\n");
+					printHelp();
+					System.exit(1);
+				}
+				new Grabber(output, new FrameValidator(true), triage == null ? null : triage.images()).show();
 			} else if (cli.hasOption(OPT_FILE)) {
 				final File input = new File(cli.getOptionValue(OPT_FILE));
-				write(
-					output,
-					readVideo(input)
-				);
+				try {
+					write(
+						output,
+						cli.hasOption(OPT_RGB) ?
+							readColorVideo(input, threads, segments, triage == null ? image -> true : triage.images(), new FrameValidator(true), grid) :
+							readVideo(input, threads, segments, triage == null ? source -> true : triage.luminance(), new FrameValidator(true), grid)
+					);
+				} finally {
+					if (manifest != null) {
+						writeMissing(output, manifest);
+					}
+				}
+				if (triage != null) {
+					LOGGER.debug("frame triage: {}", triage);
+				}
 			} else {
 				final String prefix = cli.getOptionValue(OPT_PREFIX);
 				if (prefix == null) {
+					if (manifest != null) {
+						writeMissing(output, manifest);
+						return;
+					}
 					System.out.println("Prefix required if neither grabbing nor reading video\n");
 					printHelp();
 					System.exit(1);
 				}
-				write(
-					output,
-					readFiles(prefix)
-				);
-				write(
-					output,
-					StreamSupport
-						.stream(
-							Spliterators.spliterator(
-								new ImageIterator(prefix),
-								1,
-								Spliterator.NONNULL | Spliterator.ORDERED),
-								false
-						).map(img -> {
-							try {
-								return readQR(img);
-							} catch (NotFoundException e) {
-								throw new IllegalStateException(e);
-							}
-						}
-					)
-				);
+				try {
+					write(
+						output,
+						readFiles(prefix, new FrameValidator(true), grid, cli.hasOption(OPT_RGB))
+					);
+				} finally {
+					if (manifest != null) {
+						writeMissing(output, manifest);
+					}
+				}
 			}
-		} catch (MissingOptionException|IllegalStateException e) {
+		} catch (MissingOptionException|IllegalStateException|IllegalArgumentException e) {
 			System.out.printf("%s%n%n", e.getMessage());
 			printHelp();
 			System.exit(1);
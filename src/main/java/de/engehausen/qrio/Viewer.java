@@ -1,15 +1,23 @@
 package de.engehausen.qrio;
 
 import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.Toolkit;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
-import java.util.Iterator;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Stream;
 
 import javax.swing.BorderFactory;
@@ -23,19 +31,40 @@ import javax.swing.WindowConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.engehausen.qrio.util.DaemonThreadFactory;
+import de.engehausen.qrio.util.FramePrefetcher;
+
 /**
  * A UI player for a series of QR codes.
  * The images can be "flipped through" once using the "cursor right"
  * key or played once by pressing the "p" key ("play").
+ * The images are produced ahead in the background, so producing them
+ * does not delay the display; if an image is not ready in time, the
+ * current image is shown longer (an underrun), which is reported.
+ * <p>If frames are held for a number of display refreshes instead of
+ * a delay in milliseconds, the images are rendered actively from images
+ * scaled ahead into accelerated memory, paced at the nominal refresh rate
+ * of the display, without the jitter of the Swing timer. AWT offers no
+ * public way to wait for the vertical blank, so the pace may drift against
+ * the actual refresh and a frame change may still tear.</p>
  */
 public class Viewer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Viewer.class);
 
+	// number of images produced ahead
+	private static final int PREFETCH = 32;
+	// assumed if the display does not tell its refresh rate
+	private static final int DEFAULT_REFRESH_RATE = 60;
+
 	private final JFrame frame;
 	private final ImagePanel panel;
-	private final Iterator<BufferedImage> images;
+	private final RefreshCanvas canvas;
+	private final FramePrefetcher<BufferedImage> images;
 	private final int autoModeDelay;
+	private final int hold;
+	private final AtomicInteger steps;
+	private volatile boolean playing;
 	private int index;
 	private Timer timer;
 
@@ -46,57 +75,173 @@ public class Viewer {
 	 * @param delay the delay in milliseconds between frames.
 	 */
 	public Viewer(final int size, final Stream<BufferedImage> stream, final int delay) {
-		images = stream.iterator();
-		if (!images.hasNext()) {
+		this(size, size, stream, delay);
+	}
+
+	/**
+	 * Creates the viewer for the given display width and height, image stream and frame delay.
+	 * @param width the display width
+	 * @param height the display height
+	 * @param stream the stream of images, e.g. of grids of QR codes
+	 * @param delay the delay in milliseconds between frames.
+	 */
+	public Viewer(final int width, final int height, final Stream<BufferedImage> stream, final int delay) {
+		this(width, height, stream, delay, 0);
+	}
+
+	/**
+	 * Creates the viewer for the given display width and height, image stream and frame timing.
+	 * @param width the display width
+	 * @param height the display height
+	 * @param stream the stream of images, e.g. of grids of QR codes
+	 * @param delay the delay in milliseconds between frames, if not holding frames for display refreshes
+	 * @param hold the number of display refreshes to show each frame for, {@code 0} to use the delay
+	 */
+	public Viewer(final int width, final int height, final Stream<BufferedImage> stream, final int delay, final int hold) {
+		if (hold < 0) {
+			throw new IllegalArgumentException(String.format("invalid hold %d", Integer.valueOf(hold)));
+		}
+		images = new FramePrefetcher<>(stream.iterator(), PREFETCH);
+		final BufferedImage first = images.take();
+		if (first == null) {
 			throw new IllegalStateException("no images to display");
 		}
 		autoModeDelay = delay;
+		this.hold = hold;
+		steps = new AtomicInteger();
 		index = 1;
 		frame = new JFrame();
 		frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-		panel = new ImagePanel(size);
-		panel.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY, 4));
-		panel.setOpaque(false);
-		frame.getContentPane().add(panel, BorderLayout.CENTER);
+		final Component display;
+		if (hold > 0) {
+			panel = null;
+			canvas = new RefreshCanvas(width, height);
+			display = canvas;
+		} else {
+			panel = new ImagePanel(width, height);
+			panel.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY, 4));
+			panel.setOpaque(false);
+			canvas = null;
+			display = panel;
+		}
+		frame.getContentPane().add(display, BorderLayout.CENTER);
 		frame.pack();
-		frame.addKeyListener(new KeyAdapter() {
+		final KeyAdapter keys = new KeyAdapter() {
 			@Override
 			public void keyReleased(final KeyEvent e) {
 				switch (e.getKeyCode()) {
 				case KeyEvent.VK_RIGHT:
-					next();
+					if (canvas == null) {
+						next();
+					} else {
+						// the render thread takes the step at the next refresh
+						steps.incrementAndGet();
+					}
 					break;
 				case KeyEvent.VK_P:
-					initTimer();
+					if (canvas == null) {
+						initTimer();
+					} else {
+						playing = true;
+					}
 					break;
 				default:
 					break;
 				}
 			}
-		});
-		next();
+		};
+		frame.addKeyListener(keys);
+		display.addKeyListener(keys);
+		show(first);
 	}
 
 	private void initTimer() {
 		if (timer == null) {
 			timer = new Timer(autoModeDelay, evt -> {
-				if (!next()) {
+				next();
+				if (images.isExhausted()) {
 					timer.stop();
+					LOGGER.info("showed {} frames, {} underruns", Integer.valueOf(images.getCount()), Integer.valueOf(images.getUnderruns()));
 				}
 			});
 			timer.start();
 		}
 	}
 
+	// renders at the nominal refresh rate, for as long as the window is shown
+	private void render() {
+		final long period = TimeUnit.SECONDS.toNanos(1) / refreshRate();
+		int held = 0;
+		int late = 0;
+		boolean reported = false;
+		long deadline = System.nanoTime();
+		while (true) {
+			if (playing) {
+				if (++held >= hold && next()) {
+					held = 0;
+				}
+				if (images.isExhausted() && !reported) {
+					LOGGER.info("showed {} frames, {} underruns, {} late refreshes", Integer.valueOf(images.getCount()), Integer.valueOf(images.getUnderruns()), Integer.valueOf(late));
+					reported = true;
+				}
+			} else if (steps.get() > 0) {
+				steps.decrementAndGet();
+				next();
+			}
+			canvas.render();
+			deadline += period;
+			final long now = System.nanoTime();
+			if (now > deadline) {
+				// missed a refresh; the current frame is held longer
+				late++;
+				deadline = now;
+			} else {
+				LockSupport.parkNanos(deadline - now);
+			}
+		}
+	}
+
+	private int refreshRate() {
+		final int rate = frame.getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+		final int result = rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+		LOGGER.debug("display refresh rate {} Hz, showing {} frames per second", Integer.valueOf(result), Double.valueOf(result / (double) hold));
+		return result;
+	}
+
+	// shows the next image if it is ready; returns false if none was ready
 	private boolean next() {
-		if (images.hasNext()) {
-			LOGGER.debug("showing frame {}", Integer.toString(index));
-			final BufferedImage img = images.next();
-			frame.setTitle(String.format("Frame %04d", index));
+		final BufferedImage img = images.poll();
+		if (img != null) {
+			show(img);
+			return true;
+		}
+		if (!images.isExhausted()) {
+			LOGGER.debug("underrun at frame {}", Integer.toString(index));
+			setTitle();
+		}
+		return false;
+	}
+
+	private void show(final BufferedImage img) {
+		LOGGER.debug("showing frame {}", Integer.toString(index));
+		setTitle();
+		if (canvas == null) {
 			panel.setImage(img);
-			index++;
+		} else {
+			canvas.setImage(img);
+		}
+		index++;
+	}
+
+	private void setTitle() {
+		final String title = images.getUnderruns() == 0 ?
+			String.format("Frame %04d", Integer.valueOf(index)) :
+			String.format("Frame %04d (%d underruns)", Integer.valueOf(index), Integer.valueOf(images.getUnderruns()));
+		if (SwingUtilities.isEventDispatchThread()) {
+			frame.setTitle(title);
+		} else {
+			SwingUtilities.invokeLater(() -> frame.setTitle(title));
 		}
-		return images.hasNext();
 	}
 
 	/**
@@ -105,6 +250,10 @@ public class Viewer {
 	public void show() {
 		SwingUtilities.invokeLater(() -> {
 			frame.setVisible(true);
+			if (canvas != null) {
+				canvas.createBufferStrategy(2);
+				new DaemonThreadFactory("render").newThread(this::render).start();
+			}
 			JOptionPane.showMessageDialog(frame, "Press 'p' to start video, use cursor right to flip through.");
 		});
 	}
@@ -116,8 +265,8 @@ public class Viewer {
 		protected BufferedImage image;
 		private final Dimension dimension;
 
-		public ImagePanel(final int size) {
-			dimension = new Dimension(4 + 3 * size, 4 + 3 * size);
+		public ImagePanel(final int width, final int height) {
+			dimension = new Dimension(4 + 3 * width, 4 + 3 * height);
 		}
 
 		public void setImage(final BufferedImage img) {
@@ -133,9 +282,10 @@ public class Viewer {
 			g2d.setColor(Color.BLACK);
 			g2d.fillRect(0, 0, w, h);
 			if (image != null) {
-				final int s = Math.min(w, h);
+				// keep the aspect ratio of the image
+				final double scale = Math.min(w / (double) image.getWidth(), h / (double) image.getHeight());
 				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-				g2d.drawImage(image, 0, 0, s, s, this);
+				g2d.drawImage(image, 0, 0, (int) (scale * image.getWidth()), (int) (scale * image.getHeight()), this);
 			}
 			super.paint(g);
 		}
@@ -152,4 +302,89 @@ public class Viewer {
 
 	}
 
+	// renders actively into a buffer strategy, from an image scaled ahead
+	private static class RefreshCanvas extends Canvas {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Dimension dimension;
+		private transient BufferedImage image;
+		private transient VolatileImage scaled;
+		private boolean stale;
+
+		public RefreshCanvas(final int width, final int height) {
+			dimension = new Dimension(3 * width, 3 * height);
+			setIgnoreRepaint(true);
+			setBackground(Color.BLACK);
+		}
+
+		// called by the render thread only
+		public void setImage(final BufferedImage img) {
+			image = img;
+			stale = true;
+		}
+
+		public void render() {
+			final BufferStrategy strategy = getBufferStrategy();
+			do {
+				do {
+					final VolatileImage prescaled = prescale();
+					final Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+					try {
+						g2d.setColor(Color.BLACK);
+						g2d.fillRect(0, 0, getWidth(), getHeight());
+						// unscaled, thus a plain copy
+						g2d.drawImage(prescaled, (getWidth() - prescaled.getWidth()) / 2, (getHeight() - prescaled.getHeight()) / 2, null);
+					} finally {
+						g2d.dispose();
+					}
+				} while (strategy.contentsRestored());
+				strategy.show();
+			} while (strategy.contentsLost());
+			Toolkit.getDefaultToolkit().sync();
+		}
+
+		// scales the image once per image or window size; the scale is a whole
+		// number, so that all modules of the QR codes have the same size
+		private VolatileImage prescale() {
+			final int factor = Math.max(1, Math.min(getWidth() / image.getWidth(), getHeight() / image.getHeight()));
+			final int width = factor * image.getWidth();
+			final int height = factor * image.getHeight();
+			final int status = scaled == null || scaled.getWidth() != width || scaled.getHeight() != height ?
+				VolatileImage.IMAGE_INCOMPATIBLE :
+				scaled.validate(getGraphicsConfiguration());
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (scaled != null) {
+					scaled.flush();
+				}
+				scaled = createVolatileImage(width, height);
+				stale = true;
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				stale = true;
+			}
+			if (stale) {
+				final Graphics2D g2d = scaled.createGraphics();
+				try {
+					g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+					g2d.drawImage(image, 0, 0, width, height, null);
+				} finally {
+					g2d.dispose();
+				}
+				stale = false;
+			}
+			return scaled;
+		}
+
+		@Override
+		public Dimension getPreferredSize() {
+			return dimension;
+		}
+
+		@Override
+		public Dimension getMinimumSize() {
+			return dimension;
+		}
+
+	}
+
 }
@@ -0,0 +1,206 @@
+package de.engehausen.qrio.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Input stream compressing another input stream block by block.
+ * The compressed stream starts with a {@link #SIGNATURE}, followed by one
+ * record per block of the input: the type of the record (raw or deflated),
+ * the length of the block, the length of the stored data and the data.
+ * The compressibility of each block is probed on a sample first; blocks
+ * that do not compress well (e.g. of already compressed inputs) are stored
+ * raw, without spending time on deflating them. See {@link BlockInflater}
+ * for the decompression.
+ */
+public class BlockDeflater extends InputStream {
+
+	/**
+	 * Signature at the start of a compressed stream.
+	 */
+	public static final byte[] SIGNATURE = { 'Q', 'R', 'Z', '1', '\r', '\n', 0x1a, '\n' };
+
+	/**
+	 * Default size of the blocks.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum size of the blocks; larger blocks are rejected when decompressing.
+	 */
+	public static final int MAX_BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
+
+	protected static final byte RAW = 0;
+	protected static final byte DEFLATED = 1;
+	protected static final int RECORD_HEADER = 9;
+
+	// size of the sample to probe, and the ratio it must compress to
+	private static final int PROBE = 4 * 1024;
+	private static final double PROBE_RATIO = 0.9;
+
+	private final InputStream source;
+	private final Deflater deflater;
+	private final Deflater prober;
+	private final byte[] block;
+	private final byte[] compressed;
+	private ByteBuffer record;
+	private boolean eof;
+	private long raw;
+	private long deflated;
+
+	/**
+	 * Creates the stream with the default block size.
+	 * @param source the stream to compress
+	 * @param level the compression level from {@code 1} (fast) to {@code 9} (small)
+	 */
+	public BlockDeflater(final InputStream source, final int level) {
+		this(source, level, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates the stream.
+	 * @param source the stream to compress
+	 * @param level the compression level from {@code 1} (fast) to {@code 9} (small)
+	 * @param blockSize the size of the blocks, at most {@link #MAX_BLOCK_SIZE}
+	 */
+	public BlockDeflater(final InputStream source, final int level, final int blockSize) {
+		if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException(String.format("invalid block size %d", Integer.valueOf(blockSize)));
+		}
+		this.source = source;
+		deflater = new Deflater(level);
+		prober = new Deflater(Deflater.BEST_SPEED);
+		block = new byte[blockSize];
+		// deflating incompressible data adds a few bytes, but such blocks are stored raw
+		compressed = new byte[blockSize];
+		record = ByteBuffer.wrap(SIGNATURE.clone());
+	}
+
+	/**
+	 * Returns the number of blocks stored raw so far.
+	 * @return the number of raw blocks
+	 */
+	public long getRawBlocks() {
+		return raw;
+	}
+
+	/**
+	 * Returns the number of blocks stored deflated so far.
+	 * @return the number of deflated blocks
+	 */
+	public long getDeflatedBlocks() {
+		return deflated;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read() throws IOException {
+		final byte[] result = new byte[1];
+		return read(result, 0, 1) < 0 ? -1 : result[0] & 0xff;
+	}
+
+	/**
+	 * Reads as many bytes as requested, unless the end of the stream is reached.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		int count = 0;
+		while (count < len && fill()) {
+			final int n = Math.min(len - count, record.remaining());
+			record.get(b, off + count, n);
+			count += n;
+		}
+		return count == 0 && len > 0 ? -1 : count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int available() throws IOException {
+		return fill() ? record.remaining() : 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		deflater.end();
+		prober.end();
+		source.close();
+	}
+
+	// makes sure the record has remaining bytes; returns false at the end of the stream
+	private boolean fill() throws IOException {
+		if (record.hasRemaining()) {
+			return true;
+		}
+		if (eof) {
+			return false;
+		}
+		final int length = source.readNBytes(block, 0, block.length);
+		if (length < block.length) {
+			eof = true;
+			if (length == 0) {
+				return false;
+			}
+		}
+		final int size = compress(length);
+		if (size < 0) {
+			raw++;
+			record = ByteBuffer.allocate(RECORD_HEADER + length)
+				.put(RAW)
+				.putInt(length)
+				.putInt(length)
+				.put(block, 0, length);
+		} else {
+			deflated++;
+			record = ByteBuffer.allocate(RECORD_HEADER + size)
+				.put(DEFLATED)
+				.putInt(length)
+				.putInt(size)
+				.put(compressed, 0, size);
+		}
+		record.flip();
+		return true;
+	}
+
+	// deflates the block; returns -1 if the block is to be stored raw
+	private int compress(final int length) {
+		final int sample = Math.min(PROBE, length);
+		prober.reset();
+		prober.setInput(block, 0, sample);
+		prober.finish();
+		final int probed = prober.deflate(compressed);
+		if (!prober.finished() || probed > sample * PROBE_RATIO) {
+			return -1;
+		}
+		deflater.reset();
+		deflater.setInput(block, 0, length);
+		deflater.finish();
+		final int size = deflater.deflate(compressed);
+		if (!deflater.finished() || size >= length) {
+			return -1;
+		}
+		return size;
+	}
+
+	/**
+	 * Checks whether the given bytes start with the {@link #SIGNATURE}.
+	 * @param bytes the bytes to check
+	 * @param length the number of valid bytes
+	 * @return {@code true} if the bytes start with the signature
+	 */
+	public static boolean isCompressed(final byte[] bytes, final int length) {
+		return length >= SIGNATURE.length
+			&& Arrays.equals(bytes, 0, SIGNATURE.length, SIGNATURE, 0, SIGNATURE.length);
+	}
+
+}
@@ -0,0 +1,173 @@
+package de.engehausen.qrio.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Output stream decompressing the output of a {@link BlockDeflater}
+ * into another output stream. If the bytes written do not start with the
+ * {@link BlockDeflater#SIGNATURE}, they are passed on unchanged.
+ */
+public class BlockInflater extends OutputStream {
+
+	private final OutputStream target;
+	private final Inflater inflater;
+	private final byte[] single;
+	private ByteBuffer header;
+	private ByteBuffer data;
+	private byte[] block;
+	private Boolean compressed;
+
+	/**
+	 * Creates the stream.
+	 * @param target the stream to write the decompressed bytes to
+	 */
+	public BlockInflater(final OutputStream target) {
+		this.target = target;
+		inflater = new Inflater();
+		single = new byte[1];
+		header = ByteBuffer.allocate(BlockDeflater.SIGNATURE.length);
+		block = new byte[0];
+	}
+
+	/**
+	 * Checks whether the bytes written are compressed.
+	 * @return {@code true} if compressed, {@code false} if not, {@code null}
+	 * if not enough bytes were written yet
+	 */
+	public Boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		single[0] = (byte) b;
+		write(single, 0, 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (Boolean.FALSE.equals(compressed)) {
+			target.write(b, off, len);
+			return;
+		}
+		int offset = off;
+		final int end = off + len;
+		while (offset < end) {
+			final ByteBuffer buffer = data == null ? header : data;
+			final int n = Math.min(end - offset, buffer.remaining());
+			buffer.put(b, offset, n);
+			offset += n;
+			if (!buffer.hasRemaining()) {
+				if (compressed == null) {
+					signature();
+					if (!compressed.booleanValue()) {
+						target.write(b, offset, end - offset);
+						return;
+					}
+				} else if (data == null) {
+					header.flip();
+					final byte type = header.get();
+					final int length = header.getInt();
+					final int size = header.getInt();
+					// the sizes are checked before allocating buffers for them
+					if ((type != BlockDeflater.RAW && type != BlockDeflater.DEFLATED)
+						|| length < 0 || length > BlockDeflater.MAX_BLOCK_SIZE
+						|| size < 0 || size > BlockDeflater.MAX_BLOCK_SIZE) {
+						throw new IllegalStateException("decoding error: invalid compressed block");
+					}
+					if (block.length < length) {
+						block = new byte[length];
+					}
+					data = ByteBuffer.allocate(size);
+					header.clear().put(type).putInt(length);
+					if (size == 0) {
+						block();
+					}
+				} else {
+					block();
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		target.flush();
+	}
+
+	/**
+	 * Closes the stream; a compressed stream must be complete.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (compressed == null) {
+				// less bytes than the signature
+				target.write(header.array(), 0, header.position());
+			} else if (compressed.booleanValue() && (data != null || header.position() > 0)) {
+				throw new IllegalStateException("decoding error: compressed input ended within a block");
+			}
+		} finally {
+			inflater.end();
+			target.close();
+		}
+	}
+
+	private void signature() throws IOException {
+		compressed = Boolean.valueOf(BlockDeflater.isCompressed(header.array(), header.position()));
+		if (compressed.booleanValue()) {
+			header = ByteBuffer.allocate(BlockDeflater.RECORD_HEADER);
+		} else {
+			target.write(header.array(), 0, header.position());
+		}
+	}
+
+	// writes the block of the complete record
+	private void block() throws IOException {
+		header.flip();
+		final byte type = header.get();
+		final int length = header.getInt();
+		if (type == BlockDeflater.RAW) {
+			if (data.capacity() != length) {
+				throw new IllegalStateException("decoding error: invalid raw block");
+			}
+			target.write(data.array(), 0, length);
+		} else {
+			inflater.reset();
+			inflater.setInput(data.array());
+			try {
+				int count = 0;
+				while (count < length && !inflater.finished()) {
+					final int n = inflater.inflate(block, count, length - count);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					count += n;
+				}
+				if (count != length || !inflater.finished()) {
+					throw new IllegalStateException("decoding error: invalid deflated block");
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalStateException(e);
+			}
+			target.write(block, 0, length);
+		}
+		header.clear();
+		data = null;
+	}
+
+}
@@ -0,0 +1,168 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * Finds the largest number of bytes per QR code of a given dimension which
+ * can still be read back, per error correction level. Random payloads are
+ * encoded, degraded (see {@link Degradation}) and decoded again; a number
+ * of bytes is only accepted if all trials round-trip. Whether a code can be
+ * read depends on its number of modules, i.e. its version, and on how these
+ * are scaled to the dimension, which is not monotonic. So all versions are
+ * tried, with the largest number of bytes fitting each of them.
+ */
+public class CapacityPlanner {
+
+	/**
+	 * Upper bound of the bytes of a QR code (version 40, level L, byte mode).
+	 */
+	public static final int MAX_BYTES = 2953;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CapacityPlanner.class);
+	private static final int MAX_VERSION = 40;
+
+	private final Function<byte[], String> converter;
+	private final int dimension;
+	private final Function<BufferedImage, byte[]> decoder;
+	private final UnaryOperator<BufferedImage> degradation;
+	private final int trials;
+
+	/**
+	 * Creates the planner.
+	 * @param converter the converter of bytes into the text of a QR code
+	 * @param dimension the dimension of the QR codes
+	 * @param decoder the decoder of a QR code, returning {@code null} if it cannot be read
+	 * @param degradation the degradation of the QR codes
+	 * @param trials the number of payloads which must round-trip
+	 */
+	public CapacityPlanner(final Function<byte[], String> converter, final int dimension, final Function<BufferedImage, byte[]> decoder, final UnaryOperator<BufferedImage> degradation, final int trials) {
+		this.converter = converter;
+		this.dimension = dimension;
+		this.decoder = decoder;
+		this.degradation = degradation;
+		this.trials = trials;
+	}
+
+	/**
+	 * Finds the capacity of all error correction levels.
+	 * @return the largest (even) number of bytes per level, {@code 0} if
+	 * no QR code of the level can be read
+	 */
+	public Map<ErrorCorrectionLevel, Integer> plan() {
+		final Map<ErrorCorrectionLevel, Integer> result = new EnumMap<>(ErrorCorrectionLevel.class);
+		for (final ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+			result.put(level, Integer.valueOf(getCapacity(level)));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the level with the largest capacity; higher levels win ties,
+	 * as they tolerate more damage.
+	 * @param plan the capacity per level
+	 * @return the best level
+	 */
+	public static ErrorCorrectionLevel best(final Map<ErrorCorrectionLevel, Integer> plan) {
+		ErrorCorrectionLevel result = null;
+		for (final Map.Entry<ErrorCorrectionLevel, Integer> entry : plan.entrySet()) {
+			if (result == null ||
+				entry.getValue().intValue() > plan.get(result).intValue() ||
+				(entry.getValue().intValue() == plan.get(result).intValue() && entry.getKey().ordinal() > result.ordinal())) {
+				result = entry.getKey();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the capacity of the given error correction level.
+	 * @param level the error correction level
+	 * @return the largest (even) number of bytes which can be read back,
+	 * {@code 0} if no QR code of the level can be read
+	 */
+	public int getCapacity(final ErrorCorrectionLevel level) {
+		int result = 0;
+		int previous = 0;
+		for (int version = 1; version <= MAX_VERSION; version++) {
+			final int bytes = getMaxBytes(version, level);
+			if (bytes > previous && isReadable(bytes, level)) {
+				result = bytes;
+			}
+			previous = Math.max(previous, bytes);
+		}
+		LOGGER.debug("capacity of level {}: {} bytes", level, Integer.valueOf(result));
+		return result;
+	}
+
+	/**
+	 * Checks whether QR codes of the given number of bytes can be read back.
+	 * @param bytes the number of bytes
+	 * @param level the error correction level
+	 * @return {@code true} if all trials round-trip
+	 */
+	public boolean isReadable(final int bytes, final ErrorCorrectionLevel level) {
+		for (int i = 0; i < trials; i++) {
+			final QrMatrix matrix = encode(payload(bytes, i), level);
+			if (matrix == null) {
+				return false;
+			}
+			final BufferedImage image = MatrixToImageWriter.toBufferedImage(matrix.render(dimension, dimension, 0));
+			if (!Arrays.equals(payload(bytes, i), decoder.apply(degradation.apply(image)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the largest (even) number of bytes fitting into a code of the given version
+	private int getMaxBytes(final int version, final ErrorCorrectionLevel level) {
+		// the text is stored in byte mode: mode indicator, character count, characters
+		final Version info = Version.getVersionForNumber(version);
+		final int bits = 8 * (info.getTotalCodewords() - info.getECBlocksForLevel(level).getTotalECCodewords());
+		final int characters = (bits - 4 - Mode.BYTE.getCharacterCountBits(info)) / 8;
+		// bisection over pairs of bytes: low fits, high does not
+		int low = 0;
+		int high = MAX_BYTES / 2 + 1;
+		while (high - low > 1) {
+			final int middle = (low + high) >>> 1;
+			if (converter.apply(new byte[2 * middle]).length() <= characters) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		return 2 * low;
+	}
+
+	// the QR code of the given bytes, null if they do not fit
+	private QrMatrix encode(final byte[] payload, final ErrorCorrectionLevel level) {
+		try {
+			return new QrMatrix(converter.apply(payload), Map.of(EncodeHintType.ERROR_CORRECTION, level, EncodeHintType.MARGIN, Integer.valueOf(0)));
+		} catch (WriterException e) {
+			return null;
+		}
+	}
+
+	private static byte[] payload(final int bytes, final int trial) {
+		final byte[] result = new byte[bytes];
+		new Random(31L * bytes + trial).nextBytes(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,117 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Multiplexes three black and white images of QR codes into the red, green and
+ * blue channels of one image. A dark module of a QR code turns its channel off,
+ * so the pixels of the result are any of the eight combinations of the channels.
+ * See {@link ChannelSeparator} for reading such images.
+ */
+public class ChannelMultiplexer {
+
+	/**
+	 * The number of QR codes per image.
+	 */
+	public static final int CHANNELS = 3;
+
+	/**
+	 * The horizontal bands of the calibration frame, from top to bottom:
+	 * black, red, green and blue.
+	 */
+	protected static final Color[] CALIBRATION_BANDS = {
+		Color.BLACK, Color.RED, Color.GREEN, Color.BLUE
+	};
+
+	// bit offsets of the red, green and blue channel of a pixel
+	protected static final int[] SHIFTS = { 16, 8, 0 };
+
+	/**
+	 * Multiplexes the given images. Channels without an image are left on, i.e. blank.
+	 * @param symbols the images of the red, green and blue channel, at most three
+	 * @return the multiplexed image
+	 */
+	public static BufferedImage merge(final List<BufferedImage> symbols) {
+		if (symbols.size() > CHANNELS) {
+			throw new IllegalArgumentException(String.format("%d QR codes do not fit into %d channels", Integer.valueOf(symbols.size()), Integer.valueOf(CHANNELS)));
+		}
+		int width = 0;
+		int height = 0;
+		for (final BufferedImage symbol : symbols) {
+			width = Math.max(width, symbol.getWidth());
+			height = Math.max(height, symbol.getHeight());
+		}
+		final int[] pixels = new int[width * height];
+		Arrays.fill(pixels, 0xffffff);
+		final int[] row = new int[width];
+		for (int channel = 0; channel < symbols.size(); channel++) {
+			final BufferedImage symbol = symbols.get(channel);
+			// centered, as for the cells of a grid
+			final int left = (width - symbol.getWidth()) / 2;
+			final int top = (height - symbol.getHeight()) / 2;
+			final int off = ~(0xff << SHIFTS[channel]);
+			for (int y = 0; y < symbol.getHeight(); y++) {
+				symbol.getRGB(0, y, symbol.getWidth(), 1, row, 0, width);
+				final int offset = (top + y) * width + left;
+				for (int x = 0; x < symbol.getWidth(); x++) {
+					final int rgb = row[x];
+					if (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff) < 3 * 128) {
+						pixels[offset + x] &= off;
+					}
+				}
+			}
+		}
+		final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		result.setRGB(0, 0, width, height, pixels, 0, width);
+		return result;
+	}
+
+	/**
+	 * Multiplexes consecutive images.
+	 * @param symbols the images
+	 * @return the multiplexed images; the last image may have blank channels
+	 */
+	public static Stream<BufferedImage> merge(final Stream<BufferedImage> symbols) {
+		return StreamSupport
+			.stream(
+				Spliterators.spliteratorUnknownSize(
+					new GroupingIterator<>(symbols.iterator(), CHANNELS),
+					Spliterator.NONNULL | Spliterator.ORDERED),
+					false
+			)
+			.map(ChannelMultiplexer::merge)
+			.onClose(symbols::close);
+	}
+
+	/**
+	 * Creates the calibration frame, which shows black and each channel
+	 * on its own. Reading it tells how the channels bleed into each other
+	 * on the way from the display to the camera.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @return the calibration frame
+	 */
+	public static BufferedImage calibration(final int width, final int height) {
+		final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			for (int i = 0; i < CALIBRATION_BANDS.length; i++) {
+				final int top = i * height / CALIBRATION_BANDS.length;
+				g2d.setColor(CALIBRATION_BANDS[i]);
+				g2d.fillRect(0, top, width, (i + 1) * height / CALIBRATION_BANDS.length - top);
+			}
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,192 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * Separates the red, green and blue channels of images created by
+ * {@link ChannelMultiplexer} into one luminance source each. Displays and
+ * cameras let the channels bleed into each other; a calibration frame
+ * (see {@link ChannelMultiplexer#calibration(int, int)}) tells by how much,
+ * and the channels of subsequent images are corrected accordingly.
+ * Calibration frames are recognized by themselves, without calibration the
+ * channels are taken as they are. The instance is stateful.
+ */
+public class ChannelSeparator implements Function<BufferedImage, List<LuminanceSource>> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChannelSeparator.class);
+
+	// samples per band and direction when checking for a calibration frame
+	private static final int SAMPLES = 16;
+	// the black band of a calibration frame must be darker
+	private static final float MAX_BLACK = 128;
+	// the channel of a band must be brighter than black by at least this...
+	private static final float MIN_CONTRAST = 64;
+	// ...and dominate the other channels of the band by this factor
+	private static final float MIN_DOMINANCE = 1.5f;
+
+	private float[] black;
+	private float[][] unmix;
+	private int[] row;
+
+	/**
+	 * Creates the separator, without calibration.
+	 */
+	public ChannelSeparator() {
+		row = new int[0];
+	}
+
+	/**
+	 * Separates the channels of the given image. Calibration frames are taken
+	 * for subsequent images and are not returned.
+	 * @param image the image to separate
+	 * @return the luminance of the red, green and blue channels, empty for
+	 * calibration frames
+	 */
+	public List<LuminanceSource> apply(final BufferedImage image) {
+		if (calibrate(image)) {
+			LOGGER.debug("calibrated channels: black {}, unmix {}", Arrays.toString(black), Arrays.deepToString(unmix));
+			return Collections.emptyList();
+		}
+		return split(image);
+	}
+
+	/**
+	 * Checks whether the separator was calibrated.
+	 * @return {@code true} if a calibration frame was seen
+	 */
+	public boolean isCalibrated() {
+		return unmix != null;
+	}
+
+	/**
+	 * Separates the channels of the given image, with the current calibration.
+	 * @param image the image to separate
+	 * @return the luminance of the red, green and blue channels
+	 */
+	public List<LuminanceSource> split(final BufferedImage image) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		if (row.length < width) {
+			row = new int[width];
+		}
+		final byte[][] planes = new byte[ChannelMultiplexer.CHANNELS][width * height];
+		final float[] captured = new float[ChannelMultiplexer.CHANNELS];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			final int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				final int rgb = row[x];
+				for (int channel = 0; channel < ChannelMultiplexer.CHANNELS; channel++) {
+					captured[channel] = (rgb >> ChannelMultiplexer.SHIFTS[channel]) & 0xff;
+				}
+				for (int channel = 0; channel < ChannelMultiplexer.CHANNELS; channel++) {
+					planes[channel][offset + x] = (byte) (unmix == null ? captured[channel] : unmix(channel, captured));
+				}
+			}
+		}
+		final List<LuminanceSource> result = new ArrayList<>(ChannelMultiplexer.CHANNELS);
+		for (final byte[] plane : planes) {
+			result.add(new PlanarYUVLuminanceSource(plane, width, height, 0, 0, width, height, false));
+		}
+		return result;
+	}
+
+	// the displayed value of a channel, from 0 to 255
+	private int unmix(final int channel, final float[] captured) {
+		float value = 0;
+		for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+			value += unmix[channel][i] * (captured[i] - black[i]);
+		}
+		return Math.max(0, Math.min(255, Math.round(255 * value)));
+	}
+
+	/**
+	 * Calibrates the separator if the given image is a calibration frame.
+	 * @param image the image to check
+	 * @return {@code true} if the image is a calibration frame
+	 */
+	public boolean calibrate(final BufferedImage image) {
+		final float[] dark = mean(image, 0);
+		for (final float value : dark) {
+			if (value >= MAX_BLACK) {
+				return false;
+			}
+		}
+		// the response of the captured channels (rows) to each displayed channel (columns)
+		final float[][] response = new float[ChannelMultiplexer.CHANNELS][ChannelMultiplexer.CHANNELS];
+		for (int channel = 0; channel < ChannelMultiplexer.CHANNELS; channel++) {
+			final float[] band = mean(image, channel + 1);
+			for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+				response[i][channel] = band[i] - dark[i];
+			}
+			for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+				if (response[channel][channel] < MIN_CONTRAST || (i != channel && response[channel][channel] < MIN_DOMINANCE * response[i][channel])) {
+					return false;
+				}
+			}
+		}
+		final float[][] inverse = invert(response);
+		if (inverse == null) {
+			return false;
+		}
+		black = dark;
+		unmix = inverse;
+		return true;
+	}
+
+	// the mean color of the center of the given band of a calibration frame
+	private static float[] mean(final BufferedImage image, final int band) {
+		final int bands = ChannelMultiplexer.CALIBRATION_BANDS.length;
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final float[] result = new float[ChannelMultiplexer.CHANNELS];
+		for (int i = 0; i < SAMPLES; i++) {
+			final int y = (int) (((4 * band + 1) * SAMPLES + 2 * i) * (long) height / (4 * bands * SAMPLES));
+			for (int j = 0; j < SAMPLES; j++) {
+				final int rgb = image.getRGB((int) ((SAMPLES + 2 * j) * (long) width / (4 * SAMPLES)), y);
+				for (int channel = 0; channel < ChannelMultiplexer.CHANNELS; channel++) {
+					result[channel] += (rgb >> ChannelMultiplexer.SHIFTS[channel]) & 0xff;
+				}
+			}
+		}
+		for (int channel = 0; channel < ChannelMultiplexer.CHANNELS; channel++) {
+			result[channel] /= SAMPLES * SAMPLES;
+		}
+		return result;
+	}
+
+	// the inverse of a 3x3 matrix, null if it is singular
+	private static float[][] invert(final float[][] m) {
+		final float determinant =
+			m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1]) -
+			m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0]) +
+			m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+		if (Math.abs(determinant) < 1e-3f) {
+			return null;
+		}
+		final float[][] result = new float[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				// cofactor of the transposed position
+				final int r0 = (j + 1) % 3;
+				final int r1 = (j + 2) % 3;
+				final int c0 = (i + 1) % 3;
+				final int c1 = (i + 2) % 3;
+				result[i][j] = (m[r0][c0] * m[r1][c1] - m[r0][c1] * m[r1][c0]) / determinant;
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,121 @@
+package de.engehausen.qrio.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact bitmap of the chunks of a transfer which were received,
+ * one bit per chunk. The instance is not thread-safe.
+ */
+public class ChunkBitmap {
+
+	private final ByteBuffer bits;
+	private final int size;
+	private int count;
+
+	/**
+	 * Creates an empty bitmap.
+	 * @param size the number of chunks
+	 */
+	public ChunkBitmap(final int size) {
+		this(ByteBuffer.allocate(getBytes(size)), size);
+	}
+
+	/**
+	 * Creates the bitmap on the given buffer; bits already set are kept.
+	 * @param bits the buffer holding the bits, at least {@link #getBytes(int)} bytes from position zero
+	 * @param size the number of chunks
+	 */
+	public ChunkBitmap(final ByteBuffer bits, final int size) {
+		if (size < 0 || bits.capacity() < getBytes(size)) {
+			throw new IllegalArgumentException(String.format("invalid bitmap of %d chunks", Integer.valueOf(size)));
+		}
+		this.bits = bits;
+		this.size = size;
+		for (int i = getBytes(size); --i >= 0; ) {
+			count += Integer.bitCount(bits.get(i) & 0xff);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of a bitmap of the given number of chunks.
+	 * @param size the number of chunks
+	 * @return the number of bytes
+	 */
+	public static int getBytes(final int size) {
+		return (size + 7) / 8;
+	}
+
+	/**
+	 * Marks the given chunk as received.
+	 * @param index the index of the chunk
+	 * @return {@code true} if the chunk was not received before
+	 */
+	public boolean set(final int index) {
+		final int offset = offset(index);
+		final int value = bits.get(offset);
+		final int mask = 1 << (index & 7);
+		if ((value & mask) != 0) {
+			return false;
+		}
+		bits.put(offset, (byte) (value | mask));
+		count++;
+		return true;
+	}
+
+	/**
+	 * Checks whether the given chunk was received.
+	 * @param index the index of the chunk
+	 * @return {@code true} if the chunk was received
+	 */
+	public boolean get(final int index) {
+		return (bits.get(offset(index)) & (1 << (index & 7))) != 0;
+	}
+
+	/**
+	 * Returns the index of the next chunk not received.
+	 * @param from the index to start at
+	 * @return the index of the next chunk not received, {@code -1} if there is none
+	 */
+	public int nextMissing(final int from) {
+		for (int i = Math.max(0, from); i < size; i++) {
+			if ((i & 7) == 0 && i + 8 <= size && bits.get(i >> 3) == -1) {
+				i += 7; // all eight chunks received
+			} else if (!get(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of chunks.
+	 * @return the number of chunks
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of chunks received.
+	 * @return the number of chunks received
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Checks whether all chunks were received.
+	 * @return {@code true} if all chunks were received
+	 */
+	public boolean isComplete() {
+		return count == size;
+	}
+
+	private int offset(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("chunk %d of %d", Integer.valueOf(index), Integer.valueOf(size)));
+		}
+		return index >> 3;
+	}
+
+}
@@ -0,0 +1,186 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Thread-safe reader of QR codes. The zxing reader is not thread-safe,
+ * so each thread uses its own reader, along with buffers for the
+ * luminance of the images it decodes, which are re-used for subsequent
+ * images of the same thread.
+ */
+public class ConcurrentQrReader implements QrCodeReader {
+
+	private static final Map<DecodeHintType, ?> HINTS = Map.of(
+		DecodeHintType.TRY_HARDER, Boolean.TRUE,
+		DecodeHintType.POSSIBLE_FORMATS, Collections.singleton(BarcodeFormat.QR_CODE)
+	);
+	private static final byte[] EMPTY = new byte[0];
+
+	private final BiFunction<String, List<byte[]>, byte[]> converter;
+	private final ThreadLocal<Worker> workers;
+
+	/**
+	 * Creates the reader.
+	 * @param converter the converter of the text of a QR code into its bytes
+	 */
+	public ConcurrentQrReader(final Function<String, byte[]> converter) {
+		this((text, segments) -> converter.apply(text));
+	}
+
+	/**
+	 * Creates the reader.
+	 * @param converter the converter of the text and the raw byte segments
+	 * (may be {@code null}) of a QR code into its bytes
+	 */
+	public ConcurrentQrReader(final BiFunction<String, List<byte[]>, byte[]> converter) {
+		this.converter = converter;
+		workers = ThreadLocal.withInitial(Worker::new);
+	}
+
+	/**
+	 * Reads the QR code of the given image and returns the decoded bytes.
+	 * @param img the image to decode
+	 * @return the decoded bytes (may be empty, but never {@code null})
+	 * @throws NotFoundException in case of error
+	 */
+	public byte[] read(final BufferedImage img) throws NotFoundException {
+		final Worker worker = workers.get();
+		return read(worker, worker.toLuminance(img));
+	}
+
+	/**
+	 * Reads the QR code of the given luminance source and returns the decoded bytes.
+	 * @param source the source to decode
+	 * @return the decoded bytes (may be empty, but never {@code null})
+	 * @throws NotFoundException in case of error
+	 */
+	public byte[] read(final LuminanceSource source) throws NotFoundException {
+		return read(workers.get(), source);
+	}
+
+	/**
+	 * Reads the QR codes of all tiles of the given image (see {@link SymbolGrid}).
+	 * The tiles are decoded in parallel.
+	 * @param img the image to decode
+	 * @param grid the grid of QR codes in the image
+	 * @return the decoded bytes per tile, row by row; {@code null} for tiles without a QR code
+	 */
+	public List<byte[]> readAll(final BufferedImage img, final SymbolGrid grid) {
+		// the luminance buffer of this thread is re-used, but the tiles are
+		// decoded by other threads as well
+		final LuminanceSource source = workers.get().toLuminance(img);
+		final byte[] luminance = Arrays.copyOf(source.getMatrix(), source.getWidth() * source.getHeight());
+		return readAll(new PlanarYUVLuminanceSource(luminance, source.getWidth(), source.getHeight(), 0, 0, source.getWidth(), source.getHeight(), false), grid);
+	}
+
+	/**
+	 * Reads the QR codes of all tiles of the given luminance source (see {@link SymbolGrid}).
+	 * The tiles are decoded in parallel.
+	 * @param source the source to decode; cropping must be supported
+	 * @param grid the grid of QR codes in the source
+	 * @return the decoded bytes per tile, row by row; {@code null} for tiles without a QR code
+	 */
+	public List<byte[]> readAll(final LuminanceSource source, final SymbolGrid grid) {
+		return readAll(Collections.singletonList(source), grid);
+	}
+
+	/**
+	 * Reads the QR codes of all tiles of the given luminance sources (see {@link SymbolGrid}),
+	 * e.g. of the channels of an image (see {@link ChannelSeparator}).
+	 * The tiles of all sources are decoded in parallel.
+	 * @param sources the sources to decode; cropping must be supported
+	 * @param grid the grid of QR codes in each source
+	 * @return the decoded bytes per tile, source by source and row by row;
+	 * {@code null} for tiles without a QR code
+	 */
+	public List<byte[]> readAll(final List<LuminanceSource> sources, final SymbolGrid grid) {
+		return IntStream
+			.range(0, sources.size() * grid.getSize())
+			.parallel()
+			.mapToObj(index -> {
+				final LuminanceSource source = sources.get(index / grid.getSize());
+				final Rectangle tile = grid.getTile(index % grid.getSize(), source.getWidth(), source.getHeight());
+				try {
+					return read(workers.get(), source.crop(tile.x, tile.y, tile.width, tile.height));
+				} catch (NotFoundException e) {
+					return null;
+				}
+			})
+			.collect(Collectors.toList());
+	}
+
+	private byte[] read(final Worker worker, final LuminanceSource source) throws NotFoundException {
+		final Result result = worker.reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+		if (result.getNumBits() == 0) {
+			return EMPTY; // funny decoding issues where there are no result bits
+		}
+		return converter.apply(result.getText(), segments(result));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<byte[]> segments(final Result result) {
+		final Map<ResultMetadataType, Object> metadata = result.getResultMetadata();
+		return metadata == null ? null : (List<byte[]>) metadata.get(ResultMetadataType.BYTE_SEGMENTS);
+	}
+
+	private static class Worker {
+
+		protected final MultiFormatReader reader;
+		private int[] row;
+		private byte[] luminance;
+
+		public Worker() {
+			reader = new MultiFormatReader();
+			reader.setHints(HINTS);
+			row = new int[0];
+			luminance = new byte[0];
+		}
+
+		// same luminance as the zxing BufferedImageLuminanceSource,
+		// but without allocating an intermediate image for each call
+		public LuminanceSource toLuminance(final BufferedImage image) {
+			final int width = image.getWidth();
+			final int height = image.getHeight();
+			if (row.length < width) {
+				row = new int[width];
+			}
+			if (luminance.length < width * height) {
+				luminance = new byte[width * height];
+			}
+			for (int y = 0; y < height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				final int offset = y * width;
+				for (int x = 0; x < width; x++) {
+					final int argb = row[x];
+					// transparent pixels are white
+					luminance[offset + x] = (argb & 0xff000000) == 0 ?
+						(byte) 0xff :
+						(byte) ((306 * ((argb >> 16) & 0xff) + 601 * ((argb >> 8) & 0xff) + 117 * (argb & 0xff) + 0x200) >> 10);
+				}
+			}
+			return new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+		}
+
+	}
+
+}
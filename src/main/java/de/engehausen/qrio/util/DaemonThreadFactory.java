@@ -0,0 +1,36 @@
+package de.engehausen.qrio.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for named daemon threads. Daemon threads do not prevent
+ * the tools from exiting if a pipeline is abandoned.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+	private final String prefix;
+	private final AtomicInteger count;
+
+	/**
+	 * Creates the factory.
+	 * @param name the name of the threads, which is suffixed
+	 * with a pool and thread number
+	 */
+	public DaemonThreadFactory(final String name) {
+		prefix = String.format("%s-%d-", name, POOL_COUNT.incrementAndGet());
+		count = new AtomicInteger();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Thread newThread(final Runnable runnable) {
+		final Thread result = new Thread(runnable, prefix + count.incrementAndGet());
+		result.setDaemon(true);
+		return result;
+	}
+
+}
@@ -0,0 +1,121 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Degrades an image of a QR code like an optical transfer does: the code
+ * is put on a white background (the quiet zone), scaled, blurred and
+ * overlaid with noise. The result is a grayscale image. The noise is
+ * pseudo-random, but the same for the same sequence of images. The
+ * instance is stateful.
+ */
+public class Degradation implements UnaryOperator<BufferedImage> {
+
+	// quiet zone in relation to the size of the code
+	private static final int MARGIN_DIVISOR = 10;
+
+	private final double scale;
+	private final int blur;
+	private final double noise;
+	private final Random random;
+
+	/**
+	 * Creates the degradation.
+	 * @param scale the factor to scale the image by, e.g. {@code 0.75}
+	 * @param blur the radius of the box blur in pixels, {@code 0} for none
+	 * @param noise the standard deviation of the Gaussian noise in gray levels
+	 * (from 0 to 255), {@code 0} for none
+	 */
+	public Degradation(final double scale, final int blur, final double noise) {
+		if (scale <= 0 || blur < 0 || noise < 0) {
+			throw new IllegalArgumentException(String.format("invalid degradation %s:%d:%s", Double.toString(scale), Integer.valueOf(blur), Double.toString(noise)));
+		}
+		this.scale = scale;
+		this.blur = blur;
+		this.noise = noise;
+		random = new Random(0);
+	}
+
+	/**
+	 * Parses a degradation given as {@code scale:blur:noise}.
+	 * @param text the text to parse
+	 * @return the degradation
+	 * @throws IllegalArgumentException if the text is not a valid degradation
+	 */
+	public static Degradation parse(final String text) {
+		final String[] values = text.split(":");
+		if (values.length != 3) {
+			throw new IllegalArgumentException(String.format("degradation must be given as scale:blur:noise, not %s", text));
+		}
+		return new Degradation(Double.parseDouble(values[0]), Integer.parseInt(values[1]), Double.parseDouble(values[2]));
+	}
+
+	/**
+	 * Degrades the given image.
+	 * @param image the image to degrade
+	 * @return the degraded image
+	 */
+	public BufferedImage apply(final BufferedImage image) {
+		final int margin = Math.max(image.getWidth(), image.getHeight()) / MARGIN_DIVISOR;
+		final BufferedImage result = new BufferedImage(
+			Math.max(1, (int) Math.round((image.getWidth() + 2 * margin) * scale)),
+			Math.max(1, (int) Math.round((image.getHeight() + 2 * margin) * scale)),
+			BufferedImage.TYPE_BYTE_GRAY);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, result.getWidth(), result.getHeight());
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(
+				image,
+				(int) Math.round(margin * scale),
+				(int) Math.round(margin * scale),
+				(int) Math.round(image.getWidth() * scale),
+				(int) Math.round(image.getHeight() * scale),
+				null);
+		} finally {
+			g2d.dispose();
+		}
+		return addNoise(blur(result));
+	}
+
+	private BufferedImage blur(final BufferedImage image) {
+		if (blur == 0) {
+			return image;
+		}
+		final int size = 2 * blur + 1;
+		final float[] weights = new float[size * size];
+		Arrays.fill(weights, 1f / weights.length);
+		final BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		return new ConvolveOp(new Kernel(size, size, weights), ConvolveOp.EDGE_NO_OP, null).filter(image, result);
+	}
+
+	private BufferedImage addNoise(final BufferedImage image) {
+		if (noise == 0) {
+			return image;
+		}
+		final WritableRaster raster = image.getRaster();
+		for (int y = raster.getHeight(); --y >= 0; ) {
+			for (int x = raster.getWidth(); --x >= 0; ) {
+				final int value = (int) Math.round(raster.getSample(x, y, 0) + noise * random.nextGaussian());
+				raster.setSample(x, y, 0, Math.max(0, Math.min(255, value)));
+			}
+		}
+		return image;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s:%d:%s", Double.toString(scale), Integer.valueOf(blur), Double.toString(noise));
+	}
+
+}
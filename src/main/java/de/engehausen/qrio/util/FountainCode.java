@@ -0,0 +1,287 @@
+package de.engehausen.qrio.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Format and degree distribution of the fountain code symbols.
+ * The input is split into blocks of equal size, which are extended by a
+ * few parity blocks; each parity block is the XOR of a pseudo-random set of
+ * input blocks (precode). Each symbol carries the XOR of a pseudo-randomly
+ * chosen set of input and parity blocks, derived from the seed of the symbol
+ * (LT code). The number of blocks combined follows a robust soliton
+ * distribution, so any set of slightly more symbols than there are input
+ * blocks decodes the input with high probability, no matter which symbols
+ * were lost; the parity blocks recover the few blocks no received symbol
+ * happens to cover.
+ * <p>A symbol consists of a header (magic number, length of the input,
+ * seed), the payload and a CRC32 of everything before; symbols are thus
+ * told apart from plain chunks reliably.</p>
+ */
+public class FountainCode {
+
+	/**
+	 * Number of bytes a symbol needs in addition to its payload.
+	 */
+	public static final int OVERHEAD = 20;
+
+	private static final int MAGIC = 0x51524631; // "QRF1"
+	private static final int OFFSET_LENGTH = 4;
+	private static final int OFFSET_SEED = 12;
+	private static final int OFFSET_PAYLOAD = 16;
+	// parameters of the robust soliton distribution
+	private static final double SPIKE = 0.03;
+	private static final double FAILURE = 0.5;
+	// number of parity blocks each input block is part of
+	private static final int PARITY_DEGREE = 3;
+
+	private final long length;
+	private final int blockSize;
+	private final int blocks;
+	private final int[][] parities;
+	private final double[] distribution;
+
+	/**
+	 * Creates the code for an input of the given length.
+	 * @param length the length of the input in bytes
+	 * @param blockSize the number of bytes per block, i.e. the payload of each symbol
+	 */
+	public FountainCode(final long length, final int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException(String.format("invalid block size %d", Integer.valueOf(blockSize)));
+		}
+		final long count = Math.max(1, (length + blockSize - 1) / blockSize);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("input too large (%d bytes)", Long.valueOf(length)));
+		}
+		this.length = length;
+		this.blockSize = blockSize;
+		blocks = (int) count;
+		parities = parities(blocks, (int) Math.ceil(Math.sqrt(2d * blocks)) + (blocks + 99) / 100);
+		distribution = distribution(blocks + parities.length);
+	}
+
+	/**
+	 * Creates the code the given symbol belongs to.
+	 * @param symbol the symbol
+	 * @return the code
+	 * @throws IllegalArgumentException if the bytes are not a symbol
+	 */
+	public static FountainCode of(final byte[] symbol) {
+		if (!isSymbol(symbol)) {
+			throw new IllegalArgumentException("not a fountain code symbol");
+		}
+		return new FountainCode(ByteBuffer.wrap(symbol).getLong(OFFSET_LENGTH), symbol.length - OVERHEAD);
+	}
+
+	/**
+	 * Checks whether the given bytes are a valid symbol.
+	 * @param bytes the bytes to check
+	 * @return {@code true} if the bytes are a symbol with a matching checksum
+	 */
+	public static boolean isSymbol(final byte[] bytes) {
+		if (bytes.length <= OVERHEAD) {
+			return false;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt(0) != MAGIC) {
+			return false;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		return (int) crc.getValue() == buffer.getInt(bytes.length - 4);
+	}
+
+	/**
+	 * Returns the length of the input.
+	 * @return the length in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the size of the blocks.
+	 * @return the size in bytes
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the number of blocks of the input.
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return blocks;
+	}
+
+	/**
+	 * Returns the number of parity blocks; these follow the input blocks.
+	 * @return the number of parity blocks
+	 */
+	public int getParityCount() {
+		return parities.length;
+	}
+
+	/**
+	 * Returns the indices of the input blocks the given parity block combines.
+	 * @param parity the index of the parity block, starting at zero
+	 * @return the sorted block indices
+	 */
+	public int[] getParity(final int parity) {
+		return parities[parity].clone();
+	}
+
+	/**
+	 * Checks whether the given symbol belongs to this code.
+	 * @param symbol the symbol to check
+	 * @return {@code true} if the symbol is valid and belongs to this code
+	 */
+	public boolean accepts(final byte[] symbol) {
+		return symbol.length == blockSize + OVERHEAD
+			&& isSymbol(symbol)
+			&& ByteBuffer.wrap(symbol).getLong(OFFSET_LENGTH) == length;
+	}
+
+	/**
+	 * Returns the indices of the blocks combined in the symbol with the given
+	 * seed. Indices from the number of input blocks on denote parity blocks.
+	 * @param seed the seed of the symbol
+	 * @return the sorted block indices
+	 */
+	public int[] getBlocks(final int seed) {
+		final Random random = new Random(scramble(seed));
+		final int total = blocks + parities.length;
+		int degree = Arrays.binarySearch(distribution, random.nextDouble());
+		degree = Math.min(total, degree < 0 ? -degree - 1 : degree);
+		return choose(random, Math.max(1, degree), total);
+	}
+
+	/**
+	 * Creates a symbol.
+	 * @param seed the seed of the symbol
+	 * @param payload the payload, the XOR of the blocks of the seed
+	 * @return the symbol
+	 */
+	public byte[] toSymbol(final int seed, final byte[] payload) {
+		final ByteBuffer buffer = ByteBuffer.allocate(blockSize + OVERHEAD);
+		buffer
+			.putInt(MAGIC)
+			.putLong(length)
+			.putInt(seed)
+			.put(payload, 0, blockSize);
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the seed of the given symbol.
+	 * @param symbol the symbol
+	 * @return the seed
+	 */
+	public static int getSeed(final byte[] symbol) {
+		return ByteBuffer.wrap(symbol).getInt(OFFSET_SEED);
+	}
+
+	/**
+	 * Returns a copy of the payload of the given symbol.
+	 * @param symbol the symbol
+	 * @return the payload
+	 */
+	public static byte[] getPayload(final byte[] symbol) {
+		return Arrays.copyOfRange(symbol, OFFSET_PAYLOAD, symbol.length - 4);
+	}
+
+	/**
+	 * XORs the given source into the given target.
+	 * @param target the array to modify
+	 * @param source the array to XOR
+	 */
+	public static void xor(final byte[] target, final byte[] source) {
+		for (int i = Math.min(target.length, source.length); --i >= 0; ) {
+			target[i] ^= source[i];
+		}
+	}
+
+	// the first numbers of java.util.Random for consecutive seeds are
+	// almost linear, so the seed is scrambled first (SplitMix64 finalizer)
+	private static long scramble(final long seed) {
+		long z = seed * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// sorted distinct random numbers below the given bound (Floyd's algorithm)
+	private static int[] choose(final Random random, final int count, final int bound) {
+		final int[] result = new int[count];
+		for (int i = 0, j = bound - count; j < bound; i++, j++) {
+			final int candidate = random.nextInt(j + 1);
+			result[i] = contains(result, i, candidate) ? j : candidate;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	// each input block is part of a few pseudo-random parity blocks
+	private static int[][] parities(final int blocks, final int count) {
+		final int[] sizes = new int[count];
+		final int[][] members = new int[blocks][];
+		final Random random = new Random(scramble(blocks));
+		for (int i = 0; i < blocks; i++) {
+			members[i] = choose(random, Math.min(PARITY_DEGREE, count), count);
+			for (final int parity : members[i]) {
+				sizes[parity]++;
+			}
+		}
+		final int[][] result = new int[count][];
+		for (int p = 0; p < count; p++) {
+			result[p] = new int[sizes[p]];
+			sizes[p] = 0;
+		}
+		for (int i = 0; i < blocks; i++) {
+			for (final int parity : members[i]) {
+				result[parity][sizes[parity]++] = i;
+			}
+		}
+		return result;
+	}
+
+	private static boolean contains(final int[] values, final int count, final int value) {
+		for (int i = count; --i >= 0; ) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// cumulative robust soliton distribution; entry d is the probability of a degree <= d
+	private static double[] distribution(final int k) {
+		final double r = SPIKE * Math.log(k / FAILURE) * Math.sqrt(k);
+		final int spike = Math.max(1, Math.min(k, (int) Math.round(k / r)));
+		final double[] result = new double[k + 1];
+		double sum = 0;
+		for (int d = 1; d <= k; d++) {
+			double rho = d == 1 ? 1d / k : 1d / (d * (double) (d - 1));
+			if (d < spike) {
+				rho += r / (d * (double) k);
+			} else if (d == spike) {
+				rho += r * Math.log(r / FAILURE) / k;
+			}
+			sum += Math.max(0, rho);
+			result[d] = sum;
+		}
+		for (int d = 1; d <= k; d++) {
+			result[d] /= sum;
+		}
+		result[k] = 1;
+		return result;
+	}
+
+}
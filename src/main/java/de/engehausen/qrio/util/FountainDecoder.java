@@ -0,0 +1,297 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental decoder of fountain code symbols.
+ * The parity blocks of the code are unknowns just like the input blocks;
+ * each parity block yields an equation (the XOR of the parity block and
+ * its input blocks is zero), which is treated like a received symbol.
+ * Each symbol is reduced by the blocks already known; a symbol with a
+ * single unknown block solves that block, which in turn reduces all
+ * waiting symbols (peeling). If peeling stalls although enough symbols
+ * were received, the remaining system is solved by Gaussian elimination,
+ * provided only a limited number of blocks is unknown.
+ * The instance is stateful and not thread-safe.
+ */
+public class FountainDecoder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FountainDecoder.class);
+
+	// maximum number of unknown blocks for Gaussian elimination
+	private static final int GAUSS_LIMIT = 2048;
+
+	private final FountainCode code;
+	private final byte[][] blocks;
+	private final List<List<Symbol>> waiting;
+	private final List<Symbol> pending;
+	private int solved;
+	private int solvedInput;
+	private int received;
+	private int nextElimination;
+
+	/**
+	 * Creates the decoder.
+	 * @param code the code of the symbols to decode
+	 */
+	public FountainDecoder(final FountainCode code) {
+		this.code = code;
+		final int count = code.getBlockCount() + code.getParityCount();
+		blocks = new byte[count][];
+		waiting = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			waiting.add(new ArrayList<>(0));
+		}
+		pending = new ArrayList<>();
+		for (int p = 0; p < code.getParityCount(); p++) {
+			final int[] parity = code.getParity(p);
+			final int[] members = Arrays.copyOf(parity, parity.length + 1);
+			members[parity.length] = code.getBlockCount() + p;
+			add(new Symbol(members, new byte[code.getBlockSize()]));
+		}
+	}
+
+	/**
+	 * Returns the code of the symbols.
+	 * @return the code
+	 */
+	public FountainCode getCode() {
+		return code;
+	}
+
+	/**
+	 * Adds a symbol. Symbols not belonging to the code are ignored.
+	 * @param symbol the symbol to add
+	 * @return {@code true} if all blocks are known
+	 */
+	public boolean add(final byte[] symbol) {
+		if (isComplete() || !code.accepts(symbol)) {
+			return isComplete();
+		}
+		received++;
+		add(new Symbol(code.getBlocks(FountainCode.getSeed(symbol)), FountainCode.getPayload(symbol)));
+		return isComplete();
+	}
+
+	/**
+	 * Checks whether all input blocks are known.
+	 * @return {@code true} if the input is decoded
+	 */
+	public boolean isComplete() {
+		return solvedInput == code.getBlockCount();
+	}
+
+	/**
+	 * Returns the number of symbols received so far.
+	 * @return the number of symbols
+	 */
+	public int getReceived() {
+		return received;
+	}
+
+	/**
+	 * Returns the number of input blocks known so far.
+	 * @return the number of blocks
+	 */
+	public int getSolved() {
+		return solvedInput;
+	}
+
+	/**
+	 * Returns the input block with the given index, truncated to the length of the input.
+	 * @param index the index of the block
+	 * @return the block, {@code null} if not yet known
+	 */
+	public byte[] getBlock(final int index) {
+		final byte[] block = blocks[index];
+		if (block == null) {
+			return null;
+		}
+		final long end = Math.min(code.getLength(), (index + 1L) * code.getBlockSize());
+		final int size = (int) Math.max(0, end - index * (long) code.getBlockSize());
+		return size == block.length ? block : Arrays.copyOf(block, size);
+	}
+
+	private void add(final Symbol next) {
+		for (final int index : next.blocks) {
+			if (blocks[index] != null) {
+				next.reduce(blocks[index]);
+			}
+		}
+		if (next.unknown == 1) {
+			solve(next.remaining(blocks), next.data);
+		} else if (next.unknown > 1) {
+			for (final int index : next.blocks) {
+				if (blocks[index] == null) {
+					waiting.get(index).add(next);
+				}
+			}
+			pending.add(next);
+			if (received >= code.getBlockCount() && received >= nextElimination) {
+				eliminate();
+			}
+		}
+	}
+
+	// peels starting with the given block
+	private void solve(final int index, final byte[] data) {
+		final Deque<Integer> queue = new ArrayDeque<>();
+		if (blocks[index] == null) {
+			known(index, data);
+			queue.add(Integer.valueOf(index));
+		}
+		while (!queue.isEmpty()) {
+			final int current = queue.poll().intValue();
+			final List<Symbol> symbols = waiting.get(current);
+			waiting.set(current, List.of());
+			for (final Symbol symbol : symbols) {
+				if (symbol.unknown == 0) {
+					continue;
+				}
+				symbol.reduce(blocks[current]);
+				if (symbol.unknown == 1) {
+					// the last block not yet reduced may already be solved, but still queued
+					final int next = symbol.remaining(blocks);
+					symbol.unknown = 0;
+					if (next >= 0) {
+						known(next, symbol.data);
+						queue.add(Integer.valueOf(next));
+					}
+				}
+			}
+		}
+	}
+
+	private void known(final int index, final byte[] data) {
+		blocks[index] = data;
+		solved++;
+		if (index < code.getBlockCount()) {
+			solvedInput++;
+		}
+	}
+
+	// Gauss-Jordan elimination of the symbols still waiting, restricted to the unknown blocks
+	private void eliminate() {
+		pending.removeIf(symbol -> symbol.unknown == 0);
+		final int[] unknown = new int[blocks.length - solved];
+		if (unknown.length > GAUSS_LIMIT) {
+			// wait for peeling to make progress
+			nextElimination = received + unknown.length / 8;
+			return;
+		}
+		if (pending.size() < unknown.length) {
+			// each further symbol adds at most one equation
+			nextElimination = received + unknown.length - pending.size();
+			return;
+		}
+		final int[] columns = new int[blocks.length];
+		for (int i = 0, j = 0; i < blocks.length; i++) {
+			if (blocks[i] == null) {
+				columns[i] = j;
+				unknown[j++] = i;
+			}
+		}
+		final int words = (unknown.length + 63) / 64;
+		final long[][] rows = new long[pending.size()][];
+		final byte[][] data = new byte[pending.size()][];
+		for (int r = 0; r < rows.length; r++) {
+			final Symbol symbol = pending.get(r);
+			rows[r] = new long[words];
+			for (final int index : symbol.blocks) {
+				if (blocks[index] == null) {
+					rows[r][columns[index] / 64] ^= 1L << (columns[index] % 64);
+				}
+			}
+			data[r] = symbol.data.clone();
+		}
+		int rank = 0;
+		for (int c = 0; c < unknown.length; c++) {
+			final int word = c / 64;
+			final long bit = 1L << (c % 64);
+			int pivot = rank;
+			while (pivot < rows.length && (rows[pivot][word] & bit) == 0) {
+				pivot++;
+			}
+			if (pivot == rows.length) {
+				continue;
+			}
+			swap(rows, rank, pivot);
+			swap(data, rank, pivot);
+			for (int r = 0; r < rows.length; r++) {
+				if (r != rank && (rows[r][word] & bit) != 0) {
+					for (int w = 0; w < words; w++) {
+						rows[r][w] ^= rows[rank][w];
+					}
+					FountainCode.xor(data[r], data[rank]);
+				}
+			}
+			rank++;
+		}
+		LOGGER.debug("elimination: rank {} of {} unknown blocks", Integer.valueOf(rank), Integer.valueOf(unknown.length));
+		// rows with a single remaining block solve it
+		for (int r = 0; r < rank; r++) {
+			final int column = single(rows[r]);
+			if (column >= 0) {
+				solve(unknown[column], data[r]);
+			}
+		}
+		// retry once enough symbols arrived to make up for the missing rank
+		nextElimination = received + Math.max(1, unknown.length - rank);
+	}
+
+	// the single column set in the row, -1 if none or several
+	private static int single(final long[] row) {
+		int result = -1;
+		for (int w = 0; w < row.length; w++) {
+			if (row[w] != 0) {
+				if (result >= 0 || Long.bitCount(row[w]) != 1) {
+					return -1;
+				}
+				result = w * 64 + Long.numberOfTrailingZeros(row[w]);
+			}
+		}
+		return result;
+	}
+
+	private static <T> void swap(final T[] array, final int i, final int j) {
+		final T temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private static class Symbol {
+
+		protected final int[] blocks;
+		protected final byte[] data;
+		protected int unknown;
+
+		public Symbol(final int[] blocks, final byte[] data) {
+			this.blocks = blocks;
+			this.data = data;
+			unknown = blocks.length;
+		}
+
+		public void reduce(final byte[] block) {
+			FountainCode.xor(data, block);
+			unknown--;
+		}
+
+		public int remaining(final byte[][] known) {
+			for (final int index : blocks) {
+				if (known[index] == null) {
+					return index;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+}
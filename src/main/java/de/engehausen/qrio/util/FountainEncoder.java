@@ -0,0 +1,78 @@
+package de.engehausen.qrio.util;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Endless iterator of fountain code symbols for an input.
+ * See {@link FountainCode} for the format of the symbols.
+ * The input must be fully available, as every symbol may
+ * combine any of its blocks.
+ */
+public class FountainEncoder implements Iterator<byte[]> {
+
+	private final ByteBuffer data;
+	private final FountainCode code;
+	private final byte[][] parities;
+	private int seed;
+
+	/**
+	 * Creates the encoder.
+	 * @param data the input to encode, from its position to its limit
+	 * @param symbolSize the size of each symbol in bytes, including the
+	 * {@link FountainCode#OVERHEAD}
+	 */
+	public FountainEncoder(final ByteBuffer data, final int symbolSize) {
+		this.data = data.slice();
+		code = new FountainCode(this.data.remaining(), symbolSize - FountainCode.OVERHEAD);
+		parities = new byte[code.getParityCount()][];
+		for (int p = 0; p < parities.length; p++) {
+			parities[p] = new byte[code.getBlockSize()];
+			for (final int index : code.getParity(p)) {
+				FountainCode.xor(parities[p], block(index));
+			}
+		}
+	}
+
+	/**
+	 * Returns the code of the symbols.
+	 * @return the code
+	 */
+	public FountainCode getCode() {
+		return code;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] next() {
+		final int current = seed++;
+		final int[] blocks = code.getBlocks(current);
+		final byte[] payload = block(blocks[0]);
+		for (int i = 1; i < blocks.length; i++) {
+			FountainCode.xor(payload, block(blocks[i]));
+		}
+		return code.toSymbol(current, payload);
+	}
+
+	// the last input block is padded with zeros
+	private byte[] block(final int index) {
+		if (index >= code.getBlockCount()) {
+			return parities[index - code.getBlockCount()].clone();
+		}
+		final byte[] result = new byte[code.getBlockSize()];
+		final int offset = index * code.getBlockSize();
+		final ByteBuffer source = data.duplicate();
+		source.position(offset);
+		source.get(result, 0, Math.min(result.length, source.remaining()));
+		return result;
+	}
+
+}
@@ -0,0 +1,110 @@
+package de.engehausen.qrio.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterator of the chunks of a transfer which may be fountain-coded.
+ * If the first chunk of the source is a {@link FountainCode} symbol, symbols
+ * are consumed until the input can be decoded, and the blocks of the input
+ * are returned afterwards; the rest of the source is not consumed.
+ * Otherwise the chunks of the source are returned, transformed with the
+ * given post-processor, and a given hook is called once the source ends
+ * (e.g. {@link FrameValidator#finish()}).
+ */
+public class FountainIterator implements Iterator<byte[]> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FountainIterator.class);
+
+	private final Iterator<byte[]> source;
+	private final Function<byte[], byte[]> postprocessor;
+	private final Runnable onEnd;
+	private byte[] first;
+	private boolean started;
+	private boolean finished;
+	private FountainDecoder decoder;
+	private int block;
+
+	/**
+	 * Creates the iterator.
+	 * @param source the chunks read
+	 * @param postprocessor the post-processor for chunks which are not fountain-coded
+	 */
+	public FountainIterator(final Iterator<byte[]> source, final Function<byte[], byte[]> postprocessor) {
+		this(source, postprocessor, () -> {});
+	}
+
+	/**
+	 * Creates the iterator.
+	 * @param source the chunks read
+	 * @param postprocessor the post-processor for chunks which are not fountain-coded
+	 * @param onEnd called once the chunks which are not fountain-coded end
+	 */
+	public FountainIterator(final Iterator<byte[]> source, final Function<byte[], byte[]> postprocessor, final Runnable onEnd) {
+		this.source = source;
+		this.postprocessor = postprocessor;
+		this.onEnd = onEnd;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		if (!started) {
+			started = true;
+			if (source.hasNext()) {
+				first = source.next();
+				if (FountainCode.isSymbol(first)) {
+					decode(first);
+					first = null;
+				}
+			}
+		}
+		if (decoder != null) {
+			return block < decoder.getCode().getBlockCount();
+		}
+		final boolean result = first != null || source.hasNext();
+		if (!result && !finished) {
+			finished = true;
+			onEnd.run();
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (decoder != null) {
+			return decoder.getBlock(block++);
+		}
+		if (first != null) {
+			final byte[] result = first;
+			first = null;
+			return postprocessor.apply(result);
+		}
+		return postprocessor.apply(source.next());
+	}
+
+	private void decode(final byte[] symbol) {
+		decoder = new FountainDecoder(FountainCode.of(symbol));
+		LOGGER.debug("fountain-coded input of {} bytes in {} blocks", Long.valueOf(decoder.getCode().getLength()), Integer.valueOf(decoder.getCode().getBlockCount()));
+		boolean complete = decoder.add(symbol);
+		while (!complete && source.hasNext()) {
+			complete = decoder.add(source.next());
+		}
+		if (!complete) {
+			throw new IllegalStateException(String.format("decoding error: input ended after %d symbols, %d of %d blocks decoded",
+				Integer.valueOf(decoder.getReceived()), Integer.valueOf(decoder.getSolved()), Integer.valueOf(decoder.getCode().getBlockCount())));
+		}
+		LOGGER.debug("decoded {} blocks from {} symbols", Integer.valueOf(decoder.getCode().getBlockCount()), Integer.valueOf(decoder.getReceived()));
+	}
+
+}
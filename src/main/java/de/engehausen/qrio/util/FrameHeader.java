@@ -0,0 +1,143 @@
+package de.engehausen.qrio.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Header of a frame (version 2). It identifies the transfer the frame
+ * belongs to and its position in it, and carries the totals of the
+ * transfer: a magic number, the transfer id, the sequence number of
+ * the frame, the total number of frames, the total length of the
+ * transfer in bytes, followed by the payload and a CRC32 of everything
+ * before. Totals not known in advance are {@code -1}.
+ * See {@link FrameHeaderEncoder} and {@link FrameValidator}.
+ */
+public class FrameHeader {
+
+	/**
+	 * Number of bytes a frame needs in addition to its payload.
+	 */
+	public static final int OVERHEAD = 28;
+
+	private static final int MAGIC = 0x51524832; // "QRH2"
+	private static final int HEADER = 24;
+	private static final int CRC = 4;
+
+	private final int transfer;
+	private final int sequence;
+	private final int total;
+	private final long length;
+
+	/**
+	 * Creates the header.
+	 * @param transfer the id of the transfer
+	 * @param sequence the sequence number of the frame, starting at zero
+	 * @param total the total number of frames, {@code -1} if unknown
+	 * @param length the total number of bytes, {@code -1} if unknown
+	 */
+	public FrameHeader(final int transfer, final int sequence, final int total, final long length) {
+		this.transfer = transfer;
+		this.sequence = sequence;
+		this.total = total;
+		this.length = length;
+	}
+
+	/**
+	 * Reads the header of a frame.
+	 * @param frame the bytes to check
+	 * @return the header, {@code null} if the bytes are not a valid frame
+	 */
+	public static FrameHeader of(final byte[] frame) {
+		if (!isFrame(frame)) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(frame, 4, HEADER - 4);
+		return new FrameHeader(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+	}
+
+	/**
+	 * Checks whether the given bytes are a valid frame.
+	 * @param bytes the bytes to check
+	 * @return {@code true} if the bytes are a frame with a matching checksum
+	 */
+	public static boolean isFrame(final byte[] bytes) {
+		if (bytes.length < OVERHEAD) {
+			return false;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt(0) != MAGIC) {
+			return false;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - CRC);
+		return (int) crc.getValue() == buffer.getInt(bytes.length - CRC);
+	}
+
+	/**
+	 * Creates a frame with this header.
+	 * @param payload the payload
+	 * @return the frame
+	 */
+	public byte[] toFrame(final byte[] payload) {
+		final ByteBuffer buffer = ByteBuffer.allocate(OVERHEAD + payload.length);
+		buffer
+			.putInt(MAGIC)
+			.putInt(transfer)
+			.putInt(sequence)
+			.putInt(total)
+			.putLong(length)
+			.put(payload);
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Returns a copy of the payload of the given frame.
+	 * @param frame the frame
+	 * @return the payload
+	 */
+	public static byte[] getPayload(final byte[] frame) {
+		return Arrays.copyOfRange(frame, HEADER, frame.length - CRC);
+	}
+
+	/**
+	 * Returns the id of the transfer.
+	 * @return the transfer id
+	 */
+	public int getTransfer() {
+		return transfer;
+	}
+
+	/**
+	 * Returns the sequence number of the frame.
+	 * @return the sequence number, starting at zero
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the total number of frames of the transfer.
+	 * @return the number of frames, {@code -1} if unknown
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the total length of the transfer.
+	 * @return the number of bytes, {@code -1} if unknown
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%08x:%d/%d", Integer.valueOf(transfer), Integer.valueOf(sequence), Integer.valueOf(total));
+	}
+
+}
@@ -0,0 +1,80 @@
+package de.engehausen.qrio.util;
+
+import java.util.function.Function;
+
+/**
+ * Adds a {@link FrameHeader} to a given byte array, with consecutive
+ * sequence numbers. This is to be used in conjunction with {@link FrameValidator}.
+ * The instance is stateful.
+ */
+public class FrameHeaderEncoder implements Function<byte[], byte[]> {
+
+	private final int transfer;
+	private final int total;
+	private final long length;
+	private int sequence;
+
+	/**
+	 * Creates the encoder.
+	 * @param transfer the id of the transfer
+	 * @param total the total number of frames, {@code -1} if unknown
+	 * @param length the total number of bytes, {@code -1} if unknown
+	 */
+	public FrameHeaderEncoder(final int transfer, final int total, final long length) {
+		this.transfer = transfer;
+		this.total = total;
+		this.length = length;
+	}
+
+	/**
+	 * Creates the encoder for an input of the given length.
+	 * @param transfer the id of the transfer
+	 * @param length the total number of bytes, {@code -1} if unknown
+	 * @param chunkSize the size of the chunks of the input
+	 * @return the encoder
+	 */
+	public static FrameHeaderEncoder of(final int transfer, final long length, final int chunkSize) {
+		final long total = length < 0 ? -1 : (length + chunkSize - 1) / chunkSize;
+		if (total > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("input too large (%d bytes)", Long.valueOf(length)));
+		}
+		return new FrameHeaderEncoder(transfer, (int) total, length);
+	}
+
+	/**
+	 * Transforms the input byte array.
+	 * @param src the byte array to process
+	 * @return the byte array with a header
+	 */
+	public byte[] apply(final byte[] src) {
+		return new FrameHeader(transfer, sequence++, total, length).toFrame(src);
+	}
+
+	/**
+	 * Adds the header of the given chunk to the input byte array,
+	 * for chunks generated out of sequence. The state is not changed.
+	 * @param index the sequence number of the chunk
+	 * @param src the byte array to process
+	 * @return the byte array with a header
+	 */
+	public byte[] apply(final int index, final byte[] src) {
+		return new FrameHeader(transfer, index, total, length).toFrame(src);
+	}
+
+	/**
+	 * Returns the id of the transfer.
+	 * @return the transfer id
+	 */
+	public int getTransfer() {
+		return transfer;
+	}
+
+	/**
+	 * Returns the total number of frames of the transfer.
+	 * @return the number of frames, {@code -1} if unknown
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+}
@@ -0,0 +1,137 @@
+package de.engehausen.qrio.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Produces the elements of a source iterator ahead of time, on a background
+ * thread, into a bounded buffer. The consumer takes the elements which are
+ * ready without waiting (see {@link #poll()}), e.g. on a UI thread showing
+ * frames at a fixed rate; if no element is ready although the source is not
+ * exhausted, this is counted as an underrun. If the source fails, the failure
+ * is reported to the consumer after the elements produced before.
+ * The source iterator is only accessed by the producing thread.
+ * @param <T> the type of the elements
+ */
+public class FramePrefetcher<T> implements AutoCloseable {
+
+	// marks the end of the elements in the buffer
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> buffer;
+	private final Thread producer;
+	private volatile RuntimeException failure;
+	private boolean exhausted;
+	private int count;
+	private int underruns;
+
+	/**
+	 * Creates the prefetcher and starts producing elements.
+	 * @param source the source of the elements
+	 * @param capacity the maximum number of elements produced ahead
+	 */
+	public FramePrefetcher(final Iterator<T> source, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(String.format("invalid capacity %d", Integer.valueOf(capacity)));
+		}
+		buffer = new ArrayBlockingQueue<>(capacity);
+		producer = new DaemonThreadFactory("prefetch").newThread(() -> produce(source));
+		producer.start();
+	}
+
+	private void produce(final Iterator<T> source) {
+		try {
+			while (source.hasNext()) {
+				buffer.put(source.next());
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		try {
+			buffer.put(END);
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Returns the next element if it is ready. Does not block.
+	 * @return the next element, {@code null} if none is ready or
+	 * the source is exhausted
+	 */
+	public T poll() {
+		if (exhausted) {
+			return null;
+		}
+		final Object element = buffer.poll();
+		if (element == null) {
+			underruns++;
+			return null;
+		}
+		return accept(element);
+	}
+
+	/**
+	 * Returns the next element, waiting until it is ready.
+	 * @return the next element, {@code null} if the source is exhausted
+	 */
+	public T take() {
+		if (exhausted) {
+			return null;
+		}
+		try {
+			return accept(buffer.take());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T accept(final Object element) {
+		if (element == END) {
+			exhausted = true;
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+		count++;
+		return (T) element;
+	}
+
+	/**
+	 * Checks whether all elements were returned.
+	 * @return {@code true} if the source is exhausted and all elements were returned
+	 */
+	public boolean isExhausted() {
+		return exhausted;
+	}
+
+	/**
+	 * Returns the number of elements returned so far.
+	 * @return the number of elements
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of times no element was ready when polled.
+	 * @return the number of underruns
+	 */
+	public int getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 * Stops producing elements.
+	 */
+	public void close() {
+		producer.interrupt();
+	}
+
+}
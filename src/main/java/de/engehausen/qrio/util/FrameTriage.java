@@ -0,0 +1,208 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Cheap triage of frames before they are decoded. The luminance of a
+ * frame is sampled on a coarse grid; a frame is skipped if
+ * <ul>
+ * <li>its samples hardly differ from those of the previous frame
+ * (the display did not change), or if</li>
+ * <li>clearly more of its samples are intermediate shades of grey than
+ * usual, which happens if the frame shows a transition between two codes
+ * or is blurred.</li>
+ * </ul>
+ * Frames are only skipped a limited number of times in a row, so a frame
+ * which could not be decoded is retried eventually, and the triage adapts
+ * to lasting changes of the picture.
+ * The instance is stateful and must see the frames in order. It counts
+ * the frames per {@link Verdict}.
+ */
+public class FrameTriage {
+
+	/**
+	 * The result of the triage of a frame.
+	 */
+	public enum Verdict {
+		/** the frame should be decoded */
+		DECODE,
+		/** the frame looks like the previous frame */
+		UNCHANGED,
+		/** the frame is blurred or blended */
+		BLURRED
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FrameTriage.class);
+
+	private static final int GRID = 48;
+	// mean absolute luminance difference per sample below which a frame is unchanged
+	private static final double UNCHANGED_DIFFERENCE = 3;
+	private static final int MAX_UNCHANGED = 3;
+	private static final int MAX_BLURRED = 5;
+	// share of intermediate samples above the usual share to consider a frame blurred;
+	// in the test video, transition frames have about five percentage points more
+	private static final double BLUR_MARGIN = 0.045;
+	// weight of a new frame in the usual share of intermediate samples
+	private static final double BASELINE_WEIGHT = 0.1;
+
+	private final Map<Verdict, AtomicLong> counts;
+	private int[] previous;
+	private int unchanged;
+	private int blurred;
+	private double baseline;
+
+	/**
+	 * Creates the triage.
+	 */
+	public FrameTriage() {
+		counts = new EnumMap<>(Verdict.class);
+		for (final Verdict verdict : Verdict.values()) {
+			counts.put(verdict, new AtomicLong());
+		}
+		baseline = -1;
+	}
+
+	/**
+	 * Returns the triage as a predicate for images.
+	 * @return the predicate, accepting frames to decode
+	 */
+	public Predicate<BufferedImage> images() {
+		return new Predicate<>() {
+			@Override
+			public boolean test(final BufferedImage image) {
+				return check(image) == Verdict.DECODE;
+			}
+			@Override
+			public String toString() {
+				return FrameTriage.this.toString();
+			}
+		};
+	}
+
+	/**
+	 * Returns the triage as a predicate for luminance sources.
+	 * @return the predicate, accepting frames to decode
+	 */
+	public Predicate<LuminanceSource> luminance() {
+		return new Predicate<>() {
+			@Override
+			public boolean test(final LuminanceSource source) {
+				return check(source) == Verdict.DECODE;
+			}
+			@Override
+			public String toString() {
+				return FrameTriage.this.toString();
+			}
+		};
+	}
+
+	/**
+	 * Checks the given image.
+	 * @param image the image to check
+	 * @return the verdict for the image
+	 */
+	public Verdict check(final BufferedImage image) {
+		final int[] samples = new int[GRID * GRID];
+		for (int y = 0; y < GRID; y++) {
+			final int row = (2 * y + 1) * image.getHeight() / (2 * GRID);
+			for (int x = 0; x < GRID; x++) {
+				final int rgb = image.getRGB((2 * x + 1) * image.getWidth() / (2 * GRID), row);
+				// same weights as the zxing luminance source
+				samples[y * GRID + x] = (306 * ((rgb >> 16) & 0xff) + 601 * ((rgb >> 8) & 0xff) + 117 * (rgb & 0xff) + 0x200) >> 10;
+			}
+		}
+		return check(samples);
+	}
+
+	/**
+	 * Checks the given luminance source.
+	 * @param source the source to check
+	 * @return the verdict for the source
+	 */
+	public Verdict check(final LuminanceSource source) {
+		final int[] samples = new int[GRID * GRID];
+		byte[] buffer = null;
+		for (int y = 0; y < GRID; y++) {
+			buffer = source.getRow((2 * y + 1) * source.getHeight() / (2 * GRID), buffer);
+			for (int x = 0; x < GRID; x++) {
+				samples[y * GRID + x] = buffer[(2 * x + 1) * source.getWidth() / (2 * GRID)] & 0xff;
+			}
+		}
+		return check(samples);
+	}
+
+	/**
+	 * Returns the number of frames with the given verdict.
+	 * @param verdict the verdict
+	 * @return the number of frames
+	 */
+	public long getCount(final Verdict verdict) {
+		return counts.get(verdict).get();
+	}
+
+	@Override
+	public String toString() {
+		return counts.toString();
+	}
+
+	protected Verdict check(final int[] samples) {
+		final Verdict result = triage(samples);
+		counts.get(result).incrementAndGet();
+		LOGGER.trace("triage: {}", result);
+		return result;
+	}
+
+	private Verdict triage(final int[] samples) {
+		final int[] last = previous;
+		previous = samples;
+		if (last != null && unchanged < MAX_UNCHANGED && difference(last, samples) < UNCHANGED_DIFFERENCE) {
+			unchanged++;
+			return Verdict.UNCHANGED;
+		}
+		unchanged = 0;
+		final double share = intermediateShare(samples);
+		if (baseline >= 0 && blurred < MAX_BLURRED && share > baseline + BLUR_MARGIN) {
+			blurred++;
+			return Verdict.BLURRED;
+		}
+		blurred = 0;
+		baseline = baseline < 0 ? share : (1 - BASELINE_WEIGHT) * baseline + BASELINE_WEIGHT * share;
+		return Verdict.DECODE;
+	}
+
+	private static double difference(final int[] a, final int[] b) {
+		long sum = 0;
+		for (int i = a.length; --i >= 0; ) {
+			sum += Math.abs(a[i] - b[i]);
+		}
+		return sum / (double) a.length;
+	}
+
+	// share of samples in the middle half between the darkest and brightest samples
+	private static double intermediateShare(final int[] samples) {
+		final int min = Arrays.stream(samples).min().orElse(0);
+		final int max = Arrays.stream(samples).max().orElse(0);
+		final int quarter = (max - min) / 4;
+		if (quarter == 0) {
+			return 1;
+		}
+		int count = 0;
+		for (final int sample : samples) {
+			if (sample > min + quarter && sample < max - quarter) {
+				count++;
+			}
+		}
+		return count / (double) samples.length;
+	}
+
+}
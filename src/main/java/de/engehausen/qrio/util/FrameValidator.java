@@ -0,0 +1,105 @@
+package de.engehausen.qrio.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies and removes the {@link FrameHeader} of frames. The first frame
+ * determines the transfer; frames of other transfers and frames seen before
+ * are ignored (an empty array is returned), missing frames fail fast.
+ * Input without headers is processed like by a {@link FrameConcealer}.
+ * The instance is stateful.
+ */
+public class FrameValidator extends FrameConcealer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FrameValidator.class);
+	private static final byte[] EMPTY = new byte[0];
+
+	private final boolean reassemble;
+	private boolean positional;
+	private FrameHeader transfer;
+	private int sequence;
+	private long length;
+
+	/**
+	 * Creates the validator; frames must be in order.
+	 */
+	public FrameValidator() {
+		this(false);
+	}
+
+	/**
+	 * Creates the validator.
+	 * @param reassemble {@code true} if frames with headers carrying the totals
+	 * of the transfer are to be passed on unchanged, as they are put in order by
+	 * a {@link Reassembler}; {@code false} if frames must be in order
+	 */
+	public FrameValidator(final boolean reassemble) {
+		this.reassemble = reassemble;
+	}
+
+	/**
+	 * Transforms the input byte array.
+	 * @param src the byte array to process
+	 * @return the payload of the frame; empty if the frame is to be ignored.
+	 * If the input has no header, it is processed like by a {@link FrameConcealer}.
+	 * If frames are missing or corrupt, an {@code IllegalStateException} is thrown.
+	 */
+	@Override
+	public byte[] apply(final byte[] src) {
+		if (transfer == null && !isActive()) {
+			transfer = FrameHeader.of(src);
+			positional = reassemble && transfer != null && transfer.getTotal() >= 0 && transfer.getLength() >= 0;
+		}
+		if (transfer == null) {
+			return super.apply(src);
+		}
+		if (positional) {
+			return src;
+		}
+		final FrameHeader header = FrameHeader.of(src);
+		if (header == null) {
+			throw new IllegalStateException(String.format("decoding error: corrupt frame after frame %d", Integer.valueOf(sequence - 1)));
+		}
+		if (header.getTransfer() != transfer.getTransfer()) {
+			LOGGER.debug("ignoring frame {} of another transfer", header);
+			return EMPTY;
+		}
+		if (header.getSequence() < sequence || (transfer.getTotal() >= 0 && header.getSequence() >= transfer.getTotal())) {
+			LOGGER.debug("ignoring frame {} seen before", header);
+			return EMPTY;
+		}
+		if (header.getSequence() > sequence) {
+			throw new IllegalStateException(String.format("decoding error: frames %d to %d missing", Integer.valueOf(sequence), Integer.valueOf(header.getSequence() - 1)));
+		}
+		sequence++;
+		final byte[] result = FrameHeader.getPayload(src);
+		length += result.length;
+		return result;
+	}
+
+	/**
+	 * Verifies that all frames of the transfer were processed,
+	 * if the totals of the transfer are known.
+	 * @throws IllegalStateException if frames are missing
+	 */
+	public void finish() {
+		if (transfer == null || positional) {
+			return;
+		}
+		if ((transfer.getTotal() >= 0 && sequence != transfer.getTotal()) || (transfer.getLength() >= 0 && length != transfer.getLength())) {
+			throw new IllegalStateException(String.format("decoding error: input ended after %d of %d frames (%d of %d bytes)",
+				Integer.valueOf(sequence), Integer.valueOf(transfer.getTotal()), Long.valueOf(length), Long.valueOf(transfer.getLength())));
+		}
+		LOGGER.debug("transfer {} complete", transfer);
+	}
+
+	/**
+	 * Returns the header of the first frame, if any.
+	 * @return the header of the first frame, {@code null} if the input has no headers
+	 */
+	public FrameHeader getTransfer() {
+		return transfer;
+	}
+
+}
@@ -0,0 +1,170 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Asynchronous writer of PNG images to the file system.
+ * The images are named using the given prefix, count starts
+ * at one and image names use four digits (see {@link ImageIterator}).
+ * Images are written by a pool of threads; at most a bounded number
+ * of images are waiting to be written, further calls block.
+ * If writing fails, the next call to {@link #accept(BufferedImage)}
+ * fails fast, and {@link #close()} always reports the failure of the
+ * lowest-numbered image which could not be written.
+ */
+public class FrameWriter implements Consumer<BufferedImage>, AutoCloseable {
+
+	/**
+	 * Value for the default compression level of the PNG writer.
+	 */
+	public static final int DEFAULT_LEVEL = -1;
+
+	private static final String IMAGE_FORMAT = "png";
+	private static final int MAX_LEVEL = 9;
+	// number of images queued per writer thread
+	private static final int QUEUE_PER_THREAD = 4;
+
+	private final String prefix;
+	private final int level;
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final ThreadLocal<ImageWriter> writers;
+	private int count;
+	private int failedIndex;
+	private RuntimeException failure;
+
+	/**
+	 * Creates the writer.
+	 * @param prefix the prefix of the image file names
+	 * @param level the deflate level of the PNG compression, from
+	 * {@code 0} (fast, no compression) to {@code 9} (slow, best compression),
+	 * or {@link #DEFAULT_LEVEL}.
+	 * @param threads the number of writer threads
+	 */
+	public FrameWriter(final String prefix, final int level, final int threads) {
+		if (level < DEFAULT_LEVEL || level > MAX_LEVEL) {
+			throw new IllegalArgumentException(String.format("invalid compression level %d", level));
+		}
+		this.prefix = prefix;
+		this.level = level;
+		executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("writer"));
+		slots = new Semaphore(QUEUE_PER_THREAD * threads);
+		writers = ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName(IMAGE_FORMAT).next());
+		failedIndex = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the file name of the image with the given index.
+	 * @param prefix the prefix of the file name
+	 * @param index the index of the image, starting at one
+	 * @return the file name
+	 */
+	public static String getFilename(final String prefix, final int index) {
+		return String.format("%s%04d.png", prefix, index);
+	}
+
+	/**
+	 * Queues the given image for writing. Blocks if too many
+	 * images are waiting to be written.
+	 * @param image the image to write
+	 */
+	public void accept(final BufferedImage image) {
+		check();
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		final int index = ++count;
+		executor.execute(() -> {
+			try {
+				if (!hasFailedBefore(index)) {
+					write(image, new File(getFilename(prefix, index)));
+				}
+			} catch (IOException|RuntimeException e) {
+				failed(index, e);
+			} finally {
+				slots.release();
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of images accepted so far.
+	 * @return the number of images
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Waits until all queued images are written.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			throw new IllegalStateException(e);
+		}
+		check();
+	}
+
+	protected void write(final BufferedImage image, final File file) throws IOException {
+		final ImageWriter writer = writers.get();
+		final ImageWriteParam param = writer.getDefaultWriteParam();
+		if (level != DEFAULT_LEVEL) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			// the PNG writer derives the deflate level from the quality
+			param.setCompressionQuality(1f - level / (float) MAX_LEVEL);
+		}
+		file.delete();
+		try (final ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+			if (out == null) {
+				throw new IOException(String.format("cannot write %s", file));
+			}
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.reset();
+		}
+	}
+
+	private synchronized boolean hasFailedBefore(final int index) {
+		return failedIndex < index;
+	}
+
+	private synchronized void failed(final int index, final Exception e) {
+		if (index < failedIndex) {
+			failedIndex = index;
+			failure = e instanceof RuntimeException ?
+				(RuntimeException) e :
+				new IllegalStateException(String.format("cannot write %s", getFilename(prefix, index)), e);
+		}
+	}
+
+	private synchronized void check() {
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator for groups of consecutive elements of a given iterator,
+ * e.g. for the QR codes shown in one frame.
+ * @param <T> the type of the elements
+ */
+public class GroupingIterator<T> implements Iterator<List<T>> {
+
+	private final Iterator<T> source;
+	private final int size;
+
+	/**
+	 * Creates the iterator.
+	 * @param source the iterator of the elements
+	 * @param size the size of the groups (the last group may be smaller)
+	 */
+	public GroupingIterator(final Iterator<T> source, final int size) {
+		this.source = source;
+		this.size = size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		return source.hasNext();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<T> next() {
+		if (!source.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final List<T> result = new ArrayList<>(size);
+		while (result.size() < size && source.hasNext()) {
+			result.add(source.next());
+		}
+		return result;
+	}
+
+}
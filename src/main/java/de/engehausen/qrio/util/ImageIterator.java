@@ -19,10 +19,6 @@ public class ImageIterator implements Iterator<BufferedImage> {
 	private File file;
 	private int count;
 
-	private static String getFilename(final String prefix, final int count) {
-		return String.format("%s%04d.png", prefix, count);
-	}
-
 	/**
 	 * Creates the iterator using the given prefix for file names.
 	 * @param prefix the prefix to use
@@ -31,7 +27,7 @@ public class ImageIterator implements Iterator<BufferedImage> {
 		this.prefix = prefix;
 		count = 1;
 		if (!hasNext()) {
-			throw new IllegalStateException(String.format("File %s not found", getFilename(prefix, count)));
+			throw new IllegalStateException(String.format("File %s not found", FrameWriter.getFilename(prefix, count)));
 		}
 	}
 
@@ -39,7 +35,7 @@ public class ImageIterator implements Iterator<BufferedImage> {
 	 * {@inheritDoc}
 	 */
 	public boolean hasNext() {
-		file = new File(getFilename(prefix, count));
+		file = new File(FrameWriter.getFilename(prefix, count));
 		return file.exists();
 	}
 
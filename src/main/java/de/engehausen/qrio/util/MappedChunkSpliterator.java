@@ -0,0 +1,117 @@
+package de.engehausen.qrio.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator for byte "chunks" of a file. The file is memory-mapped
+ * and the chunks are read-only slices of the mapping, i.e. no bytes are
+ * copied. The number of chunks is known upfront, so streams using it are
+ * {@code SIZED}. The spliterator does not split: the chunks are consumed in
+ * order, and the QR codes are encoded in parallel from there (see
+ * {@link OrderedParallelIterator}). Large files are mapped in regions.
+ * The channel must stay open while the spliterator is in use.
+ */
+public class MappedChunkSpliterator implements Spliterator<ByteBuffer> {
+
+	// maximum size of a single mapping (the mapping API is limited to 2GB)
+	private static final long MAX_MAPPING = 64L << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkSize;
+	private final long end;
+	private long chunk;
+	private MappedByteBuffer mapping;
+	private long mappingOffset;
+
+	/**
+	 * Creates the spliterator for all chunks of the given file channel.
+	 * @param channel the channel of the file to read
+	 * @param chunkSize the size of the returned chunks (the last chunk
+	 * may have less bytes)
+	 * @throws IOException in case of error
+	 */
+	public MappedChunkSpliterator(final FileChannel channel, final int chunkSize) throws IOException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunk size must be positive");
+		}
+		this.channel = channel;
+		this.chunkSize = chunkSize;
+		size = channel.size();
+		end = (size + chunkSize - 1) / chunkSize;
+	}
+
+	/**
+	 * Copies the remaining bytes of the given buffer into an array.
+	 * @param buffer the buffer to copy, not modified
+	 * @return the bytes of the buffer
+	 */
+	public static byte[] toBytes(final ByteBuffer buffer) {
+		final byte[] result = new byte[buffer.remaining()];
+		buffer.duplicate().get(result);
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean tryAdvance(final Consumer<? super ByteBuffer> action) {
+		if (chunk >= end) {
+			return false;
+		}
+		final long offset = chunk * chunkSize;
+		final int length = (int) Math.min(chunkSize, size - offset);
+		map(offset, length);
+		final ByteBuffer slice = mapping.duplicate();
+		final int start = (int) (offset - mappingOffset);
+		slice.position(start);
+		slice.limit(start + length);
+		chunk++;
+		action.accept(slice.slice().asReadOnlyBuffer());
+		return true;
+	}
+
+	/**
+	 * Does not split, the chunks are read in order.
+	 * @return {@code null}
+	 */
+	public Spliterator<ByteBuffer> trySplit() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long estimateSize() {
+		return end - chunk;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int characteristics() {
+		return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+	}
+
+	// makes sure the given region is mapped; maps whole chunks up to the maximum
+	// mapping size, but never beyond the end of the file
+	private void map(final long offset, final int length) {
+		if (mapping != null && offset >= mappingOffset && offset + length <= mappingOffset + mapping.capacity()) {
+			return;
+		}
+		final long chunks = Math.max(1, Math.min(end - chunk, MAX_MAPPING / chunkSize));
+		final long mappingSize = Math.min(size - offset, chunks * chunkSize);
+		try {
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset, mappingSize);
+			mappingOffset = offset;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package de.engehausen.qrio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Manifest of the chunks of a transfer which are missing, as ranges of
+ * sequence numbers. The text form is a single line of the form
+ * {@code QRM1 <transfer id (hex)> <total> <ranges>}, for example
+ * {@code QRM1 0a1b2c3d 120 3-7,10,12-15}; no ranges are given as {@code -}.
+ */
+public class MissingChunks {
+
+	private static final String MAGIC = "QRM1";
+	private static final String NONE = "-";
+
+	private final int transfer;
+	private final int total;
+	// pairs of first and last index of the ranges, in ascending order
+	private final int[] ranges;
+
+	protected MissingChunks(final int transfer, final int total, final int[] ranges) {
+		this.transfer = transfer;
+		this.total = total;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * Creates the manifest of the chunks not received.
+	 * @param transfer the id of the transfer
+	 * @param bitmap the chunks received
+	 * @return the manifest
+	 */
+	public static MissingChunks of(final int transfer, final ChunkBitmap bitmap) {
+		int[] ranges = new int[16];
+		int count = 0;
+		for (int first = bitmap.nextMissing(0); first >= 0; ) {
+			int last = first;
+			while (last + 1 < bitmap.getSize() && !bitmap.get(last + 1)) {
+				last++;
+			}
+			if (count == ranges.length) {
+				ranges = Arrays.copyOf(ranges, 2 * count);
+			}
+			ranges[count++] = first;
+			ranges[count++] = last;
+			first = bitmap.nextMissing(last + 1);
+		}
+		return new MissingChunks(transfer, bitmap.getSize(), Arrays.copyOf(ranges, count));
+	}
+
+	/**
+	 * Parses the text form of a manifest.
+	 * @param text the text
+	 * @return the manifest
+	 * @throws IllegalStateException if the text is not a valid manifest
+	 */
+	public static MissingChunks parse(final String text) {
+		final String[] parts = text.trim().split(" ");
+		if (parts.length != 4 || !MAGIC.equals(parts[0])) {
+			throw new IllegalStateException(String.format("invalid manifest of missing chunks: %s", text));
+		}
+		try {
+			final int total = Integer.parseInt(parts[2]);
+			final int[] ranges;
+			if (NONE.equals(parts[3])) {
+				ranges = new int[0];
+			} else {
+				final String[] items = parts[3].split(",");
+				ranges = new int[2 * items.length];
+				for (int i = 0; i < items.length; i++) {
+					final int dash = items[i].indexOf('-');
+					ranges[2 * i] = Integer.parseInt(dash < 0 ? items[i] : items[i].substring(0, dash));
+					ranges[2 * i + 1] = dash < 0 ? ranges[2 * i] : Integer.parseInt(items[i].substring(dash + 1));
+				}
+			}
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (ranges[i] > ranges[i + 1] || ranges[i + 1] >= total || (i > 0 ? ranges[i] <= ranges[i - 1] : ranges[i] < 0)) {
+					throw new IllegalStateException(String.format("invalid manifest of missing chunks: %s", text));
+				}
+			}
+			return new MissingChunks(Integer.parseUnsignedInt(parts[1], 16), total, ranges);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException(String.format("invalid manifest of missing chunks: %s", text), e);
+		}
+	}
+
+	/**
+	 * Reads a manifest from the given file.
+	 * @param file the file to read
+	 * @return the manifest
+	 * @throws IOException in case of error
+	 */
+	public static MissingChunks read(final File file) throws IOException {
+		return parse(Files.readString(file.toPath(), StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Writes the manifest to the given file.
+	 * @param file the file to write
+	 * @throws IOException in case of error
+	 */
+	public void write(final File file) throws IOException {
+		Files.writeString(file.toPath(), toString() + System.lineSeparator(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Returns the id of the transfer.
+	 * @return the transfer id
+	 */
+	public int getTransfer() {
+		return transfer;
+	}
+
+	/**
+	 * Returns the total number of chunks of the transfer.
+	 * @return the number of chunks
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the number of chunks missing.
+	 * @return the number of chunks missing
+	 */
+	public int getCount() {
+		int result = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			result += ranges[i + 1] - ranges[i] + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether the given chunk is missing.
+	 * @param index the index of the chunk
+	 * @return {@code true} if the chunk is missing
+	 */
+	public boolean contains(final int index) {
+		// binary search over the ranges
+		int low = 0;
+		int high = ranges.length / 2 - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (ranges[2 * middle + 1] < index) {
+				low = middle + 1;
+			} else if (ranges[2 * middle] > index) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the indices of the missing chunks.
+	 * @return the indices in ascending order
+	 */
+	public IntStream indices() {
+		return IntStream
+			.range(0, ranges.length / 2)
+			.flatMap(i -> IntStream.rangeClosed(ranges[2 * i], ranges[2 * i + 1]));
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder(MAGIC)
+			.append(' ')
+			.append(String.format("%08x", Integer.valueOf(transfer)))
+			.append(' ')
+			.append(total)
+			.append(' ');
+		if (ranges.length == 0) {
+			return result.append(NONE).toString();
+		}
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append(ranges[i]);
+			if (ranges[i + 1] > ranges[i]) {
+				result.append('-').append(ranges[i + 1]);
+			}
+		}
+		return result.toString();
+	}
+
+}
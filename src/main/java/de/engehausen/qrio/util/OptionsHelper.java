@@ -40,6 +40,33 @@ public class OptionsHelper {
 		.hasArg();
 	}
 
+	/**
+	 * Creates a builder for the given option name and description,
+	 * without a short form of the option.
+	 * @param name the option name
+	 * @param description the option description
+	 * @return the builder for further processing
+	 */
+	public static Option.Builder longOption(final String name, final String description) {
+		return Option.builder()
+		.longOpt(name)
+		.desc(description);
+	}
+
+	/**
+	 * Creates a builder for the given option name and description,
+	 * with one argument (named the same as the option), without a
+	 * short form of the option.
+	 * @param name the option name
+	 * @param description the option description
+	 * @return the builder for further processing
+	 */
+	public static Option.Builder longOptionWithArg(final String name, final String description) {
+		return longOption(name, description)
+		.argName(name)
+		.hasArg();
+	}
+
 	/**
 	 * Activates verbose mode by turning on {@code DEBUG} log level.
 	 * @param activate flag to activate verbose mode
@@ -0,0 +1,111 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Iterator which transforms the elements of a source iterator
+ * using a pool of worker threads. The results are returned in
+ * the order of the source elements. At most {@code window} elements
+ * are processed or waiting to be consumed at any time, which caps
+ * memory use if the consumer is slower than the workers.
+ * Each worker thread uses its own transformation instance, so
+ * non-thread-safe transformations can be used.
+ * The source iterator is only accessed by the consuming thread.
+ * @param <T> the type of the source elements
+ * @param <R> the type of the transformed elements
+ */
+public class OrderedParallelIterator<T, R> implements Iterator<R> {
+
+	private final Iterator<T> source;
+	private final ThreadLocal<Function<T, R>> transformation;
+	private final Deque<Future<R>> pending;
+	private final int window;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates the iterator.
+	 * @param source the source elements to transform
+	 * @param factory the factory for transformations, called once per worker thread
+	 * @param threads the number of worker threads
+	 * @param window the maximum number of elements in flight, at least {@code threads}
+	 */
+	public OrderedParallelIterator(final Iterator<T> source, final Supplier<Function<T, R>> factory, final int threads, final int window) {
+		if (threads < 1 || window < threads) {
+			throw new IllegalArgumentException(String.format("invalid threads/window: %d/%d", threads, window));
+		}
+		this.source = source;
+		this.window = window;
+		transformation = ThreadLocal.withInitial(factory);
+		pending = new ArrayDeque<>(window);
+		executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("worker"));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		fill();
+		if (pending.isEmpty()) {
+			executor.shutdown();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public R next() {
+		fill();
+		final Future<R> head = pending.poll();
+		if (head == null) {
+			executor.shutdown();
+			throw new NoSuchElementException();
+		}
+		try {
+			return head.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			shutdown();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			shutdown();
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			fill();
+		}
+	}
+
+	/**
+	 * Stops all processing. Pending elements are discarded.
+	 */
+	public void shutdown() {
+		pending.forEach(future -> future.cancel(true));
+		pending.clear();
+		executor.shutdownNow();
+	}
+
+	private void fill() {
+		while (pending.size() < window && !executor.isShutdown() && source.hasNext()) {
+			final T element = source.next();
+			pending.add(executor.submit(() -> transformation.get().apply(element)));
+		}
+	}
+
+}
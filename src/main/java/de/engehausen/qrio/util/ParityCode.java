@@ -0,0 +1,374 @@
+package de.engehausen.qrio.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reed-Solomon erasure code across frames, and the format of the frames.
+ * The data frames are grouped, and parity frames are computed for each
+ * group; any missing data frames of a group can be rebuilt as long as
+ * at most as many frames are missing as there are parity frames.
+ * The code is systematic and uses a Cauchy matrix over GF(256).
+ * <p>For the code, each data frame is a shard consisting of the length
+ * of its chunk (two bytes), the chunk and zero padding up to the size of
+ * the largest shard of its group; parity frames carry parity shards.</p>
+ * <p>A frame consists of a header (magic number, block number, group in
+ * the block, index in the group, number of data and parity frames of the
+ * group, number of groups of the block), the payload and a CRC32 of
+ * everything before; frames are thus told apart from plain chunks
+ * reliably. Data frames carry their chunk, parity frames their shard.</p>
+ */
+public class ParityCode {
+
+	/**
+	 * Maximum number of data and parity frames per group.
+	 */
+	public static final int MAX_FRAMES = 256;
+
+	/**
+	 * Number of bytes a parity frame needs in addition to the chunks
+	 * of its group; data frames need two bytes less.
+	 */
+	public static final int OVERHEAD = 20;
+
+	private static final int MAGIC = 0x51525031; // "QRP1"
+	private static final int HEADER = 14;
+	private static final int CRC = 4;
+	private static final int LENGTH = 2;
+	private static final int POLYNOMIAL = 0x11d;
+	private static final byte[] EXP = new byte[2 * 255];
+	private static final int[] LOG = new int[256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = (byte) x;
+			EXP[i + 255] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x > 0xff) {
+				x ^= POLYNOMIAL;
+			}
+		}
+	}
+
+	private final int data;
+	private final int parity;
+	private final int[][] matrix;
+
+	/**
+	 * Creates the code for groups with the given number of frames.
+	 * @param data the number of data frames of a group
+	 * @param parity the number of parity frames of a group
+	 */
+	public ParityCode(final int data, final int parity) {
+		if (data < 1 || parity < 1 || data + parity > MAX_FRAMES) {
+			throw new IllegalArgumentException(String.format("invalid number of frames %d:%d", Integer.valueOf(data), Integer.valueOf(parity)));
+		}
+		this.data = data;
+		this.parity = parity;
+		// Cauchy matrix, any square sub-matrix of it is invertible;
+		// its entries do not depend on the number of data frames, so
+		// a short group at the end of the input uses a part of it
+		matrix = new int[parity][data];
+		for (int j = 0; j < parity; j++) {
+			for (int i = 0; i < data; i++) {
+				matrix[j][i] = inverse((MAX_FRAMES - 1 - j) ^ i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of data frames of a group.
+	 * @return the number of data frames
+	 */
+	public int getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the number of parity frames of a group.
+	 * @return the number of parity frames
+	 */
+	public int getParity() {
+		return parity;
+	}
+
+	/**
+	 * Computes the parity shards for the given data shards.
+	 * @param shards the data shards of equal length; there may be less
+	 * shards than data frames of a group (at the end of the input)
+	 * @return the parity shards
+	 */
+	public byte[][] encode(final byte[][] shards) {
+		final byte[][] result = new byte[parity][shards[0].length];
+		for (int j = 0; j < parity; j++) {
+			for (int i = 0; i < shards.length; i++) {
+				multiplyAdd(result[j], shards[i], matrix[j][i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Rebuilds missing data shards.
+	 * @param shards the data shards, {@code null} if missing; missing
+	 * shards are filled in
+	 * @param parities the parity shards, {@code null} if missing
+	 * @return {@code true} if all data shards are known, {@code false}
+	 * if too many shards are missing
+	 */
+	public boolean decode(final byte[][] shards, final byte[][] parities) {
+		final int[] missing = indices(shards, false);
+		if (missing.length == 0) {
+			return true;
+		}
+		final int[] available = indices(parities, true);
+		if (available.length < missing.length) {
+			return false;
+		}
+		final int size = parities[available[0]].length;
+		final int m = missing.length;
+		// right hand side: parity minus the known data
+		final byte[][] rhs = new byte[m][];
+		final int[][] system = new int[m][m];
+		for (int r = 0; r < m; r++) {
+			final int j = available[r];
+			rhs[r] = parities[j].clone();
+			for (int i = 0; i < shards.length; i++) {
+				if (shards[i] != null) {
+					multiplyAdd(rhs[r], shards[i], matrix[j][i]);
+				}
+			}
+			for (int c = 0; c < m; c++) {
+				system[r][c] = matrix[j][missing[c]];
+			}
+		}
+		final int[][] inverse = invert(system);
+		for (int c = 0; c < m; c++) {
+			final byte[] shard = new byte[size];
+			for (int r = 0; r < m; r++) {
+				multiplyAdd(shard, rhs[r], inverse[c][r]);
+			}
+			shards[missing[c]] = shard;
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a chunk into a data shard of the given size.
+	 * @param chunk the chunk
+	 * @param size the size of the shard
+	 * @return the shard
+	 */
+	public static byte[] toShard(final byte[] chunk, final int size) {
+		final byte[] result = new byte[size];
+		result[0] = (byte) (chunk.length >> 8);
+		result[1] = (byte) chunk.length;
+		System.arraycopy(chunk, 0, result, LENGTH, chunk.length);
+		return result;
+	}
+
+	/**
+	 * Returns the size of the shard for the given chunk.
+	 * @param chunk the chunk
+	 * @return the size of its shard
+	 */
+	public static int getShardSize(final byte[] chunk) {
+		return LENGTH + chunk.length;
+	}
+
+	/**
+	 * Converts a data shard back into its chunk.
+	 * @param shard the shard
+	 * @return the chunk
+	 */
+	public static byte[] toChunk(final byte[] shard) {
+		final int length = ((shard[0] & 0xff) << 8) | (shard[1] & 0xff);
+		if (length > shard.length - LENGTH) {
+			throw new IllegalStateException("decoding error: invalid shard");
+		}
+		return Arrays.copyOfRange(shard, LENGTH, LENGTH + length);
+	}
+
+	/**
+	 * Creates a frame.
+	 * @param frame the position of the frame
+	 * @param payload the chunk of a data frame, or the shard of a parity frame
+	 * @return the frame
+	 */
+	public static byte[] toFrame(final Frame frame, final byte[] payload) {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length + CRC);
+		buffer
+			.putInt(MAGIC)
+			.putInt(frame.block)
+			.put((byte) frame.group)
+			.put((byte) frame.index)
+			.put((byte) (frame.data - 1))
+			.put((byte) (frame.parity - 1))
+			.put((byte) (frame.groups - 1))
+			.put((byte) 0) // reserved
+			.put(payload);
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Reads the position of a frame.
+	 * @param bytes the bytes to check
+	 * @return the position, {@code null} if the bytes are not a valid frame
+	 */
+	public static Frame toPosition(final byte[] bytes) {
+		if (bytes.length < HEADER + CRC) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt() != MAGIC) {
+			return null;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - CRC);
+		if ((int) crc.getValue() != buffer.getInt(bytes.length - CRC)) {
+			return null;
+		}
+		return new Frame(
+			buffer.getInt(),
+			buffer.get() & 0xff,
+			buffer.get() & 0xff,
+			(buffer.get() & 0xff) + 1,
+			(buffer.get() & 0xff) + 1,
+			(buffer.get() & 0xff) + 1
+		);
+	}
+
+	/**
+	 * Returns the payload of a frame.
+	 * @param frame the frame
+	 * @return the chunk of a data frame, or the shard of a parity frame
+	 */
+	public static byte[] getPayload(final byte[] frame) {
+		return Arrays.copyOfRange(frame, HEADER, frame.length - CRC);
+	}
+
+	/**
+	 * Position of a frame.
+	 */
+	public static class Frame {
+
+		/** the number of the block, i.e. of the interleaved groups */
+		public final int block;
+		/** the group in the block */
+		public final int group;
+		/** the index in the group; data frames come first, then parity frames */
+		public final int index;
+		/** the number of data frames of the group */
+		public final int data;
+		/** the number of parity frames of the group */
+		public final int parity;
+		/** the number of groups of the block */
+		public final int groups;
+
+		/**
+		 * Creates the position.
+		 * @param block the number of the block
+		 * @param group the group in the block
+		 * @param index the index in the group
+		 * @param data the number of data frames of the group
+		 * @param parity the number of parity frames of the group
+		 * @param groups the number of groups of the block
+		 */
+		public Frame(final int block, final int group, final int index, final int data, final int parity, final int groups) {
+			this.block = block;
+			this.group = group;
+			this.index = index;
+			this.data = data;
+			this.parity = parity;
+			this.groups = groups;
+		}
+
+		/**
+		 * Checks whether this is a data frame.
+		 * @return {@code true} for a data frame, {@code false} for a parity frame
+		 */
+		public boolean isData() {
+			return index < data;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d/%d/%d", Integer.valueOf(block), Integer.valueOf(group), Integer.valueOf(index));
+		}
+
+	}
+
+	private static int[] indices(final byte[][] shards, final boolean present) {
+		return IntStream
+			.range(0, shards.length)
+			.filter(i -> (shards[i] != null) == present)
+			.toArray();
+	}
+
+	private static void multiplyAdd(final byte[] target, final byte[] source, final int factor) {
+		if (factor == 0) {
+			return;
+		}
+		final int log = LOG[factor];
+		for (int i = Math.min(target.length, source.length); --i >= 0; ) {
+			final int value = source[i] & 0xff;
+			if (value != 0) {
+				target[i] ^= EXP[LOG[value] + log];
+			}
+		}
+	}
+
+	private static int multiply(final int a, final int b) {
+		return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]] & 0xff;
+	}
+
+	private static int inverse(final int a) {
+		return EXP[255 - LOG[a]] & 0xff;
+	}
+
+	// Gauss-Jordan inversion over GF(256)
+	private static int[][] invert(final int[][] matrix) {
+		final int n = matrix.length;
+		final int[][] work = new int[n][];
+		final int[][] result = new int[n][n];
+		for (int i = 0; i < n; i++) {
+			work[i] = matrix[i].clone();
+			result[i][i] = 1;
+		}
+		for (int c = 0; c < n; c++) {
+			int pivot = c;
+			while (work[pivot][c] == 0) {
+				pivot++;
+			}
+			final int[] tempWork = work[c];
+			work[c] = work[pivot];
+			work[pivot] = tempWork;
+			final int[] tempResult = result[c];
+			result[c] = result[pivot];
+			result[pivot] = tempResult;
+			final int factor = inverse(work[c][c]);
+			for (int k = 0; k < n; k++) {
+				work[c][k] = multiply(work[c][k], factor);
+				result[c][k] = multiply(result[c][k], factor);
+			}
+			for (int r = 0; r < n; r++) {
+				final int f = work[r][c];
+				if (r != c && f != 0) {
+					for (int k = 0; k < n; k++) {
+						work[r][k] ^= multiply(f, work[c][k]);
+						result[r][k] ^= multiply(f, result[c][k]);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,113 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator of the frames for chunks protected by a {@link ParityCode}.
+ * The chunks are read in blocks of {@code depth} groups, each group consisting
+ * of the data frames of the code followed by its parity frames (the last group
+ * of the input may have less data frames). The frames of the groups of a block
+ * are interleaved, so a burst of up to {@code depth} lost frames costs each
+ * group at most one frame.
+ */
+public class ParityEncoder implements Iterator<byte[]> {
+
+	private final Iterator<byte[]> source;
+	private final ParityCode code;
+	private final int depth;
+	private final Deque<byte[]> frames;
+	private int block;
+
+	/**
+	 * Creates the encoder.
+	 * @param source the chunks to protect; each must not exceed 65535 bytes
+	 * @param code the code of the groups
+	 * @param depth the number of groups to interleave
+	 */
+	public ParityEncoder(final Iterator<byte[]> source, final ParityCode code, final int depth) {
+		if (depth < 1 || depth > ParityCode.MAX_FRAMES) {
+			throw new IllegalArgumentException(String.format("invalid interleaving depth %d", Integer.valueOf(depth)));
+		}
+		this.source = source;
+		this.code = code;
+		this.depth = depth;
+		frames = new ArrayDeque<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		if (frames.isEmpty() && source.hasNext()) {
+			encode();
+		}
+		return !frames.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return frames.removeFirst();
+	}
+
+	private void encode() {
+		final List<List<byte[]>> groups = new ArrayList<>(depth);
+		for (int g = 0; g < depth && source.hasNext(); g++) {
+			final List<byte[]> chunks = new ArrayList<>(code.getData());
+			while (chunks.size() < code.getData() && source.hasNext()) {
+				chunks.add(source.next());
+			}
+			groups.add(chunks);
+		}
+		final List<List<byte[]>> encoded = new ArrayList<>(groups.size());
+		int length = 0;
+		for (int g = 0; g < groups.size(); g++) {
+			encoded.add(encode(g, groups.size(), groups.get(g)));
+			length = Math.max(length, encoded.get(g).size());
+		}
+		// round-robin over the groups
+		for (int i = 0; i < length; i++) {
+			for (final List<byte[]> group : encoded) {
+				if (i < group.size()) {
+					frames.addLast(group.get(i));
+				}
+			}
+		}
+		block++;
+	}
+
+	private List<byte[]> encode(final int group, final int groups, final List<byte[]> chunks) {
+		final int size = chunks
+			.stream()
+			.mapToInt(ParityCode::getShardSize)
+			.max()
+			.getAsInt();
+		final byte[][] shards = chunks
+			.stream()
+			.map(chunk -> ParityCode.toShard(chunk, size))
+			.toArray(byte[][]::new);
+		final byte[][] parities = code.encode(shards);
+		final List<byte[]> result = new ArrayList<>(chunks.size() + parities.length);
+		for (int i = 0; i < chunks.size(); i++) {
+			result.add(ParityCode.toFrame(position(group, i, chunks.size(), groups), chunks.get(i)));
+		}
+		for (int j = 0; j < parities.length; j++) {
+			result.add(ParityCode.toFrame(position(group, chunks.size() + j, chunks.size(), groups), parities[j]));
+		}
+		return result;
+	}
+
+	private ParityCode.Frame position(final int group, final int index, final int data, final int groups) {
+		return new ParityCode.Frame(block, group, index, data, code.getParity(), groups);
+	}
+
+}
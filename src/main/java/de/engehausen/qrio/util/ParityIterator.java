@@ -0,0 +1,213 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterator of the chunks of a transfer which may be protected by parity frames.
+ * If the first chunk of the source is a frame of a {@link ParityEncoder}, the
+ * data frames are returned in their original order as soon as they arrived,
+ * and missing data frames are rebuilt from the parity frames of their group
+ * once the frames of the next block arrive, or the source ends. Otherwise the
+ * chunks of the source are returned unchanged.
+ */
+public class ParityIterator implements Iterator<byte[]> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParityIterator.class);
+
+	private final Iterator<byte[]> source;
+	private final Deque<byte[]> chunks;
+	private boolean started;
+	private boolean plain;
+	private int block;
+	private Group[] groups;
+	// next data frame to return
+	private int group;
+	private int index;
+	private int rebuilt;
+
+	/**
+	 * Creates the iterator.
+	 * @param source the chunks read
+	 */
+	public ParityIterator(final Iterator<byte[]> source) {
+		this.source = source;
+		chunks = new ArrayDeque<>();
+	}
+
+	/**
+	 * Returns the number of data frames rebuilt so far.
+	 * @return the number of rebuilt data frames
+	 */
+	public int getRebuilt() {
+		return rebuilt;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean hasNext() {
+		if (!started) {
+			started = true;
+			if (!source.hasNext()) {
+				return false;
+			}
+			final byte[] first = source.next();
+			final ParityCode.Frame frame = ParityCode.toPosition(first);
+			if (frame == null) {
+				plain = true;
+				chunks.addLast(first);
+			} else {
+				add(frame, first);
+			}
+		}
+		if (plain) {
+			return !chunks.isEmpty() || source.hasNext();
+		}
+		while (chunks.isEmpty() && groups != null) {
+			if (source.hasNext()) {
+				final byte[] bytes = source.next();
+				final ParityCode.Frame frame = ParityCode.toPosition(bytes);
+				if (frame == null) {
+					LOGGER.debug("ignoring invalid frame");
+				} else {
+					add(frame, bytes);
+				}
+			} else {
+				finish();
+				groups = null;
+			}
+		}
+		return !chunks.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (plain && chunks.isEmpty()) {
+			return source.next();
+		}
+		return chunks.removeFirst();
+	}
+
+	private void add(final ParityCode.Frame frame, final byte[] bytes) {
+		if (groups == null) {
+			if (frame.block != 0) {
+				throw new IllegalStateException(String.format("decoding error: block 0 lost, first frame is %s", frame));
+			}
+			groups = new Group[frame.groups];
+		} else if (frame.block != block) {
+			if (frame.block - block < 0) {
+				LOGGER.debug("ignoring late frame {}", frame);
+				return;
+			}
+			if (frame.block - block > 1) {
+				throw new IllegalStateException(String.format("decoding error: block %d lost", Integer.valueOf(block + 1)));
+			}
+			finish();
+			block = frame.block;
+			groups = new Group[frame.groups];
+			group = 0;
+			index = 0;
+		}
+		if (frame.group >= groups.length) {
+			throw new IllegalStateException(String.format("decoding error: invalid frame %s", frame));
+		}
+		if (groups[frame.group] == null) {
+			groups[frame.group] = new Group(frame.data, frame.parity);
+		}
+		groups[frame.group].add(frame, ParityCode.getPayload(bytes));
+		emit();
+	}
+
+	// returns the data frames of the current block available in order
+	private void emit() {
+		while (group < groups.length && groups[group] != null) {
+			final byte[][] data = groups[group].data;
+			while (index < data.length && data[index] != null) {
+				chunks.addLast(data[index++]);
+			}
+			if (index < data.length) {
+				return;
+			}
+			group++;
+			index = 0;
+		}
+	}
+
+	// rebuilds the missing data frames of the current block and returns them
+	private void finish() {
+		for (int g = group; g < groups.length; g++) {
+			if (groups[g] == null) {
+				throw new IllegalStateException(String.format("decoding error: group %d of block %d lost", Integer.valueOf(g), Integer.valueOf(block)));
+			}
+			rebuilt += groups[g].rebuild(block, g);
+		}
+		emit();
+	}
+
+	private static class Group {
+
+		protected final byte[][] data;
+		protected final byte[][] parities;
+
+		protected Group(final int data, final int parity) {
+			this.data = new byte[data][];
+			this.parities = new byte[parity][];
+		}
+
+		protected void add(final ParityCode.Frame frame, final byte[] payload) {
+			if (frame.data != data.length || frame.parity != parities.length || frame.index >= data.length + parities.length) {
+				throw new IllegalStateException(String.format("decoding error: invalid frame %s", frame));
+			}
+			if (frame.isData()) {
+				data[frame.index] = payload;
+			} else {
+				parities[frame.index - data.length] = payload;
+			}
+		}
+
+		protected int rebuild(final int block, final int group) {
+			final byte[][] shards = new byte[data.length][];
+			int size = 0;
+			for (final byte[] parity : parities) {
+				if (parity != null) {
+					size = parity.length;
+				}
+			}
+			int missing = 0;
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] == null) {
+					missing++;
+				} else {
+					shards[i] = ParityCode.toShard(data[i], Math.max(size, ParityCode.getShardSize(data[i])));
+				}
+			}
+			if (missing == 0) {
+				return 0;
+			}
+			if (!new ParityCode(data.length, parities.length).decode(shards, parities)) {
+				throw new IllegalStateException(String.format("decoding error: %d of %d data frames of group %d of block %d lost",
+					Integer.valueOf(missing), Integer.valueOf(data.length), Integer.valueOf(group), Integer.valueOf(block)));
+			}
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] == null) {
+					data[i] = ParityCode.toChunk(shards[i]);
+				}
+			}
+			LOGGER.debug("rebuilt {} data frames of group {} of block {}", Integer.valueOf(missing), Integer.valueOf(group), Integer.valueOf(block));
+			return missing;
+		}
+
+	}
+
+}
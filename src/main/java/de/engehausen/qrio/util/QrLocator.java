@@ -0,0 +1,186 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.detector.Detector;
+
+/**
+ * Screenshot supplier which locates the QR code on the screen by itself.
+ * A downscaled screenshot of the whole screen area is searched for the
+ * finder patterns of a QR code; afterwards only a region tightly around the
+ * code is captured. If decoding the captured region fails a given number of
+ * times in a row, the code is located again. As long as no code is found,
+ * the whole screen area is captured.
+ */
+public class QrLocator implements Supplier<BufferedImage> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QrLocator.class);
+
+	// modules around the finder pattern centers to capture: 3.5 modules to the
+	// edge of the code, the rest is tolerance for slightly moving codes
+	private static final double MARGIN_MODULES = 8;
+	private static final Map<DecodeHintType, ?> HINTS = Map.of(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+
+	private final Rectangle screen;
+	private final double scale;
+	private final int maxMisses;
+	private final Function<Rectangle, BufferedImage> shooter;
+	private final AtomicInteger misses;
+	private volatile Rectangle region;
+
+	/**
+	 * Creates the locator.
+	 * @param screen the screen area to search for QR codes
+	 * @param scale the scale of the screenshot to search, e.g. {@code 0.5}
+	 * @param maxMisses the number of failed decodings in a row after which
+	 * the code is located again
+	 */
+	public QrLocator(final Rectangle screen, final double scale, final int maxMisses) {
+		this(screen, scale, maxMisses, area -> Screenshot.capture(true, area));
+	}
+
+	protected QrLocator(final Rectangle screen, final double scale, final int maxMisses, final Function<Rectangle, BufferedImage> shooter) {
+		if (scale <= 0 || scale > 1) {
+			throw new IllegalArgumentException(String.format("invalid scale %f", Double.valueOf(scale)));
+		}
+		this.screen = new Rectangle(screen);
+		this.scale = scale;
+		this.maxMisses = maxMisses;
+		this.shooter = shooter;
+		misses = new AtomicInteger();
+	}
+
+	/**
+	 * Takes a screenshot of the QR code region, locating the code if required.
+	 * @return the screenshot
+	 */
+	public BufferedImage get() {
+		final Rectangle current = region;
+		if (current != null) {
+			return shooter.apply(current);
+		}
+		final BufferedImage full = shooter.apply(screen);
+		final Rectangle located = locate(full, scale);
+		if (located == null) {
+			LOGGER.debug("no QR code found");
+			return full;
+		}
+		// the screenshot may have native resolution, which can differ from the screen area
+		final double sx = screen.getWidth() / full.getWidth();
+		final double sy = screen.getHeight() / full.getHeight();
+		final Rectangle found = new Rectangle(
+			screen.x + (int) Math.floor(located.x * sx),
+			screen.y + (int) Math.floor(located.y * sy),
+			(int) Math.ceil(located.width * sx),
+			(int) Math.ceil(located.height * sy)
+		).intersection(screen);
+		LOGGER.debug("QR code located at {}", found);
+		misses.set(0);
+		region = found;
+		return shooter.apply(found);
+	}
+
+	/**
+	 * Returns the region the QR code was located in.
+	 * @return the region, {@code null} if no code was located
+	 */
+	public Rectangle getRegion() {
+		return region;
+	}
+
+	/**
+	 * Wraps the given reader, tracking whether decoding succeeds.
+	 * @param reader the reader to wrap
+	 * @return the wrapping reader
+	 */
+	public QrCodeReader track(final QrCodeReader reader) {
+		return img -> {
+			try {
+				final byte[] result = reader.read(img);
+				misses.set(0);
+				return result;
+			} catch (NotFoundException e) {
+				if (misses.incrementAndGet() >= maxMisses && region != null) {
+					LOGGER.debug("QR code lost, locating again");
+					region = null;
+				}
+				throw e;
+			}
+		};
+	}
+
+	/**
+	 * Locates a QR code in the given image.
+	 * @param image the image to search
+	 * @param scale the scale to search the image in
+	 * @return the region of the code including a margin in image
+	 * coordinates, or {@code null} if no code is found
+	 */
+	public static Rectangle locate(final BufferedImage image, final double scale) {
+		final BufferedImage scaled = scale(image, scale);
+		try {
+			final DetectorResult result = new Detector(
+				new HybridBinarizer(new BufferedImageLuminanceSource(scaled)).getBlackMatrix()
+			).detect(HINTS);
+			final ResultPoint[] points = result.getPoints();
+			// bottom left, top left, top right finder patterns
+			final ResultPoint bottomLeft = points[0];
+			final ResultPoint topLeft = points[1];
+			final ResultPoint topRight = points[2];
+			final double module = ResultPoint.distance(topLeft, topRight) / (result.getBits().getWidth() - 7);
+			final double margin = MARGIN_MODULES * module;
+			final float bottomRightX = topRight.getX() + bottomLeft.getX() - topLeft.getX();
+			final float bottomRightY = topRight.getY() + bottomLeft.getY() - topLeft.getY();
+			final double minX = Math.min(Math.min(bottomLeft.getX(), topLeft.getX()), Math.min(topRight.getX(), bottomRightX)) - margin;
+			final double minY = Math.min(Math.min(bottomLeft.getY(), topLeft.getY()), Math.min(topRight.getY(), bottomRightY)) - margin;
+			final double maxX = Math.max(Math.max(bottomLeft.getX(), topLeft.getX()), Math.max(topRight.getX(), bottomRightX)) + margin;
+			final double maxY = Math.max(Math.max(bottomLeft.getY(), topLeft.getY()), Math.max(topRight.getY(), bottomRightY)) + margin;
+			final int x = (int) Math.floor(minX / scale);
+			final int y = (int) Math.floor(minY / scale);
+			return new Rectangle(
+				x,
+				y,
+				(int) Math.ceil(maxX / scale) - x,
+				(int) Math.ceil(maxY / scale) - y
+			).intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		} catch (NotFoundException|FormatException e) {
+			return null;
+		}
+	}
+
+	private static BufferedImage scale(final BufferedImage image, final double scale) {
+		if (scale == 1) {
+			return image;
+		}
+		final BufferedImage result = new BufferedImage(
+			Math.max(1, (int) (scale * image.getWidth())),
+			Math.max(1, (int) (scale * image.getHeight())),
+			BufferedImage.TYPE_BYTE_GRAY);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(image, 0, 0, result.getWidth(), result.getHeight(), null);
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,97 @@
+package de.engehausen.qrio.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import com.google.zxing.ChecksumException;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.DecoderResult;
+import com.google.zxing.qrcode.decoder.Decoder;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * A QR code as produced by the zxing encoder. The code can be
+ * rendered to a bit matrix of a given size, and its modules can be
+ * decoded directly, i.e. without rasterizing, binarizing and detecting
+ * the code in an image.
+ */
+public class QrMatrix {
+
+	private final QRCode code;
+
+	/**
+	 * Encodes the given text.
+	 * @param text the text to encode
+	 * @param hints the encoding hints; the {@link EncodeHintType#ERROR_CORRECTION}
+	 * must be an {@link ErrorCorrectionLevel}, defaults to {@code L} if not specified
+	 * @throws WriterException in case of error
+	 */
+	public QrMatrix(final String text, final Map<EncodeHintType, ?> hints) throws WriterException {
+		final Object level = hints.get(EncodeHintType.ERROR_CORRECTION);
+		code = Encoder.encode(
+			text,
+			level instanceof ErrorCorrectionLevel ? (ErrorCorrectionLevel) level : ErrorCorrectionLevel.L,
+			hints
+		);
+	}
+
+	/**
+	 * Renders the code the same way the zxing {@code QRCodeWriter} does:
+	 * the modules are scaled by the largest integer factor fitting the
+	 * requested size, and the code is centered.
+	 * @param width the requested width
+	 * @param height the requested height
+	 * @param quietZone the quiet zone in modules
+	 * @return the rendered matrix, at least as large as the code
+	 */
+	public BitMatrix render(final int width, final int height, final int quietZone) {
+		final ByteMatrix input = code.getMatrix();
+		final int inputWidth = input.getWidth();
+		final int inputHeight = input.getHeight();
+		final int outputWidth = Math.max(width, inputWidth + 2 * quietZone);
+		final int outputHeight = Math.max(height, inputHeight + 2 * quietZone);
+		final int multiple = Math.min(outputWidth / (inputWidth + 2 * quietZone), outputHeight / (inputHeight + 2 * quietZone));
+		final int left = (outputWidth - inputWidth * multiple) / 2;
+		final int top = (outputHeight - inputHeight * multiple) / 2;
+		final BitMatrix result = new BitMatrix(outputWidth, outputHeight);
+		for (int y = 0; y < inputHeight; y++) {
+			for (int x = 0; x < inputWidth; x++) {
+				if (input.get(x, y) == 1) {
+					result.setRegion(left + x * multiple, top + y * multiple, multiple, multiple);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the modules of the code.
+	 * @return the decoded text
+	 * @throws ChecksumException in case of error
+	 * @throws FormatException in case of error
+	 */
+	public String decode() throws ChecksumException, FormatException {
+		return new Decoder().decode(render(0, 0, 0)).getText();
+	}
+
+	/**
+	 * Decodes the modules of the code into bytes.
+	 * @param converter the converter of the text and the raw byte segments
+	 * (may be {@code null}) of the code into its bytes
+	 * @return the decoded bytes
+	 * @throws ChecksumException in case of error
+	 * @throws FormatException in case of error
+	 */
+	public byte[] decode(final BiFunction<String, List<byte[]>, byte[]> converter) throws ChecksumException, FormatException {
+		final DecoderResult result = new Decoder().decode(render(0, 0, 0));
+		return converter.apply(result.getText(), result.getByteSegments());
+	}
+
+}
@@ -0,0 +1,228 @@
+package de.engehausen.qrio.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the frames of a transfer to a file. If the first frame has a
+ * {@link FrameHeader} with the totals of the transfer, the frames are
+ * accepted in any order: each chunk is written at its offset in the file
+ * and recorded in a {@link ChunkBitmap}, until all chunks are received.
+ * Frames seen before and frames of other transfers are ignored. The chunks
+ * are written to a {@code .part} file next to the output first, which is
+ * moved to the output (or decompressed, see {@link BlockInflater}) once
+ * complete. The chunks received are persisted in a {@link TransferState}
+ * next to the output, so an interrupted transfer is resumed by reading
+ * the missing chunks (see {@link MissingChunks}) later. Otherwise the frames are taken as chunks in order (see
+ * {@link FrameValidator#FrameValidator(boolean)}) and written to the
+ * output directly.
+ * <p>Frames may be accepted from several threads.</p>
+ */
+public class Reassembler implements Consumer<byte[]>, Closeable {
+
+	/**
+	 * Suffix of the file the chunks are written to.
+	 */
+	public static final String PART_SUFFIX = ".part";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Reassembler.class);
+
+	private final File output;
+	private final File part;
+	private final File state;
+	// positional mode
+	private FrameHeader transfer;
+	private FileChannel channel;
+	private TransferState receiveState;
+	private ChunkBitmap bitmap;
+	private int chunkSize;
+	// sequential mode
+	private OutputStream stream;
+
+	/**
+	 * Creates the reassembler.
+	 * @param output the file to write
+	 */
+	public Reassembler(final File output) {
+		this.output = output;
+		part = new File(output.getPath() + PART_SUFFIX);
+		state = new File(output.getPath() + TransferState.SUFFIX);
+		chunkSize = -1;
+	}
+
+	/**
+	 * Returns the chunks missing of an interrupted transfer to the given file.
+	 * @param output the file written
+	 * @return the chunks missing, {@code null} if there is no interrupted transfer
+	 * @throws IOException in case of error
+	 */
+	public static MissingChunks getMissing(final File output) throws IOException {
+		final TransferState receiveState = TransferState.read(new File(output.getPath() + TransferState.SUFFIX));
+		return receiveState == null ? null : MissingChunks.of(receiveState.getTransfer(), receiveState.getBitmap());
+	}
+
+	/**
+	 * Accepts the next frame.
+	 * @param frame the frame with header, or the next chunk
+	 */
+	public synchronized void accept(final byte[] frame) {
+		if (frame.length == 0) {
+			return;
+		}
+		try {
+			if (channel == null && stream == null) {
+				start(frame);
+			}
+			if (channel != null) {
+				place(frame);
+			} else {
+				stream.write(frame);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Checks whether all chunks were received. This is only known
+	 * for frames with headers, which are accepted in any order.
+	 * @return {@code true} if all chunks were received
+	 */
+	public synchronized boolean isComplete() {
+		return bitmap != null && bitmap.isComplete();
+	}
+
+	/**
+	 * Returns the bitmap of the chunks received.
+	 * @return the bitmap, {@code null} unless frames with headers are accepted in any order
+	 */
+	public synchronized ChunkBitmap getBitmap() {
+		return bitmap;
+	}
+
+	/**
+	 * Closes the reassembler. Frames accepted in any order must be complete,
+	 * the output is written then. Otherwise the chunks received are kept
+	 * to resume the transfer.
+	 * @throws IOException in case of error
+	 * @throws IllegalStateException if chunks are missing
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (stream != null) {
+			stream.close();
+		} else if (channel != null) {
+			channel.close();
+			try {
+				if (!bitmap.isComplete()) {
+					receiveState.force();
+					throw new IllegalStateException(String.format("decoding error: input ended with %d of %d frames missing; read the missing frames to resume",
+						Integer.valueOf(bitmap.getSize() - bitmap.getCount()), Integer.valueOf(bitmap.getSize())));
+				}
+			} finally {
+				receiveState.close();
+			}
+			finish();
+			Files.deleteIfExists(state.toPath());
+		} else {
+			// no frames at all
+			new FileOutputStream(output).close();
+		}
+	}
+
+	private void start(final byte[] frame) throws IOException {
+		final FrameHeader header = FrameHeader.of(frame);
+		if (header == null || header.getTotal() < 0 || header.getLength() < 0) {
+			stream = new BlockInflater(new FileOutputStream(output));
+			return;
+		}
+		transfer = header;
+		if (!part.isFile()) {
+			// the chunks received before are lost
+			Files.deleteIfExists(state.toPath());
+		}
+		receiveState = TransferState.open(state, header);
+		bitmap = receiveState.getBitmap();
+		chunkSize = receiveState.getChunkSize();
+		if (receiveState.isResumed()) {
+			channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+			LOGGER.debug("resuming transfer {} with {} of {} chunks received", transfer, Integer.valueOf(bitmap.getCount()), Integer.valueOf(bitmap.getSize()));
+		} else {
+			channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+			LOGGER.debug("reassembling transfer {} of {} bytes", transfer, Long.valueOf(transfer.getLength()));
+		}
+	}
+
+	private void place(final byte[] frame) throws IOException {
+		final FrameHeader header = FrameHeader.of(frame);
+		if (header == null) {
+			LOGGER.debug("ignoring invalid frame");
+			return;
+		}
+		if (header.getTransfer() != transfer.getTransfer()) {
+			LOGGER.debug("ignoring frame {} of another transfer", header);
+			return;
+		}
+		final int index = header.getSequence();
+		if (index < 0 || index >= bitmap.getSize() || bitmap.get(index)) {
+			return;
+		}
+		final byte[] payload = FrameHeader.getPayload(frame);
+		final long offset;
+		if (index == bitmap.getSize() - 1) {
+			// the last chunk ends the file
+			offset = transfer.getLength() - payload.length;
+		} else {
+			// all other chunks have the same size
+			if (chunkSize < 0) {
+				chunkSize = payload.length;
+				receiveState.setChunkSize(chunkSize);
+			} else if (payload.length != chunkSize) {
+				throw new IllegalStateException(String.format("decoding error: frame %s has %d instead of %d bytes", header, Integer.valueOf(payload.length), Integer.valueOf(chunkSize)));
+			}
+			offset = (long) index * chunkSize;
+		}
+		if (offset < 0 || offset + payload.length > transfer.getLength()) {
+			throw new IllegalStateException(String.format("decoding error: frame %s exceeds the transfer", header));
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(payload);
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		receiveState.setReceived(index);
+	}
+
+	// moves the complete part file to the output, decompressing it if needed
+	private void finish() throws IOException {
+		final byte[] signature = new byte[BlockDeflater.SIGNATURE.length];
+		final int length;
+		try (final InputStream in = new FileInputStream(part)) {
+			length = in.readNBytes(signature, 0, signature.length);
+		}
+		if (BlockDeflater.isCompressed(signature, length)) {
+			try (final InputStream in = new FileInputStream(part); final OutputStream out = new BlockInflater(new FileOutputStream(output))) {
+				in.transferTo(out);
+			}
+			Files.delete(part.toPath());
+		} else {
+			Files.move(part.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		LOGGER.debug("reassembled transfer {}", transfer);
+	}
+
+}
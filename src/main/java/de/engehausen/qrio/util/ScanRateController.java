@@ -0,0 +1,92 @@
+package de.engehausen.qrio.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the interval of screenshots taken to grab a sequence of QR codes.
+ * Two measurements are smoothed: how long decoding a screenshot takes, and
+ * how often the display shows a new QR code. Screenshots are taken twice per
+ * displayed QR code, so none is missed, but never faster than the decoders
+ * can keep up with. As long as the display was not seen changing, screenshots
+ * are taken as fast as the decoders allow.
+ * The instance is thread-safe.
+ */
+public class ScanRateController {
+
+	/**
+	 * The shortest interval, in milliseconds.
+	 */
+	public static final long MIN_INTERVAL = 5;
+
+	/**
+	 * The longest interval, in milliseconds.
+	 */
+	public static final long MAX_INTERVAL = 500;
+
+	// screenshots per displayed QR code
+	private static final int SAMPLES_PER_CHANGE = 2;
+	// weight of a new measurement
+	private static final double WEIGHT = 0.2;
+
+	private final int decoders;
+	private double latency;
+	private double change;
+	private long lastChange;
+
+	/**
+	 * Creates the controller.
+	 * @param decoders the number of screenshots decoded in parallel
+	 */
+	public ScanRateController(final int decoders) {
+		if (decoders < 1) {
+			throw new IllegalArgumentException(String.format("invalid number of decoders %d", Integer.valueOf(decoders)));
+		}
+		this.decoders = decoders;
+		lastChange = -1;
+	}
+
+	/**
+	 * Records the time taken to decode a screenshot.
+	 * @param nanos the time taken, in nanoseconds
+	 */
+	public synchronized void decoded(final long nanos) {
+		latency = smooth(latency, nanos);
+	}
+
+	/**
+	 * Records that the display showed a new QR code.
+	 * @param time the time of the screenshot showing it, in nanoseconds
+	 * as of {@link System#nanoTime()}
+	 */
+	public synchronized void changed(final long time) {
+		if (lastChange >= 0 && time > lastChange) {
+			change = smooth(change, time - lastChange);
+		}
+		lastChange = time;
+	}
+
+	/**
+	 * Returns the interval between the starts of two screenshots.
+	 * @return the interval, in nanoseconds
+	 */
+	public synchronized long getInterval() {
+		// faster than this, screenshots pile up in front of the decoders
+		final double throughput = latency / decoders;
+		final double target = change > 0 ? change / SAMPLES_PER_CHANGE : 0;
+		final double interval = Math.max(throughput, Math.min(target, TimeUnit.MILLISECONDS.toNanos(MAX_INTERVAL)));
+		return Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL), Math.round(interval));
+	}
+
+	private static double smooth(final double current, final long measured) {
+		return current == 0 ? measured : (1 - WEIGHT) * current + WEIGHT * measured;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("interval %d ms (decoding %.1f ms, display change %.1f ms)",
+			Long.valueOf(TimeUnit.NANOSECONDS.toMillis(getInterval())),
+			Double.valueOf(latency / 1e6),
+			Double.valueOf(change / 1e6));
+	}
+
+}
@@ -2,142 +2,322 @@ package de.engehausen.qrio.util;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.NoSuchElementException;
-import java.util.Queue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.zxing.NotFoundException;
+
+import de.engehausen.qrio.Reader;
+
 /**
  * Iterator of decoded bytes of QR codes.
- * This takes screenshots with a given interval, decodes
- * the QR code image and exposes the decoded bytes.
- * Uses an additional thread.
+ * This takes screenshots, decodes the QR code images
+ * and exposes the decoded bytes. Screenshots are taken on one
+ * thread and handed to a pool of decoding threads through a small
+ * bounded queue, so slow decoding holds back the screenshots instead
+ * of piling them up. The interval of the screenshots adapts to how
+ * often the display changes and how fast decoding is, see
+ * {@link ScanRateController}.
+ * The decoded bytes wait in a bounded buffer; if they are not consumed,
+ * decoding and thus taking screenshots waits, too. When taking screenshots
+ * ends, all bytes decoded until then are still returned.
  */
 public class ScreenIterator implements Iterator<byte[]> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ScreenIterator.class);
-	private static final long WAIT = 1000;
+	private static final Capture END = new Capture(null, 0, null);
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	// the number of decoded byte arrays waiting to be consumed
+	protected static final int BUFFER = 64;
 
-	protected ScheduledFuture<?> timer;
+	protected volatile boolean running;
 
 	private final int timeout;
-	private final Queue<byte[]> next;
-	private LocalDateTime lastUpdate;
-	private boolean isStopped;
+	private final BlockingQueue<byte[]> results;
+	private final BlockingQueue<Capture> captures;
+	private final ScanRateController controller;
+	private volatile long lastUpdate;
+	private volatile boolean isStopped;
+	private volatile RuntimeException failure;
+	private byte[] head;
 
 	/**
-	 * Creates the iterator, taking screenshots of the given area
-	 * with the given interval, and ending if no new bytes could be read
-	 * after the given timeout.
-	 * @param interval the interval with which to take screenshots, in milliseconds
+	 * Creates the iterator, taking screenshots of the given area,
+	 * and ending if no new bytes could be read after the given timeout.
 	 * @param timeout the number of seconds to wait until no new bytes could be read
 	 * @param area the area to take a screenshot of
 	 */
-	public ScreenIterator(final int interval, final int timeout, final Rectangle area) {
-		this(interval, timeout, () -> Screenshot.capture(true, area), new StatefulQrReader(0));
+	public ScreenIterator(final int timeout, final Rectangle area) {
+		this(timeout, area, img -> true);
 	}
 
-	protected ScreenIterator(final int interval, final int timeout, final Supplier<BufferedImage> shooter, final Function<BufferedImage, byte[]> parser) {
-		this.timeout = timeout;
+	/**
+	 * Creates the iterator, taking screenshots of the given area,
+	 * and ending if no new bytes could be read after the given timeout.
+	 * Only screenshots accepted by the given triage are decoded.
+	 * @param timeout the number of seconds to wait until no new bytes could be read
+	 * @param area the area to take a screenshot of
+	 * @param triage the triage for screenshots, see {@link FrameTriage#images()}
+	 */
+	public ScreenIterator(final int timeout, final Rectangle area, final Predicate<BufferedImage> triage) {
+		this(timeout, () -> Screenshot.capture(true, area), decoders(img -> Reader.readQR(img)), threads(), new StatefulQrReader(0)::filter, triage);
+	}
 
-		lastUpdate = LocalDateTime.now();
-		next = new LinkedList<>();
-		final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
-		timer = executorService.scheduleAtFixedRate(
-			() -> {
-				if (isStopped || !decode(shooter.get(), parser)) {
-					timer.cancel(false);
-					timer = null;
-					executorService.shutdown();
-				}
-			},
-			5,
-			interval,
-			TimeUnit.MILLISECONDS
-		);
+	/**
+	 * Creates the iterator, taking screenshots of the QR code located by
+	 * the given locator, and ending if no new bytes could be read after
+	 * the given timeout. Only screenshots accepted by the given triage
+	 * are decoded.
+	 * @param timeout the number of seconds to wait until no new bytes could be read
+	 * @param locator the locator of the QR code on the screen
+	 * @param triage the triage for screenshots, see {@link FrameTriage#images()}
+	 */
+	public ScreenIterator(final int timeout, final QrLocator locator, final Predicate<BufferedImage> triage) {
+		this(timeout, locator, decoders(locator.track(img -> Reader.readQR(img))), threads(), new StatefulQrReader(0)::filter, triage);
+	}
+
+	// the parser is stateful, so it decodes one screenshot after the other
+	protected ScreenIterator(final int timeout, final Supplier<BufferedImage> shooter, final Function<BufferedImage, byte[]> parser) {
+		this(timeout, shooter, () -> parser, 1, UnaryOperator.identity(), img -> true);
+	}
+
+	/**
+	 * Creates the iterator.
+	 * @param timeout the number of seconds to wait until no new bytes could be read
+	 * @param shooter the supplier of screenshots
+	 * @param factory the factory of decoders, called once per decoding thread; a decoder
+	 * returns {@code null} or no bytes if the screenshot shows no QR code
+	 * @param threads the number of decoding threads
+	 * @param filter the filter of the decoded bytes, in the order of the screenshots
+	 * @param triage the triage for screenshots
+	 */
+	protected ScreenIterator(final int timeout, final Supplier<BufferedImage> shooter, final Supplier<Function<BufferedImage, byte[]>> factory, final int threads, final UnaryOperator<byte[]> filter, final Predicate<BufferedImage> triage) {
+		this.timeout = timeout;
+		lastUpdate = System.nanoTime();
+		results = new ArrayBlockingQueue<>(BUFFER + 1);
+		captures = new ArrayBlockingQueue<>(threads + 1);
+		controller = new ScanRateController(threads);
+		running = true;
+		final DaemonThreadFactory grab = new DaemonThreadFactory("grab");
+		grab.newThread(() -> capture(shooter, triage)).start();
+		grab.newThread(() -> collect(factory, threads, filter)).start();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public boolean hasNext() {
-		if (timer != null) {
-			synchronized(this) {
-				while (timer != null && next.isEmpty()) {
-					try {
-						wait(WAIT);
-					} catch (InterruptedException e) {
-						// ignore interruptions
-					}
-				}
-				return !next.isEmpty();
+		if (head == null) {
+			try {
+				head = results.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
 			}
 		}
-		return false;
+		if (head == END_OF_STREAM) {
+			if (failure != null) {
+				throw failure;
+			}
+			return false;
+		}
+		return true;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public byte[] next() {
-		synchronized(this) {
-			if (next.isEmpty()) {
-				throw new NoSuchElementException();
-			}
-			return next.poll();
+		if (!hasNext()) {
+			throw new NoSuchElementException();
 		}
+		final byte[] result = head;
+		head = null;
+		return result;
 	}
 
 	/**
-	 * Stops taking screenshots.
+	 * Stops taking screenshots. The screenshots taken so far are still decoded.
 	 */
 	public void stop() {
 		isStopped = true;
 	}
 
-	/**
-	 * Updates the iterator's next image, if required.
-	 * @param image the new image
-	 * @param reader the QR reader
-	 * @return {@code false} if the timer should stop, {@code true} otherwise.
-	 */
-	protected boolean decode(final BufferedImage image, final Function<BufferedImage, byte[]> reader) {
-		final byte[] bytes = reader.apply(image);
-		if (bytes.length > 0) {
-			addNext(bytes);
-		} else {
-			// check timeout
-			final long val = ChronoUnit.SECONDS.between(lastUpdate, LocalDateTime.now());
-			if (timeout > 0 && val >= timeout) {
-				LOGGER.debug("timeout/end");
-				addNext(null);
-				stop();
-				return false;
+	// takes the screenshots, until stopped or timed out
+	private void capture(final Supplier<BufferedImage> shooter, final Predicate<BufferedImage> triage) {
+		try {
+			while (!isStopped) {
+				if (timeout > 0 && System.nanoTime() - lastUpdate >= TimeUnit.SECONDS.toNanos(timeout)) {
+					LOGGER.debug("timeout/end");
+					break;
+				}
+				final long start = System.nanoTime();
+				final BufferedImage image = shooter.get();
+				if (triage.test(image)) {
+					// blocks while the decoders are busy
+					captures.put(new Capture(image, start, null));
+				}
+				LockSupport.parkNanos(start + controller.getInterval() - System.nanoTime());
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			failed(e);
+		} finally {
+			LOGGER.debug("stopped taking screenshots, {}", controller);
+			// the decoders drain the queue, so the end marker gets in eventually
+			end(captures, END);
+		}
+	}
+
+	// decodes the screenshots in parallel and collects the bytes in order
+	private void collect(final Supplier<Function<BufferedImage, byte[]>> factory, final int threads, final UnaryOperator<byte[]> filter) {
+		final Iterator<Capture> source = new Captures();
+		final OrderedParallelIterator<Capture, Capture> decoded = new OrderedParallelIterator<>(
+			source,
+			() -> {
+				final Function<BufferedImage, byte[]> decoder = factory.get();
+				return capture -> {
+					final long start = System.nanoTime();
+					final byte[] bytes = decoder.apply(capture.image);
+					controller.decoded(System.nanoTime() - start);
+					return new Capture(null, capture.time, bytes);
+				};
+			},
+			threads,
+			2 * threads);
+		try {
+			byte[] previous = null;
+			while (decoded.hasNext()) {
+				final Capture capture = decoded.next();
+				if (capture.bytes != null && capture.bytes.length > 0 && !Arrays.equals(capture.bytes, previous)) {
+					controller.changed(capture.time);
+					previous = capture.bytes;
+				}
+				final byte[] bytes = filter.apply(capture.bytes);
+				if (bytes != null && bytes.length > 0) {
+					addNext(bytes);
+				}
+			}
+		} catch (RuntimeException e) {
+			failed(e);
+			stop();
+			decoded.shutdown();
+			// let the screenshots end
+			while (source.hasNext()) {
+				source.next();
+			}
+		} finally {
+			running = false;
+			// after all bytes decoded before
+			end(results, END_OF_STREAM);
 		}
-		return true;
 	}
 
+	// blocks while the buffer is full
 	protected void addNext(final byte[] bytes) {
-		synchronized (this) {
-			if (bytes != null) {
-				next.add(bytes);
-				lastUpdate = LocalDateTime.now();
-			} else {
-				next.clear();
+		lastUpdate = System.nanoTime();
+		try {
+			results.put(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private synchronized void failed(final RuntimeException e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	// the end marker must not be lost; the consumer makes room for it
+	private static <T> void end(final BlockingQueue<T> queue, final T marker) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(marker);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
 			}
-			notifyAll();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
 		}
 	}
+
+	private static Supplier<Function<BufferedImage, byte[]>> decoders(final QrCodeReader reader) {
+		return () -> img -> {
+			try {
+				return reader.read(img);
+			} catch (NotFoundException e) {
+				return null;
+			}
+		};
+	}
+
+	// one thread takes the screenshots
+	private static int threads() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	// a screenshot, or the bytes decoded from it
+	private static class Capture {
+
+		protected final BufferedImage image;
+		protected final long time;
+		protected final byte[] bytes;
+
+		public Capture(final BufferedImage image, final long time, final byte[] bytes) {
+			this.image = image;
+			this.time = time;
+			this.bytes = bytes;
+		}
+
+	}
+
+	// the screenshots taken, until the end marker
+	private class Captures implements Iterator<Capture> {
+
+		private Capture head;
+
+		@Override
+		public boolean hasNext() {
+			if (head == null) {
+				try {
+					head = captures.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+			}
+			return head != END;
+		}
+
+		@Override
+		public Capture next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final Capture result = head;
+			head = null;
+			return result;
+		}
+
+	}
+
 }
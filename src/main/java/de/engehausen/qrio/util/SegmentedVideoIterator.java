@@ -0,0 +1,225 @@
+package de.engehausen.qrio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import org.jcodec.api.FrameGrab;
+import org.jcodec.api.JCodecException;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterator for frames of an {@code .mp4} video which decodes the
+ * video in parallel. The key frames of the video split it into segments
+ * (groups of pictures); neighbouring short segments are merged, and each
+ * segment is decoded by its own grabber on its own thread. The frames of the segments are stitched together in decoding
+ * order and then reordered by timestamp just like the frames of a single
+ * grabber, so the iterator returns the same frames as {@link VideoIterator}.
+ * At most {@code threads} segments are decoded or waiting to be consumed at
+ * any time; each keeps as many decoded frames as a memory budget allows, so
+ * the segments after the one consumed can be decoded completely.
+ * @param <T> the type of the converted frames
+ */
+public class SegmentedVideoIterator<T> extends VideoIterator<T> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedVideoIterator.class);
+
+	// the minimum of decoded frames kept per segment until consumed; short groups
+	// of pictures are merged up to this size, so such a segment is decoded without waiting
+	private static final int QUEUE_SIZE = 8;
+	// bytes per pixel of a decoded frame, as an RGB image
+	private static final int BYTES_PER_PIXEL = 3;
+	private static final Map.Entry<Double, Object> END = Map.entry(Double.valueOf(-1), new Object());
+
+	private final Deque<Segment> segments;
+	private final Deque<Segment> waiting;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates the iterator for the given {@code .mp4} file.
+	 * @param file the video file to read
+	 * @param converter the converter for the decoded pictures
+	 * @param threads the number of segments to decode in parallel
+	 * @throws IOException in case of error
+	 * @throws JCodecException in case of error
+	 */
+	public SegmentedVideoIterator(final File file, final Function<Picture, T> converter, final int threads) throws IOException, JCodecException {
+		this(file, converter, threads, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Creates the iterator for the given {@code .mp4} file.
+	 * @param file the video file to read
+	 * @param converter the converter for the decoded pictures
+	 * @param threads the number of segments to decode in parallel
+	 * @param budget the bytes of decoded frames to keep for all segments
+	 * @throws IOException in case of error
+	 * @throws JCodecException in case of error
+	 */
+	protected SegmentedVideoIterator(final File file, final Function<Picture, T> converter, final int threads, final long budget) throws IOException, JCodecException {
+		super(file, converter);
+		final int[] keyFrames = grab.getVideoTrack().getMeta().getSeekFrames();
+		final int total = grab.getVideoTrack().getMeta().getTotalFrames();
+		final int capacity = capacity(budget / threads);
+		segments = new ArrayDeque<>();
+		waiting = new ArrayDeque<>();
+		executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("demuxer"));
+		// every segment opens and seeks the video, so videos with a key frame
+		// every few frames (see VideoWriter) are not split at each of them
+		int start = -1;
+		for (int i = 0; i < keyFrames.length; i++) {
+			if (start < 0) {
+				start = keyFrames[i];
+			}
+			final int end = i + 1 < keyFrames.length ? keyFrames[i + 1] : total;
+			if (end - start >= QUEUE_SIZE || i + 1 == keyFrames.length) {
+				if (end > start) {
+					waiting.add(new Segment(file, start, end, capacity));
+				}
+				start = -1;
+			}
+		}
+		LOGGER.debug("{} segments for {} frames, up to {} decoded frames each", Integer.valueOf(waiting.size()), Integer.valueOf(total), Integer.valueOf(capacity));
+		// segments are started in order, one per thread, so the segment currently
+		// consumed is always being decoded or finished, and the pool cannot dead-lock
+		for (int i = 0; i < threads; i++) {
+			startNext();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Map.Entry<Double, T> grabFrame() {
+		while (!segments.isEmpty()) {
+			final Map.Entry<Double, T> frame = segments.peekFirst().take();
+			if (frame != (Object) END) {
+				return frame;
+			}
+			segments.removeFirst();
+			startNext();
+		}
+		return null;
+	}
+
+	/**
+	 * Stops decoding and closes the video.
+	 * @throws IOException in case of error
+	 */
+	@Override
+	public void close() throws IOException {
+		waiting.clear();
+		// the segments close their channels when interrupted
+		executor.shutdownNow();
+		super.close();
+	}
+
+	private void startNext() {
+		final Segment segment = waiting.poll();
+		if (segment != null) {
+			segments.add(segment);
+			executor.execute(segment);
+		}
+		if (waiting.isEmpty()) {
+			executor.shutdown();
+		}
+	}
+
+	// the decoded frames to keep per segment for the given bytes
+	private int capacity(final long bytes) {
+		final VideoCodecMeta meta = grab.getVideoTrack().getMeta().getVideoCodecMeta();
+		final Size size = meta == null ? null : meta.getSize();
+		if (size == null) {
+			return QUEUE_SIZE;
+		}
+		final long frameBytes = Math.max(1L, (long) size.getWidth() * size.getHeight() * BYTES_PER_PIXEL);
+		return (int) Math.max(QUEUE_SIZE, Math.min(Integer.MAX_VALUE - 1, bytes / frameBytes));
+	}
+
+	private class Segment implements Runnable {
+
+		private final File file;
+		private final int start;
+		private final int end;
+		private final BlockingQueue<Map.Entry<Double, ?>> frames;
+		private volatile Exception failure;
+
+		public Segment(final File file, final int start, final int end, final int capacity) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			// a segment kept completely also keeps its end marker,
+			// so its thread finishes without waiting for the consumer
+			frames = new ArrayBlockingQueue<>(Math.min(capacity, end - start) + 1);
+		}
+
+		@Override
+		public void run() {
+			try (final SeekableByteChannel channel = NIOUtils.readableChannel(file)) {
+				final FrameGrab segmentGrab = FrameGrab.createFrameGrab(channel);
+				if (start > 0) {
+					segmentGrab.seekToFramePrecise(start);
+				}
+				for (int i = start; i < end; i++) {
+					final Map.Entry<Double, T> frame;
+					try {
+						frame = toFrame(segmentGrab.getNativeFrameWithMetadata());
+					} catch (IOException e) {
+						// same as for a single grabber: the video ends here
+						LOGGER.debug("cannot decode frame {}", Integer.valueOf(i), e);
+						break;
+					}
+					if (frame == null) {
+						break;
+					}
+					frames.put(frame);
+				}
+			} catch (IOException|JCodecException|RuntimeException e) {
+				LOGGER.debug("cannot decode frames {} to {}", Integer.valueOf(start), Integer.valueOf(end), e);
+				failure = e;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					frames.put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public Map.Entry<Double, T> take() {
+			try {
+				final Map.Entry<Double, ?> result = frames.take();
+				if (result == END && failure != null) {
+					// as thrown by a single grabber
+					if (failure instanceof RuntimeException) {
+						throw (RuntimeException) failure;
+					}
+					throw new IllegalStateException(failure);
+				}
+				return (Map.Entry<Double, T>) result;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+
+	}
+
+}
@@ -71,35 +71,58 @@ public class StatefulQrReader implements Function<BufferedImage, byte[]> {
 	 */
 	public byte[] apply(final BufferedImage img) {
 		try {
-			final byte[] next = reader.read(img);
-			if (!Arrays.equals(next, last)) {
-				if (max > 0) {
-					crc.reset();
-					crc.update(next);
-					final Long checksum = Long.valueOf(crc.getValue());
-					if (memory.contains(checksum)) {
-						LOGGER.debug("payload seen before, ignoring ({})", checksum);
-						return EMPTY;
-					} else {
-						memory.addFirst(checksum);
-						if (memory.size() > max) {
-							memory.removeLast();
-						}
-					}
-				}
-				try {
-					LOGGER.debug("emitting new data");
-					return next;
-				} finally {
-					last = next;
-				}
-			}
-			LOGGER.debug("previous data seen, returning empty");
-			return EMPTY;
+			return filter(reader.read(img));
 		} catch (NotFoundException e) {
+			return filter(null);
+		}
+	}
+
+	/**
+	 * Suppresses bytes already decoded recently. This can be used
+	 * if the images are decoded elsewhere, e.g. in parallel; the
+	 * results must be passed in image order.
+	 * @param next the bytes decoded from the next image, {@code null}
+	 * if the image does not contain a QR code
+	 * @return the decoded bytes; may be empty, but never {@code null}
+	 */
+	public byte[] filter(final byte[] next) {
+		if (next == null) {
 			LOGGER.debug("QR code not found - rejecting image");
 			return EMPTY;
 		}
+		if (!Arrays.equals(next, last)) {
+			// frames identifying their position are de-duplicated downstream
+			// by that position, the memory is for plain chunks only
+			if (max > 0 && !isIdentified(next)) {
+				crc.reset();
+				crc.update(next);
+				final Long checksum = Long.valueOf(crc.getValue());
+				if (memory.contains(checksum)) {
+					LOGGER.debug("payload seen before, ignoring ({})", checksum);
+					return EMPTY;
+				} else {
+					memory.addFirst(checksum);
+					if (memory.size() > max) {
+						memory.removeLast();
+					}
+				}
+			}
+			try {
+				LOGGER.debug("emitting new data");
+				return next;
+			} finally {
+				last = next;
+			}
+		}
+		LOGGER.debug("previous data seen, returning empty");
+		return EMPTY;
+	}
+
+	// frames with a header, parity frames and fountain code symbols
+	private static boolean isIdentified(final byte[] bytes) {
+		return FrameHeader.isFrame(bytes)
+			|| ParityCode.toPosition(bytes) != null
+			|| FountainCode.isSymbol(bytes);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Grid of QR codes in a frame, with the given number of rows and columns.
+ * The QR codes are placed row by row, in cells of equal size separated
+ * by white space, so that each tile of the frame contains one QR code.
+ */
+public class SymbolGrid {
+
+	/**
+	 * A single QR code per frame.
+	 */
+	public static final SymbolGrid SINGLE = new SymbolGrid(1, 1);
+
+	// white space around the QR codes in relation to their size
+	private static final int GAP_DIVISOR = 8;
+
+	private final int rows;
+	private final int columns;
+
+	/**
+	 * Creates the grid.
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 */
+	public SymbolGrid(final int rows, final int columns) {
+		if (rows < 1 || columns < 1) {
+			throw new IllegalArgumentException(String.format("invalid grid %dx%d", Integer.valueOf(rows), Integer.valueOf(columns)));
+		}
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	/**
+	 * Parses a grid given as {@code RxC}, e.g. {@code 2x3}.
+	 * @param text the text to parse
+	 * @return the grid
+	 * @throws IllegalArgumentException if the text is not a valid grid
+	 */
+	public static SymbolGrid parse(final String text) {
+		final String[] values = text.toLowerCase().split("x");
+		if (values.length != 2) {
+			throw new IllegalArgumentException(String.format("grid must be given as RxC, not %s", text));
+		}
+		return new SymbolGrid(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+	}
+
+	/**
+	 * Returns the number of rows.
+	 * @return the number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of columns.
+	 * @return the number of columns
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the number of QR codes per frame.
+	 * @return the number of QR codes
+	 */
+	public int getSize() {
+		return rows * columns;
+	}
+
+	/**
+	 * Returns the width of a frame of QR codes of the given size.
+	 * @param size the size of the QR codes
+	 * @return the width of the frame
+	 */
+	public int getWidth(final int size) {
+		return columns * size + (columns + 1) * (size / GAP_DIVISOR);
+	}
+
+	/**
+	 * Returns the height of a frame of QR codes of the given size.
+	 * @param size the size of the QR codes
+	 * @return the height of the frame
+	 */
+	public int getHeight(final int size) {
+		return rows * size + (rows + 1) * (size / GAP_DIVISOR);
+	}
+
+	/**
+	 * Returns the tile of a frame which contains the QR code of the given index.
+	 * The tiles are of equal size and cover the frame.
+	 * @param index the index of the QR code, row by row
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @return the bounds of the tile
+	 */
+	public Rectangle getTile(final int index, final int width, final int height) {
+		final int row = index / columns;
+		final int column = index % columns;
+		final int left = column * width / columns;
+		final int top = row * height / rows;
+		return new Rectangle(left, top, (column + 1) * width / columns - left, (row + 1) * height / rows - top);
+	}
+
+	/**
+	 * Places the given QR codes into a frame. Cells without a QR code are left blank.
+	 * @param symbols the QR codes, at most as many as the grid has cells
+	 * @return the frame
+	 */
+	public BufferedImage tile(final List<BufferedImage> symbols) {
+		if (symbols.size() > getSize()) {
+			throw new IllegalArgumentException(String.format("%d QR codes do not fit into a %dx%d grid", Integer.valueOf(symbols.size()), Integer.valueOf(rows), Integer.valueOf(columns)));
+		}
+		int size = 0;
+		for (final BufferedImage symbol : symbols) {
+			size = Math.max(size, Math.max(symbol.getWidth(), symbol.getHeight()));
+		}
+		final int gap = size / GAP_DIVISOR;
+		final BufferedImage result = new BufferedImage(getWidth(size), getHeight(size), BufferedImage.TYPE_BYTE_GRAY);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, result.getWidth(), result.getHeight());
+			for (int i = 0; i < symbols.size(); i++) {
+				final BufferedImage symbol = symbols.get(i);
+				// centered in its cell
+				g2d.drawImage(
+					symbol,
+					gap + (i % columns) * (size + gap) + (size - symbol.getWidth()) / 2,
+					gap + (i / columns) * (size + gap) + (size - symbol.getHeight()) / 2,
+					null);
+			}
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 * Places consecutive QR codes into frames.
+	 * @param symbols the QR codes
+	 * @return the frames; the last frame may not be full
+	 */
+	public Stream<BufferedImage> tile(final Stream<BufferedImage> symbols) {
+		return StreamSupport
+			.stream(
+				Spliterators.spliteratorUnknownSize(
+					new GroupingIterator<>(symbols.iterator(), getSize()),
+					Spliterator.NONNULL | Spliterator.ORDERED),
+					false
+			)
+			.map(this::tile)
+			.onClose(symbols::close);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%dx%d", Integer.valueOf(rows), Integer.valueOf(columns));
+	}
+
+}
@@ -0,0 +1,202 @@
+package de.engehausen.qrio.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Receive state of a transfer, persisted in a file: a magic number,
+ * the transfer id, the total number of chunks and bytes, the size of
+ * the chunks (if known yet), followed by the {@link ChunkBitmap} of the
+ * chunks received. Changes are written to the file right away, so the
+ * state survives if the reading process dies. The file is not mapped,
+ * so it can be deleted once the state is closed.
+ */
+public class TransferState implements Closeable {
+
+	/**
+	 * Suffix of the state file next to the output.
+	 */
+	public static final String SUFFIX = ".state";
+
+	private static final int MAGIC = 0x51525331; // "QRS1"
+	private static final int HEADER = 24;
+	private static final int CHUNK_SIZE = 20;
+
+	private final ByteBuffer buffer;
+	private final FileChannel channel;
+	private final ChunkBitmap bitmap;
+	private final boolean resumed;
+
+	protected TransferState(final ByteBuffer buffer, final FileChannel channel, final boolean resumed) {
+		this.buffer = buffer;
+		this.channel = channel;
+		this.resumed = resumed;
+		bitmap = new ChunkBitmap(buffer.duplicate().position(HEADER).slice(), buffer.getInt(8));
+	}
+
+	/**
+	 * Opens the state of the given transfer. A state of the same transfer
+	 * in the file is resumed, anything else is replaced by an empty state.
+	 * The state must be closed.
+	 * @param file the state file
+	 * @param transfer the header of a frame of the transfer
+	 * @return the state
+	 * @throws IOException in case of error
+	 */
+	public static TransferState open(final File file, final FrameHeader transfer) throws IOException {
+		final int size = HEADER + ChunkBitmap.getBytes(transfer.getTotal());
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(size);
+			final boolean resumed = channel.size() == size && read(channel, buffer) && matches(buffer, transfer);
+			if (!resumed) {
+				buffer
+					.clear()
+					.putInt(MAGIC)
+					.putInt(transfer.getTransfer())
+					.putInt(transfer.getTotal())
+					.putLong(transfer.getLength())
+					.putInt(-1);
+				channel.truncate(0);
+				write(channel, buffer.clear(), 0);
+			}
+			return new TransferState(buffer.clear(), channel, resumed);
+		} catch (IOException|RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the state in the given file.
+	 * @param file the state file
+	 * @return the state (read-only), {@code null} if there is no valid state
+	 * @throws IOException in case of error
+	 */
+	public static TransferState read(final File file) throws IOException {
+		if (!file.isFile() || file.length() < HEADER) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		final int total = buffer.getInt(8);
+		if (buffer.getInt(0) != MAGIC || total < 0 || buffer.capacity() != HEADER + ChunkBitmap.getBytes(total)) {
+			return null;
+		}
+		return new TransferState(buffer, null, true);
+	}
+
+	private static boolean matches(final ByteBuffer header, final FrameHeader transfer) {
+		return header.getInt(0) == MAGIC &&
+			header.getInt(4) == transfer.getTransfer() &&
+			header.getInt(8) == transfer.getTotal() &&
+			header.getLong(12) == transfer.getLength();
+	}
+
+	// reads the complete buffer from the start of the channel
+	private static boolean read(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		long position = 0;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	private static void write(final FileChannel channel, final ByteBuffer buffer, final long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Checks whether the state was persisted before.
+	 * @return {@code true} if the state was persisted by an earlier session
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Returns the bitmap of the chunks received. Use {@link #setReceived(int)}
+	 * to change it.
+	 * @return the bitmap
+	 */
+	public ChunkBitmap getBitmap() {
+		return bitmap;
+	}
+
+	/**
+	 * Marks the given chunk as received.
+	 * @param index the index of the chunk
+	 * @throws IOException in case of error
+	 */
+	public void setReceived(final int index) throws IOException {
+		if (bitmap.set(index)) {
+			final int offset = HEADER + (index >> 3);
+			write(channel, buffer.duplicate().position(offset).limit(offset + 1), offset);
+		}
+	}
+
+	/**
+	 * Returns the id of the transfer.
+	 * @return the transfer id
+	 */
+	public int getTransfer() {
+		return buffer.getInt(4);
+	}
+
+	/**
+	 * Returns the total length of the transfer.
+	 * @return the number of bytes
+	 */
+	public long getLength() {
+		return buffer.getLong(12);
+	}
+
+	/**
+	 * Returns the size of the chunks of the transfer (except the last one).
+	 * @return the size of the chunks, {@code -1} if not known yet
+	 */
+	public int getChunkSize() {
+		return buffer.getInt(CHUNK_SIZE);
+	}
+
+	/**
+	 * Sets the size of the chunks of the transfer (except the last one).
+	 * @param chunkSize the size of the chunks
+	 * @throws IOException in case of error
+	 */
+	public void setChunkSize(final int chunkSize) throws IOException {
+		buffer.putInt(CHUNK_SIZE, chunkSize);
+		write(channel, buffer.duplicate().position(CHUNK_SIZE).limit(CHUNK_SIZE + 4), CHUNK_SIZE);
+	}
+
+	/**
+	 * Writes the state to the storage device.
+	 * @throws IOException in case of error
+	 */
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the state file.
+	 * @throws IOException in case of error
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+}
@@ -1,38 +1,73 @@
 package de.engehausen.qrio.util;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import org.jcodec.api.FrameGrab;
 import org.jcodec.api.JCodecException;
 import org.jcodec.api.PictureWithMetadata;
 import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
 import org.jcodec.scale.AWTUtil;
 
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
 /**
  * Iterator for frames of an {@code .mp4} video.
+ * The decoded pictures are converted using a given function,
+ * see {@link #IMAGE} and {@link #LUMINANCE}.
+ * The iterator must be closed to release the video file.
+ * @param <T> the type of the converted frames
  */
-public class VideoIterator implements Iterator<BufferedImage> {
+public class VideoIterator<T> implements Iterator<T>, Closeable {
+
+	/**
+	 * Converts pictures to RGB images.
+	 */
+	public static final Function<Picture, BufferedImage> IMAGE = AWTUtil::toBufferedImage;
+
+	/**
+	 * Converts pictures to luminance sources for zxing. For the usual
+	 * YUV pictures this only copies the luma (Y) plane.
+	 */
+	public static final Function<Picture, LuminanceSource> LUMINANCE = VideoIterator::toLuminance;
 
 	private static int BUFFER_SIZE = 5;
 
 	protected final FrameGrab grab;
+	private final SeekableByteChannel channel;
+	protected final Function<Picture, T> converter;
 	// frames may not be decoded in order - see https://github.com/jcodec/jcodec/issues/165
-	protected final TreeMap<Double, BufferedImage> reorderBuffer = new TreeMap<>();
+	protected final TreeMap<Double, T> reorderBuffer = new TreeMap<>();
 	protected boolean done;
 
 	/**
 	 * Creates the iterator for the given {@code .mp4} file.
 	 * @param file the video file to read
+	 * @param converter the converter for the decoded pictures
 	 * @throws IOException in case of error
 	 * @throws JCodecException in case of error
 	 */
-	public VideoIterator(final File file) throws IOException, JCodecException {
-		grab = FrameGrab.createFrameGrab(NIOUtils.readableChannel(file));
+	public VideoIterator(final File file, final Function<Picture, T> converter) throws IOException, JCodecException {
+		channel = NIOUtils.readableChannel(file);
+		try {
+			grab = FrameGrab.createFrameGrab(channel);
+		} catch (IOException|JCodecException|RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		this.converter = converter;
 	}
 
 	/**
@@ -41,31 +76,86 @@ public class VideoIterator implements Iterator<BufferedImage> {
 	public boolean hasNext() {
 		if (!done) {
 			while (reorderBuffer.size() < BUFFER_SIZE) {
-				try {
-					final PictureWithMetadata data = grab.getNativeFrameWithMetadata();
-					if (data == null) {
-						done = true;
-						break;
-					}
-					final Double key = Double.valueOf(data.getTimestamp());
-					reorderBuffer.put(key, AWTUtil.toBufferedImage(data.getPicture()));
-				} catch (IOException e) {
+				final Map.Entry<Double, T> frame = grabFrame();
+				if (frame == null) {
 					done = true;
 					break;
 				}
+				reorderBuffer.put(frame.getKey(), frame.getValue());
 			}
 		}
 		return !reorderBuffer.isEmpty();
 	}
 
+	/**
+	 * Grabs the next frame of the video, in decoding order.
+	 * @return the timestamp and converted picture of the frame,
+	 * {@code null} if there are no more frames
+	 */
+	protected Map.Entry<Double, T> grabFrame() {
+		try {
+			return toFrame(grab.getNativeFrameWithMetadata());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Converts the given decoded picture. The conversion must happen before
+	 * the next picture is decoded by the same grabber, as the grabber re-uses
+	 * its picture buffers.
+	 * @param data the picture, may be {@code null}
+	 * @return the timestamp and converted picture, {@code null} if no
+	 * picture was given
+	 */
+	protected Map.Entry<Double, T> toFrame(final PictureWithMetadata data) {
+		if (data == null) {
+			return null;
+		}
+		return Map.entry(Double.valueOf(data.getTimestamp()), converter.apply(data.getPicture()));
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
-	public BufferedImage next() {
+	public T next() {
 		if (reorderBuffer.isEmpty()) {
 			throw new NoSuchElementException();
 		}
 		return reorderBuffer.remove(reorderBuffer.firstKey());
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Closes the video.
+	 * @throws IOException in case of error
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static LuminanceSource toLuminance(final Picture picture) {
+		final ColorSpace color = picture.getColor();
+		if (picture.isHiBD() || !(color == ColorSpace.YUV420 || color == ColorSpace.YUV420J || color == ColorSpace.YUV422
+			|| color == ColorSpace.YUV422J || color == ColorSpace.YUV444 || color == ColorSpace.YUV444J)) {
+			return new BufferedImageLuminanceSource(AWTUtil.toBufferedImage(picture));
+		}
+		// jcodec stores 8 bit samples shifted by -128
+		final byte[] plane = picture.getPlaneData(0);
+		final byte[] luma = new byte[plane.length];
+		for (int i = luma.length; --i >= 0; ) {
+			luma[i] = (byte) (plane[i] + 128);
+		}
+		return new PlanarYUVLuminanceSource(
+			luma,
+			picture.getPlaneWidth(0),
+			picture.getPlaneHeight(0),
+			picture.getStartX(),
+			picture.getStartY(),
+			picture.getCroppedWidth(),
+			picture.getCroppedHeight(),
+			false
+		);
+	}
+
+}
@@ -0,0 +1,249 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jcodec.codecs.h264.H264Encoder;
+import org.jcodec.codecs.h264.encode.RateControl;
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.Codec;
+import org.jcodec.common.MuxerTrack;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.VideoEncoder;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Size;
+import org.jcodec.containers.mp4.muxer.MP4Muxer;
+import org.jcodec.scale.AWTUtil;
+
+/**
+ * Asynchronous writer of images into an {@code .mp4} video (H.264).
+ * Each image is held for a number of video frames. The images are encoded
+ * in order by a background thread; at most a bounded number of images are
+ * waiting to be encoded, further calls block. The video is written while
+ * encoding, nothing but the index of the video is kept in memory.
+ * All images must fit into the size of the first image; smaller images
+ * are centered on white.
+ * If encoding fails, the next call to {@link #accept(BufferedImage)}
+ * fails fast, and {@link #close()} reports the failure.
+ */
+public class VideoWriter implements Consumer<BufferedImage>, AutoCloseable {
+
+	// number of images queued for encoding
+	private static final int QUEUE = 8;
+	// the quantizer of all frames; low enough to keep the edges of the modules sharp
+	private static final int QP = 20;
+	// frame sizes are multiples of the macroblock size
+	private static final int MACROBLOCK = 16;
+	// timescale units per frame
+	private static final int FRAME_DURATION = 1000;
+
+	private final File file;
+	private final int timescale;
+	private final int repeats;
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private SeekableByteChannel channel;
+	private MP4Muxer muxer;
+	private MuxerTrack track;
+	private VideoEncoder encoder;
+	private ByteBuffer buffer;
+	private BufferedImage canvas;
+	private long frames;
+	private int count;
+	private RuntimeException failure;
+
+	/**
+	 * Creates the writer.
+	 * @param file the video file to write
+	 * @param fps the frame rate of the video
+	 * @param repeats the number of video frames to show each image for
+	 */
+	public VideoWriter(final File file, final double fps, final int repeats) {
+		if (fps <= 0 || repeats < 1) {
+			throw new IllegalArgumentException(String.format("invalid frame rate %s or repeats %d", Double.toString(fps), Integer.valueOf(repeats)));
+		}
+		this.file = file;
+		timescale = (int) Math.round(fps * FRAME_DURATION);
+		this.repeats = repeats;
+		executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("video"));
+		slots = new Semaphore(QUEUE);
+	}
+
+	/**
+	 * Queues the given image for encoding. Blocks if too many
+	 * images are waiting to be encoded.
+	 * @param image the image to write
+	 */
+	public void accept(final BufferedImage image) {
+		check();
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		final int index = ++count;
+		executor.execute(() -> {
+			try {
+				if (!hasFailed()) {
+					write(image, index);
+				}
+			} catch (IOException|RuntimeException e) {
+				failed(e);
+			} finally {
+				slots.release();
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of images accepted so far.
+	 * @return the number of images
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Waits until all queued images are encoded and finishes the video.
+	 */
+	public void close() {
+		executor.execute(() -> {
+			try {
+				finish();
+			} catch (IOException|RuntimeException e) {
+				failed(e);
+			}
+		});
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			throw new IllegalStateException(e);
+		}
+		check();
+	}
+
+	protected void write(final BufferedImage image, final int index) throws IOException {
+		if (canvas == null) {
+			start(image);
+		}
+		if (image.getWidth() > canvas.getWidth() || image.getHeight() > canvas.getHeight()) {
+			throw new IllegalStateException(String.format("image %d (%dx%d) is larger than the video (%dx%d)",
+				Integer.valueOf(index), Integer.valueOf(image.getWidth()), Integer.valueOf(image.getHeight()),
+				Integer.valueOf(canvas.getWidth()), Integer.valueOf(canvas.getHeight())));
+		}
+		final Graphics2D g2d = canvas.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+			g2d.drawImage(image, (canvas.getWidth() - image.getWidth()) / 2, (canvas.getHeight() - image.getHeight()) / 2, null);
+		} finally {
+			g2d.dispose();
+		}
+		final Picture picture = AWTUtil.fromBufferedImage(canvas, ColorSpace.YUV420J);
+		for (int i = 0; i < repeats; i++) {
+			buffer.clear();
+			final VideoEncoder.EncodedFrame encoded = encoder.encodeFrame(picture, buffer);
+			track.addFrame(Packet.createPacket(
+				NIOUtils.clone(encoded.getData()),
+				frames * FRAME_DURATION,
+				timescale,
+				FRAME_DURATION,
+				frames,
+				encoded.isKeyFrame() ? Packet.FrameType.KEY : Packet.FrameType.INTER,
+				null));
+			frames++;
+		}
+	}
+
+	// the size of the video is taken from the first image
+	private void start(final BufferedImage image) throws IOException {
+		canvas = new BufferedImage(
+			(image.getWidth() + MACROBLOCK - 1) / MACROBLOCK * MACROBLOCK,
+			(image.getHeight() + MACROBLOCK - 1) / MACROBLOCK * MACROBLOCK,
+			BufferedImage.TYPE_INT_RGB);
+		final H264Encoder h264 = new H264Encoder(new ConstantQuality());
+		// every image starts with a key frame, which can be decoded on its own;
+		// the repeats only refer to it
+		h264.setKeyInterval(repeats);
+		encoder = h264;
+		final Picture sample = Picture.create(canvas.getWidth(), canvas.getHeight(), ColorSpace.YUV420J);
+		buffer = ByteBuffer.allocate(encoder.estimateBufferSize(sample));
+		channel = NIOUtils.writableChannel(file);
+		muxer = MP4Muxer.createMP4MuxerToChannel(channel);
+		track = muxer.addVideoTrack(Codec.H264, VideoCodecMeta.createSimpleVideoCodecMeta(new Size(canvas.getWidth(), canvas.getHeight()), ColorSpace.YUV420J));
+	}
+
+	private void finish() throws IOException {
+		if (muxer == null) {
+			if (!hasFailed()) {
+				throw new IllegalStateException(String.format("no images to write to %s", file));
+			}
+			return;
+		}
+		try {
+			if (!hasFailed()) {
+				muxer.finish();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private synchronized boolean hasFailed() {
+		return failure != null;
+	}
+
+	private synchronized void failed(final Exception e) {
+		if (failure == null) {
+			failure = e instanceof RuntimeException ?
+				(RuntimeException) e :
+				new IllegalStateException(String.format("cannot write %s", file), e);
+		}
+	}
+
+	private synchronized void check() {
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	// the same quantizer for all frames, regardless of their size
+	private static class ConstantQuality implements RateControl {
+
+		@Override
+		public int startPicture(final Size size, final int maxSize, final SliceType sliceType) {
+			return QP;
+		}
+
+		@Override
+		public int initialQpDelta() {
+			return 0;
+		}
+
+		@Override
+		public int accept(final int bits) {
+			return 0;
+		}
+
+	}
+
+}
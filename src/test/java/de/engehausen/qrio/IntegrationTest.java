@@ -1,34 +1,366 @@
 package de.engehausen.qrio;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
 
 import org.jcodec.api.JCodecException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.NotFoundException;
 
+import de.engehausen.qrio.util.BlockDeflater;
+import de.engehausen.qrio.util.ChannelMultiplexer;
 import de.engehausen.qrio.util.ChunkIterator;
+import de.engehausen.qrio.util.FrameConcealer;
+import de.engehausen.qrio.util.FrameEnumerator;
+import de.engehausen.qrio.util.FrameHeader;
+import de.engehausen.qrio.util.FrameHeaderEncoder;
+import de.engehausen.qrio.util.FrameTriage;
+import de.engehausen.qrio.util.FrameValidator;
+import de.engehausen.qrio.util.FrameWriter;
+import de.engehausen.qrio.util.MissingChunks;
+import de.engehausen.qrio.util.ParityCode;
+import de.engehausen.qrio.util.Reassembler;
+import de.engehausen.qrio.util.StatefulQrReader;
+import de.engehausen.qrio.util.SymbolGrid;
+import de.engehausen.qrio.util.VideoWriter;
 
 public class IntegrationTest {
 
 	private static final String VIDEO_CAPTURE = "/video.mp4";
 	private static final String DEMO_PDF = "/demo.pdf";
+	private static final int VIDEO_FRAMES = 232;
+
+	@TempDir
+	protected Path tempDir;
 
 	@Test
 	public void produceConsumeTest() throws IOException, URISyntaxException {
+		produceConsume(1);
+	}
+
+	@Test
+	public void produceConsumeParallelTest() throws IOException, URISyntaxException {
+		produceConsume(4);
+	}
+
+	@Test
+	public void produceConsumeMappedTest() throws IOException, URISyntaxException {
+		produceConsume(
+			Generator.create(
+				Paths.get(getClass().getResource(DEMO_PDF).toURI()).toFile(),
+				256,
+				128,
+				2
+			)
+		);
+	}
+
+	@Test
+	public void produceConsumeFountainTest() throws IOException, URISyntaxException {
+		final byte[] expected = Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI()));
+		final AtomicInteger count = new AtomicInteger();
 		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		Generator.create(
-			getClass().getResourceAsStream(DEMO_PDF),
-			256,
-			128
-		).map(img -> {
+		// endless stream of symbols, every third one is lost
+		try (final Stream<BufferedImage> images = Generator.createFountain(ByteBuffer.wrap(expected), 256, 128, 2, 0)) {
+			Reader.decode(
+				images
+					.filter(img -> count.incrementAndGet() % 3 != 0)
+					.map(img -> {
+						try {
+							return Reader.readQR(img);
+						} catch (NotFoundException e) {
+							throw new IllegalStateException(e);
+						}
+					}),
+				bytes -> {
+					throw new IllegalStateException("not fountain-coded");
+				},
+				() -> {}
+			).forEach(out::writeBytes);
+		}
+		Assertions.assertArrayEquals(expected, out.toByteArray());
+	}
+
+	@Test
+	public void produceConsumeParityTest() throws IOException, URISyntaxException {
+		final byte[] expected = Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI()));
+		final Iterable<byte[]> chunks = () -> new ChunkIterator(getClass().getResourceAsStream(DEMO_PDF), 256 - ParityCode.OVERHEAD);
+		final FrameEnumerator enumerator = new FrameEnumerator();
+		final AtomicInteger count = new AtomicInteger();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// bursts of four lost frames
+		try (final Stream<byte[]> frames = Generator.protect(StreamSupport.stream(chunks.spliterator(), false).map(enumerator), new ParityCode(10, 2), 4)) {
+			Reader.decode(
+				frames.filter(frame -> count.incrementAndGet() % 50 >= 4),
+				new FrameConcealer(),
+				() -> {}
+			).forEach(out::writeBytes);
+		}
+		Assertions.assertArrayEquals(expected, out.toByteArray());
+	}
+
+	@Test
+	public void produceConsumeHeaderTest() throws IOException, URISyntaxException {
+		final byte[] expected = Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI()));
+		final int chunkSize = 256 - FrameHeader.OVERHEAD;
+		final Iterable<byte[]> chunks = () -> new ChunkIterator(getClass().getResourceAsStream(DEMO_PDF), chunkSize);
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(1, expected.length, chunkSize);
+		final List<byte[]> frames = StreamSupport
+			.stream(chunks.spliterator(), false)
+			.map(encoder)
+			.collect(Collectors.toList());
+		// every frame is read twice, and every tenth frame an earlier frame shows up again
+		final List<byte[]> read = new ArrayList<>();
+		for (int i = 0; i < frames.size(); i++) {
+			read.add(frames.get(i));
+			read.add(frames.get(i));
+			if (i % 10 == 9) {
+				read.add(frames.get(i - 5));
+			}
+		}
+		final StatefulQrReader reader = new StatefulQrReader();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Reader.decode(
+			read
+				.stream()
+				.map(reader::filter)
+				.filter(frame -> frame.length > 0),
+			new FrameValidator()
+		).forEach(out::writeBytes);
+		Assertions.assertArrayEquals(expected, out.toByteArray());
+		// the end of the input is missing
+		final FrameHeaderEncoder truncated = FrameHeaderEncoder.of(2, expected.length, chunkSize);
+		Assertions.assertThrows(IllegalStateException.class, () -> Reader.decode(
+			StreamSupport.stream(chunks.spliterator(), false).map(truncated).limit(10),
+			new FrameValidator()
+		).forEach(out::writeBytes));
+	}
+
+	@Test
+	public void produceConsumeReassembledTest() throws IOException, URISyntaxException {
+		final byte[] expected = Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI()));
+		final int chunkSize = 256 - FrameHeader.OVERHEAD;
+		final Iterable<byte[]> chunks = () -> new ChunkIterator(getClass().getResourceAsStream(DEMO_PDF), chunkSize);
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(1, expected.length, chunkSize);
+		final List<byte[]> frames = StreamSupport
+			.stream(chunks.spliterator(), false)
+			.map(encoder)
+			.collect(Collectors.toList());
+		// the frames are read in random order, the second pass
+		// is only read until the missing frames were received
+		final List<byte[]> read = new ArrayList<>(frames);
+		Collections.shuffle(read, new Random(1));
+		final int lost = read.size() / 2;
+		read.subList(lost, read.size()).clear();
+		read.addAll(frames);
+		final AtomicInteger count = new AtomicInteger();
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		Reader.write(
+			output,
+			Reader.decode(
+				read
+					.stream()
+					.peek(frame -> count.incrementAndGet()),
+				new FrameValidator(true)
+			)
+		);
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+		Assertions.assertTrue(count.get() < read.size());
+	}
+
+	@Test
+	public void produceConsumeResumedTest() throws IOException, URISyntaxException {
+		produceConsumeResumed(false);
+	}
+
+	@Test
+	public void produceConsumeResumedCompressedTest() throws IOException, URISyntaxException {
+		produceConsumeResumed(true);
+	}
+
+	private void produceConsumeResumed(final boolean compress) throws IOException, URISyntaxException {
+		final File input = new File(getClass().getResource(DEMO_PDF).toURI());
+		final byte[] expected = Files.readAllBytes(input.toPath());
+		final int chunkSize = 256 - FrameHeader.OVERHEAD;
+		final byte[] transferred;
+		try (final InputStream in = compress ? new BlockDeflater(new FileInputStream(input), Deflater.BEST_COMPRESSION) : new FileInputStream(input)) {
+			transferred = in.readAllBytes();
+		}
+		final Iterable<byte[]> chunks = () -> new ChunkIterator(new ByteArrayInputStream(transferred), chunkSize);
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(3, transferred.length, chunkSize);
+		final List<byte[]> frames = StreamSupport
+			.stream(chunks.spliterator(), false)
+			.map(encoder)
+			.collect(Collectors.toList());
+		// the first session ends after a random half of the frames
+		final List<byte[]> read = new ArrayList<>(frames);
+		Collections.shuffle(read, new Random(3));
+		read.subList(read.size() / 2, read.size()).clear();
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		Assertions.assertThrows(IllegalStateException.class, () -> Reader.write(output, read.stream()));
+		final MissingChunks missing = Reassembler.getMissing(output);
+		Assertions.assertEquals(frames.size() - read.size(), missing.getCount());
+		// the second session only reads the missing frames
+		final File manifest = tempDir.resolve("missing.txt").toFile();
+		missing.write(manifest);
+		final AtomicInteger count = new AtomicInteger();
+		try (final Stream<byte[]> gaps = Generator.createMissing(input, chunkSize, compress, encoder, MissingChunks.read(manifest))) {
+			Reader.write(output, gaps.peek(frame -> count.incrementAndGet()));
+		}
+		Assertions.assertEquals(missing.getCount(), count.get());
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+		Assertions.assertNull(Reassembler.getMissing(output));
+	}
+
+	@Test
+	public void produceConsumeGridTest() throws IOException, URISyntaxException, JCodecException {
+		final String prefix = tempDir.resolve("grid").toString();
+		final SymbolGrid grid = new SymbolGrid(2, 3);
+		// the last frame is not full
+		try (
+			final Stream<BufferedImage> images = grid.tile(Generator.create(getClass().getResourceAsStream(DEMO_PDF), 256, 128, 2));
+			final FrameWriter writer = new FrameWriter(prefix, FrameWriter.DEFAULT_LEVEL, 2)
+		) {
+			images.forEach(writer);
+		}
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		Reader.write(output, Reader.readFiles(prefix, new FrameValidator(), grid));
+		Assertions.assertArrayEquals(
+			Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI())),
+			Files.readAllBytes(output.toPath())
+		);
+	}
+
+	@Test
+	public void produceConsumeColorTest() throws IOException, URISyntaxException, JCodecException {
+		final String prefix = tempDir.resolve("rgb").toString();
+		// a calibration frame comes first, and the last frame has blank channels
+		try (
+			final Stream<BufferedImage> images = Stream.concat(
+				Stream.of(ChannelMultiplexer.calibration(128, 128)),
+				ChannelMultiplexer.merge(Generator.create(getClass().getResourceAsStream(DEMO_PDF), 256, 128, 2))
+			);
+			final FrameWriter writer = new FrameWriter(prefix, FrameWriter.DEFAULT_LEVEL, 2)
+		) {
+			images.forEach(writer);
+		}
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		Reader.write(output, Reader.readFiles(prefix, new FrameValidator(), SymbolGrid.SINGLE, true));
+		Assertions.assertArrayEquals(
+			Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI())),
+			Files.readAllBytes(output.toPath())
+		);
+	}
+
+	@Test
+	public void produceConsumeColorLossTest() throws IOException, URISyntaxException, JCodecException {
+		final String prefix = tempDir.resolve("rgb").toString();
+		final byte[] expected = Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI()));
+		final int chunkSize = 256 - FrameHeader.OVERHEAD;
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(1, expected.length, chunkSize);
+		final List<BufferedImage> symbols;
+		try (final Stream<BufferedImage> images = Generator.encodeFrames(
+			StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ChunkIterator(getClass().getResourceAsStream(DEMO_PDF), chunkSize), Spliterator.ORDERED), false).map(encoder),
+			128,
+			2)) {
+			symbols = images.collect(Collectors.toList());
+		}
+		// the green channel of the second frame cannot be decoded
+		final BufferedImage blank = new BufferedImage(128, 128, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = blank.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, 128, 128);
+		g2d.dispose();
+		symbols.set(ChannelMultiplexer.CHANNELS + 1, blank);
+		try (final FrameWriter writer = new FrameWriter(prefix, FrameWriter.DEFAULT_LEVEL, 2)) {
+			ChannelMultiplexer.merge(symbols.stream()).forEach(writer);
+		}
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> Reader.write(output, Reader.readFiles(prefix, new FrameValidator(), SymbolGrid.SINGLE, true)));
+		Assertions.assertTrue(e.getMessage().contains("missing"), e.getMessage());
+	}
+
+	@Test
+	public void produceConsumeVideoTest() throws IOException, URISyntaxException, JCodecException {
+		final File video = tempDir.resolve("demo.mp4").toFile();
+		try (
+			final Stream<BufferedImage> images = Generator.create(getClass().getResourceAsStream(DEMO_PDF), 256, 128, 2);
+			final VideoWriter writer = new VideoWriter(video, 10, 2)
+		) {
+			images.forEach(writer);
+		}
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		Reader.write(output, Reader.readVideo(video));
+		Assertions.assertArrayEquals(
+			Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI())),
+			Files.readAllBytes(output.toPath())
+		);
+	}
+
+	@Test
+	public void produceConsumeCompressedTest() throws IOException, URISyntaxException {
+		final File output = tempDir.resolve("demo.pdf").toFile();
+		try (final Stream<BufferedImage> images = Generator.create(new BlockDeflater(getClass().getResourceAsStream(DEMO_PDF), Deflater.BEST_COMPRESSION), 256, 128, 2)) {
+			Reader.write(
+				output,
+				images.map(img -> {
+					try {
+						return Reader.readQR(img);
+					} catch (NotFoundException e) {
+						throw new IllegalStateException(e);
+					}
+				})
+			);
+		}
+		Assertions.assertArrayEquals(
+			Files.readAllBytes(Paths.get(getClass().getResource(DEMO_PDF).toURI())),
+			Files.readAllBytes(output.toPath())
+		);
+	}
+
+	private void produceConsume(final int threads) throws IOException, URISyntaxException {
+		produceConsume(
+			Generator.create(
+				getClass().getResourceAsStream(DEMO_PDF),
+				256,
+				128,
+				threads
+			)
+		);
+	}
+
+	private void produceConsume(final Stream<BufferedImage> images) throws IOException, URISyntaxException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		images.map(img -> {
 			try {
 				return Reader.readQR(img);
 			} catch (NotFoundException e) {
@@ -51,16 +383,36 @@ public class IntegrationTest {
 
 	@Test
 	public void testVideoChunks() throws IOException, URISyntaxException, JCodecException {
+		videoChunks(1, 1, source -> true);
+	}
+
+	@Test
+	public void testVideoChunksParallel() throws IOException, URISyntaxException, JCodecException {
+		videoChunks(4, 2, source -> true);
+	}
+
+	@Test
+	public void testVideoChunksTriage() throws IOException, URISyntaxException, JCodecException {
+		final FrameTriage triage = new FrameTriage();
+		videoChunks(2, 1, triage.luminance());
+		Assertions.assertTrue(triage.getCount(FrameTriage.Verdict.DECODE) < VIDEO_FRAMES, triage.toString());
+	}
+
+	private void videoChunks(final int threads, final int segments, final Predicate<LuminanceSource> triage) throws IOException, URISyntaxException, JCodecException {
 		// the bytes of the example file, as expected to be read
 		final Iterator<byte[]> chunks = new ChunkIterator(getClass().getResourceAsStream(DEMO_PDF), 768);
 		final AtomicInteger count = new AtomicInteger();
 		Reader.readVideo(
-			Paths.get(getClass().getResource(VIDEO_CAPTURE).toURI()).toFile()
+			Paths.get(getClass().getResource(VIDEO_CAPTURE).toURI()).toFile(),
+			threads,
+			segments,
+			triage
 		).forEach(bytes -> {
 			count.incrementAndGet();
 			final byte[] expected = chunks.next();
 			Assertions.assertArrayEquals(expected, bytes, String.format("chunk %d error", count.get()));
 		});
+		Assertions.assertFalse(chunks.hasNext(), "all chunks read");
 	}
 
 }
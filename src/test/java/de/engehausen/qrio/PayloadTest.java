@@ -0,0 +1,76 @@
+package de.engehausen.qrio;
+
+import java.awt.image.BufferedImage;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import de.engehausen.qrio.util.QrMatrix;
+
+public class PayloadTest {
+
+	private static final Map<EncodeHintType, Object> HINTS = Map.of(
+		EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H,
+		EncodeHintType.MARGIN, 0
+	);
+
+	@Test
+	public void testBinary() throws Exception {
+		final byte[] data = new byte[256];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		for (int padding = 0; padding < 3; padding++) {
+			Assertions.assertArrayEquals(data, read(Generator.toText(data, padding, true)));
+			Assertions.assertArrayEquals(data, new QrMatrix(Generator.toText(data, padding, true), HINTS).decode(Reader::toBytes));
+		}
+		// digits only would otherwise be stored in numeric mode
+		final byte[] digits = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+		Assertions.assertArrayEquals(digits, read(Generator.toText(digits, 0, true)));
+		final byte[] random = new byte[384];
+		new Random(1).nextBytes(random);
+		Assertions.assertArrayEquals(random, read(Generator.toText(random, 0, true)));
+	}
+
+	@Test
+	public void testBase64() throws Exception {
+		final byte[] random = new byte[96];
+		new Random(2).nextBytes(random);
+		for (int padding = 0; padding < 3; padding++) {
+			Assertions.assertArrayEquals(random, read(Generator.toText(random, padding, false)));
+		}
+	}
+
+	@Test
+	public void testBinaryIsShorter() {
+		final byte[] random = new byte[384];
+		new Random(3).nextBytes(random);
+		Assertions.assertEquals(385, Generator.toText(random, 0, true).length());
+		Assertions.assertEquals(512, Generator.toText(random, 0, false).length());
+	}
+
+	@Test
+	public void testUnknownVersion() throws Exception {
+		final String text = "\u00f0\u00f2data";
+		Assertions.assertThrows(IllegalStateException.class, () -> read(text));
+	}
+
+	private static byte[] read(final String text) throws NotFoundException, WriterException {
+		final BufferedImage image = MatrixToImageWriter.toBufferedImage(
+			new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 256, 256, HINTS)
+		);
+		return Reader.readQR(image);
+	}
+
+}
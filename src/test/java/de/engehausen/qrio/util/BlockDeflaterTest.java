@@ -0,0 +1,129 @@
+package de.engehausen.qrio.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BlockDeflaterTest {
+
+	private static final int BLOCK_SIZE = 1000;
+
+	@Test
+	public void testCompressible() throws IOException {
+		final byte[] data = text(10_000);
+		final BlockDeflater deflater = new BlockDeflater(new ByteArrayInputStream(data), Deflater.BEST_COMPRESSION, BLOCK_SIZE);
+		final byte[] compressed = deflater.readAllBytes();
+		Assertions.assertTrue(compressed.length < data.length / 2, String.format("%d bytes", compressed.length));
+		Assertions.assertEquals(10, deflater.getDeflatedBlocks());
+		Assertions.assertEquals(0, deflater.getRawBlocks());
+		Assertions.assertArrayEquals(data, inflate(compressed, 7));
+	}
+
+	@Test
+	public void testIncompressible() throws IOException {
+		final byte[] data = new byte[10_500];
+		new Random(1).nextBytes(data);
+		final BlockDeflater deflater = new BlockDeflater(new ByteArrayInputStream(data), Deflater.BEST_COMPRESSION, BLOCK_SIZE);
+		final byte[] compressed = deflater.readAllBytes();
+		Assertions.assertEquals(BlockDeflater.SIGNATURE.length + 11 * BlockDeflater.RECORD_HEADER + data.length, compressed.length);
+		Assertions.assertEquals(0, deflater.getDeflatedBlocks());
+		Assertions.assertEquals(11, deflater.getRawBlocks());
+		Assertions.assertArrayEquals(data, inflate(compressed, 100));
+	}
+
+	@Test
+	public void testMixed() throws IOException {
+		final byte[] random = new byte[2 * BLOCK_SIZE];
+		new Random(2).nextBytes(random);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes(text(2 * BLOCK_SIZE));
+		out.writeBytes(random);
+		out.writeBytes(text(BLOCK_SIZE / 2));
+		final byte[] data = out.toByteArray();
+		final BlockDeflater deflater = new BlockDeflater(new ByteArrayInputStream(data), Deflater.BEST_SPEED, BLOCK_SIZE);
+		final byte[] compressed = deflater.readAllBytes();
+		Assertions.assertEquals(3, deflater.getDeflatedBlocks());
+		Assertions.assertEquals(2, deflater.getRawBlocks());
+		Assertions.assertArrayEquals(data, inflate(compressed, 1));
+	}
+
+	@Test
+	public void testChunks() throws IOException {
+		final byte[] data = text(5000);
+		final ChunkIterator chunks = new ChunkIterator(new BlockDeflater(new ByteArrayInputStream(data), Deflater.BEST_COMPRESSION, BLOCK_SIZE), 64);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final BlockInflater inflater = new BlockInflater(out)) {
+			while (chunks.hasNext()) {
+				final byte[] chunk = chunks.next();
+				Assertions.assertTrue(chunk.length == 64 || !chunks.hasNext(), "full chunks");
+				inflater.write(chunk);
+			}
+		}
+		Assertions.assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		final byte[] compressed = new BlockDeflater(new ByteArrayInputStream(new byte[0]), Deflater.BEST_COMPRESSION).readAllBytes();
+		Assertions.assertArrayEquals(BlockDeflater.SIGNATURE, compressed);
+		Assertions.assertEquals(0, inflate(compressed, 3).length);
+	}
+
+	@Test
+	public void testPlain() throws IOException {
+		final byte[] data = text(3000);
+		Assertions.assertArrayEquals(data, inflate(data, 5));
+		final byte[] tiny = { 'Q', 'R' };
+		Assertions.assertArrayEquals(tiny, inflate(tiny, 1));
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		final byte[] compressed = new BlockDeflater(new ByteArrayInputStream(text(3000)), Deflater.BEST_COMPRESSION, BLOCK_SIZE).readAllBytes();
+		final BlockInflater inflater = new BlockInflater(new ByteArrayOutputStream());
+		inflater.write(compressed, 0, compressed.length - 1);
+		Assertions.assertThrows(IllegalStateException.class, inflater::close);
+	}
+
+	@Test
+	public void testOversizedBlock() throws IOException {
+		// a record claiming a block of 2 GiB
+		final ByteBuffer record = ByteBuffer.allocate(BlockDeflater.SIGNATURE.length + BlockDeflater.RECORD_HEADER)
+			.put(BlockDeflater.SIGNATURE)
+			.put(BlockDeflater.DEFLATED)
+			.putInt(Integer.MAX_VALUE)
+			.putInt(Integer.MAX_VALUE);
+		final BlockInflater inflater = new BlockInflater(new ByteArrayOutputStream());
+		final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> inflater.write(record.array()));
+		Assertions.assertEquals("decoding error: invalid compressed block", e.getMessage());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BlockDeflater(new ByteArrayInputStream(new byte[0]), Deflater.BEST_COMPRESSION, BlockDeflater.MAX_BLOCK_SIZE + 1));
+	}
+
+	private static byte[] inflate(final byte[] compressed, final int step) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final BlockInflater inflater = new BlockInflater(out)) {
+			for (int i = 0; i < compressed.length; i += step) {
+				inflater.write(compressed, i, Math.min(step, compressed.length - i));
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] text(final int length) {
+		final StringBuilder result = new StringBuilder(length);
+		final Random random = new Random(length);
+		final String[] words = { "frame", "chunk", "QR code", "reader", "generator", "viewer", "\n" };
+		while (result.length() < length) {
+			result.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		return result.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
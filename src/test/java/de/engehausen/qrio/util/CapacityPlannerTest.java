@@ -0,0 +1,69 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Base64;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.NotFoundException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+public class CapacityPlannerTest {
+
+	private static final ConcurrentQrReader READER = new ConcurrentQrReader(text -> Base64.getDecoder().decode(text));
+	private static final Function<BufferedImage, byte[]> DECODER = image -> {
+		try {
+			return READER.read(image);
+		} catch (NotFoundException | IllegalArgumentException e) {
+			return null;
+		}
+	};
+
+	@Test
+	public void testCapacity() {
+		final CapacityPlanner planner = planner(UnaryOperator.identity());
+		final int low = planner.getCapacity(ErrorCorrectionLevel.L);
+		final int high = planner.getCapacity(ErrorCorrectionLevel.H);
+		Assertions.assertTrue(high > 0);
+		Assertions.assertTrue(low > high);
+		Assertions.assertEquals(0, low % 2);
+		Assertions.assertTrue(planner.isReadable(low, ErrorCorrectionLevel.L));
+		// degraded codes carry less
+		final int degraded = planner(new Degradation(0.9, 1, 8)).getCapacity(ErrorCorrectionLevel.L);
+		Assertions.assertTrue(degraded < low, Integer.toString(degraded));
+	}
+
+	@Test
+	public void testBest() {
+		Assertions.assertEquals(ErrorCorrectionLevel.M, CapacityPlanner.best(Map.of(
+			ErrorCorrectionLevel.L, Integer.valueOf(100),
+			ErrorCorrectionLevel.M, Integer.valueOf(120),
+			ErrorCorrectionLevel.Q, Integer.valueOf(80),
+			ErrorCorrectionLevel.H, Integer.valueOf(0)
+		)));
+		Assertions.assertEquals(ErrorCorrectionLevel.Q, CapacityPlanner.best(Map.of(
+			ErrorCorrectionLevel.L, Integer.valueOf(100),
+			ErrorCorrectionLevel.Q, Integer.valueOf(100)
+		)));
+	}
+
+	@Test
+	public void testDegradation() {
+		final BufferedImage image = new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB);
+		final BufferedImage degraded = Degradation.parse("0.5:1:4").apply(image);
+		Assertions.assertEquals(60, degraded.getWidth());
+		Assertions.assertEquals(35, degraded.getHeight());
+		Assertions.assertEquals(BufferedImage.TYPE_BYTE_GRAY, degraded.getType());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Degradation.parse("0.5:1"));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Degradation.parse("0:1:2"));
+	}
+
+	private static CapacityPlanner planner(final UnaryOperator<BufferedImage> degradation) {
+		return new CapacityPlanner(bytes -> Base64.getEncoder().encodeToString(bytes), 64, DECODER, degradation, 2);
+	}
+
+}
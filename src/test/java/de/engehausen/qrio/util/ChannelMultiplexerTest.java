@@ -0,0 +1,117 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+public class ChannelMultiplexerTest {
+
+	private static final ConcurrentQrReader READER = new ConcurrentQrReader(text -> Base64.getDecoder().decode(text));
+
+	// how much of each displayed channel (columns) ends up in each captured channel (rows)
+	private static final float[][] CROSS_TALK = {
+		{ 0.6f, 0.3f, 0.1f },
+		{ 0.2f, 0.6f, 0.2f },
+		{ 0.1f, 0.3f, 0.6f }
+	};
+	private static final float BLACK_LEVEL = 30;
+
+	@Test
+	public void testMergeAndSplit() {
+		final List<byte[]> expected = payloads(5);
+		final List<BufferedImage> frames = ChannelMultiplexer
+			.merge(expected.stream().map(ChannelMultiplexerTest::encode))
+			.collect(Collectors.toList());
+		Assertions.assertEquals(2, frames.size());
+		final ChannelSeparator separator = new ChannelSeparator();
+		final List<byte[]> first = READER.readAll(separator.apply(frames.get(0)), SymbolGrid.SINGLE);
+		for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+			Assertions.assertArrayEquals(expected.get(i), first.get(i), Integer.toString(i));
+		}
+		// the blue channel of the last frame is blank
+		final List<byte[]> second = READER.readAll(separator.apply(frames.get(1)), SymbolGrid.SINGLE);
+		Assertions.assertArrayEquals(expected.get(3), second.get(0));
+		Assertions.assertArrayEquals(expected.get(4), second.get(1));
+		Assertions.assertNull(second.get(2));
+		Assertions.assertFalse(separator.isCalibrated());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> ChannelMultiplexer.merge(Collections.nCopies(4, frames.get(0))));
+	}
+
+	@Test
+	public void testCalibration() {
+		final List<byte[]> expected = payloads(3);
+		final BufferedImage frame = ChannelMultiplexer.merge(expected.stream().map(ChannelMultiplexerTest::encode).collect(Collectors.toList()));
+		final ChannelSeparator separator = new ChannelSeparator();
+		Assertions.assertFalse(separator.calibrate(frame));
+		// the calibration frame is not returned, but corrects the channels of the next frames
+		Assertions.assertTrue(separator.apply(crossTalk(ChannelMultiplexer.calibration(200, 200))).isEmpty());
+		Assertions.assertTrue(separator.isCalibrated());
+		final List<LuminanceSource> channels = separator.apply(crossTalk(frame));
+		Assertions.assertEquals(ChannelMultiplexer.CHANNELS, channels.size());
+		final List<byte[]> actual = READER.readAll(channels, SymbolGrid.SINGLE);
+		for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+			Assertions.assertArrayEquals(expected.get(i), actual.get(i), Integer.toString(i));
+		}
+	}
+
+	// simulates the channels bleeding into each other on the way from display to camera
+	private static BufferedImage crossTalk(final BufferedImage image) {
+		final BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				final int rgb = image.getRGB(x, y);
+				int mixed = 0;
+				for (int i = 0; i < ChannelMultiplexer.CHANNELS; i++) {
+					float value = BLACK_LEVEL;
+					for (int j = 0; j < ChannelMultiplexer.CHANNELS; j++) {
+						value += CROSS_TALK[i][j] * ((rgb >> ChannelMultiplexer.SHIFTS[j]) & 0xff);
+					}
+					mixed |= Math.min(255, Math.round(value)) << ChannelMultiplexer.SHIFTS[i];
+				}
+				result.setRGB(x, y, mixed);
+			}
+		}
+		return result;
+	}
+
+	private static List<byte[]> payloads(final int count) {
+		final Random random = new Random(1);
+		final List<byte[]> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final byte[] bytes = new byte[100];
+			random.nextBytes(bytes);
+			result.add(bytes);
+		}
+		return result;
+	}
+
+	private static BufferedImage encode(final byte[] bytes) {
+		try {
+			return MatrixToImageWriter.toBufferedImage(new QRCodeWriter().encode(
+				Base64.getEncoder().encodeToString(bytes),
+				BarcodeFormat.QR_CODE,
+				128,
+				128,
+				Map.of(EncodeHintType.MARGIN, Integer.valueOf(4))
+			));
+		} catch (WriterException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.NotFoundException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
+import de.engehausen.qrio.Reader;
+
+public class ConcurrentQrReaderTest {
+
+	private static final String[] IMAGES = { "/image0001.png", "/image0002.png", "/unreadable.png" };
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 25;
+
+	@Test
+	public void testLuminanceLikeZxing() throws IOException, NotFoundException {
+		final ConcurrentQrReader reader = new ConcurrentQrReader(text -> text.getBytes(StandardCharsets.ISO_8859_1));
+		final BufferedImage image = load(IMAGES[0]);
+		Assertions.assertArrayEquals(
+			reader.read(new BufferedImageLuminanceSource(image)),
+			reader.read(image)
+		);
+	}
+
+	@Test
+	public void testStress() throws Exception {
+		final ConcurrentQrReader reader = new ConcurrentQrReader(text -> text.getBytes(StandardCharsets.ISO_8859_1));
+		final List<BufferedImage> images = new ArrayList<>();
+		for (final String name : IMAGES) {
+			images.add(load(name));
+		}
+		// expected results, decoded on a single thread
+		final List<String> expected = new ArrayList<>();
+		for (final BufferedImage image : images) {
+			expected.add(decode(reader, image));
+		}
+		Assertions.assertNotNull(expected.get(0));
+		Assertions.assertNotNull(expected.get(1));
+		Assertions.assertNull(expected.get(2));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Callable<List<String>>> tasks = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t;
+				tasks.add(() -> {
+					final List<String> result = new ArrayList<>();
+					for (int i = 0; i < ROUNDS * images.size(); i++) {
+						result.add(decode(reader, images.get((offset + i) % images.size())));
+					}
+					return result;
+				});
+			}
+			int t = 0;
+			for (final Future<List<String>> future : executor.invokeAll(tasks)) {
+				final List<String> result = future.get();
+				for (int i = 0; i < result.size(); i++) {
+					Assertions.assertEquals(expected.get((t + i) % images.size()), result.get(i), String.format("thread %d, image %d", t, i));
+				}
+				t++;
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelStream() throws IOException, NotFoundException {
+		final BufferedImage image = load(IMAGES[0]);
+		final byte[] expected = Reader.readQR(image);
+		final List<byte[]> results = IntStream
+			.range(0, ROUNDS * THREADS)
+			.parallel()
+			.mapToObj(i -> {
+				try {
+					return Reader.readQR(image);
+				} catch (NotFoundException e) {
+					throw new IllegalStateException(e);
+				}
+			})
+			.collect(Collectors.toList());
+		for (final byte[] result : results) {
+			Assertions.assertTrue(Arrays.equals(expected, result));
+		}
+	}
+
+	private static String decode(final ConcurrentQrReader reader, final BufferedImage image) {
+		try {
+			return new String(reader.read(image), StandardCharsets.ISO_8859_1);
+		} catch (NotFoundException e) {
+			return null;
+		}
+	}
+
+	private static BufferedImage load(final String name) throws IOException {
+		try (final InputStream in = ConcurrentQrReaderTest.class.getResourceAsStream(name)) {
+			return ImageIO.read(in);
+		}
+	}
+
+}
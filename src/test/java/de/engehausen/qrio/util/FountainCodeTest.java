@@ -0,0 +1,139 @@
+package de.engehausen.qrio.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FountainCodeTest {
+
+	private static final int SYMBOL_SIZE = 120;
+
+	@Test
+	public void testSymbolFormat() {
+		final FountainEncoder encoder = new FountainEncoder(ByteBuffer.wrap(data(1000, 1)), SYMBOL_SIZE);
+		final byte[] symbol = encoder.next();
+		Assertions.assertEquals(SYMBOL_SIZE, symbol.length);
+		Assertions.assertTrue(FountainCode.isSymbol(symbol));
+		Assertions.assertTrue(encoder.getCode().accepts(symbol));
+		Assertions.assertEquals(1000, FountainCode.of(symbol).getLength());
+		Assertions.assertEquals(10, FountainCode.of(symbol).getBlockCount());
+		symbol[SYMBOL_SIZE / 2] ^= 1;
+		Assertions.assertFalse(FountainCode.isSymbol(symbol));
+		Assertions.assertFalse(FountainCode.isSymbol(data(SYMBOL_SIZE, 2)));
+		Assertions.assertFalse(FountainCode.isSymbol(new byte[0]));
+	}
+
+	@Test
+	public void testBlocks() {
+		final FountainCode code = new FountainCode(100_000, 100);
+		for (int seed = 0; seed < 500; seed++) {
+			final int[] blocks = code.getBlocks(seed);
+			Assertions.assertArrayEquals(blocks, code.getBlocks(seed), "deterministic");
+			Assertions.assertTrue(blocks.length > 0);
+			for (int i = 0; i < blocks.length; i++) {
+				Assertions.assertTrue(blocks[i] >= 0 && blocks[i] < code.getBlockCount() + code.getParityCount());
+				Assertions.assertTrue(i == 0 || blocks[i - 1] < blocks[i], "distinct");
+			}
+		}
+	}
+
+	@Test
+	public void testLossless() {
+		decode(10_001, 0);
+	}
+
+	@Test
+	public void testLossy() {
+		// lose a third of the symbols
+		decode(100_000, 3);
+	}
+
+	@Test
+	public void testSingleBlock() {
+		decode(50, 2);
+	}
+
+	private static void decode(final int length, final int loss) {
+		final byte[] data = data(length, length);
+		final FountainEncoder encoder = new FountainEncoder(ByteBuffer.wrap(data), SYMBOL_SIZE);
+		final FountainDecoder decoder = new FountainDecoder(encoder.getCode());
+		final int blocks = encoder.getCode().getBlockCount();
+		final Random random = new Random(loss);
+		int sent = 0;
+		boolean complete = false;
+		while (!complete && sent < 3 * blocks + 10) {
+			final byte[] symbol = encoder.next();
+			sent++;
+			if (loss == 0 || random.nextInt(loss) > 0) {
+				complete = decoder.add(symbol);
+			}
+		}
+		Assertions.assertTrue(complete, String.format("%d of %d blocks from %d symbols", decoder.getSolved(), blocks, decoder.getReceived()));
+		Assertions.assertTrue(decoder.getReceived() < 1.1 * blocks + 10, String.format("%d symbols for %d blocks", decoder.getReceived(), blocks));
+		Assertions.assertArrayEquals(data, decoded(decoder));
+	}
+
+	@Test
+	public void testIterator() {
+		final byte[] data = data(5000, 6);
+		final FountainEncoder encoder = new FountainEncoder(ByteBuffer.wrap(data), SYMBOL_SIZE);
+		final List<byte[]> symbols = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final byte[] symbol = encoder.next();
+			// the first 20 symbols are lost
+			if (i >= 20) {
+				symbols.add(symbol);
+			}
+		}
+		final FountainIterator iterator = new FountainIterator(symbols.iterator(), bytes -> {
+			throw new IllegalStateException("not to be post-processed");
+		}, () -> {
+			throw new IllegalStateException("not to be finished");
+		});
+		Assertions.assertArrayEquals(data, collect(iterator));
+		Assertions.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testIteratorPlain() {
+		final List<byte[]> chunks = List.of(data(10, 7), data(10, 8));
+		final AtomicInteger ends = new AtomicInteger();
+		final FountainIterator iterator = new FountainIterator(chunks.iterator(), Function.identity(), ends::incrementAndGet);
+		Assertions.assertArrayEquals(collect(chunks.iterator()), collect(iterator));
+		Assertions.assertFalse(iterator.hasNext());
+		// the end is signalled once
+		Assertions.assertEquals(1, ends.get());
+		final FountainIterator empty = new FountainIterator(List.<byte[]>of().iterator(), Function.identity(), ends::incrementAndGet);
+		Assertions.assertFalse(empty.hasNext());
+		Assertions.assertEquals(2, ends.get());
+	}
+
+	private static byte[] decoded(final FountainDecoder decoder) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < decoder.getCode().getBlockCount(); i++) {
+			out.writeBytes(decoder.getBlock(i));
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] collect(final Iterator<byte[]> iterator) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		iterator.forEachRemaining(out::writeBytes);
+		return out.toByteArray();
+	}
+
+	private static byte[] data(final int length, final long seed) {
+		final byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,92 @@
+package de.engehausen.qrio.util;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FrameHeaderTest {
+
+	@Test
+	public void testFormat() {
+		final byte[] payload = data(100, 1);
+		final byte[] frame = new FrameHeader(0xcafe, 7, 9, 1000L).toFrame(payload);
+		Assertions.assertEquals(payload.length + FrameHeader.OVERHEAD, frame.length);
+		final FrameHeader header = FrameHeader.of(frame);
+		Assertions.assertNotNull(header);
+		Assertions.assertEquals(0xcafe, header.getTransfer());
+		Assertions.assertEquals(7, header.getSequence());
+		Assertions.assertEquals(9, header.getTotal());
+		Assertions.assertEquals(1000L, header.getLength());
+		Assertions.assertArrayEquals(payload, FrameHeader.getPayload(frame));
+		frame[frame.length / 2] ^= 1;
+		Assertions.assertNull(FrameHeader.of(frame));
+		Assertions.assertFalse(FrameHeader.isFrame(data(100, 2)));
+		Assertions.assertFalse(FrameHeader.isFrame(new byte[0]));
+	}
+
+	@Test
+	public void testEncoder() {
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(42, 250, 100);
+		for (int i = 0; i < 3; i++) {
+			final FrameHeader header = FrameHeader.of(encoder.apply(data(i < 2 ? 100 : 50, i)));
+			Assertions.assertEquals(42, header.getTransfer());
+			Assertions.assertEquals(i, header.getSequence());
+			Assertions.assertEquals(3, header.getTotal());
+			Assertions.assertEquals(250L, header.getLength());
+		}
+		Assertions.assertEquals(-1, FrameHeader.of(FrameHeaderEncoder.of(42, -1, 100).apply(data(10, 3))).getTotal());
+	}
+
+	@Test
+	public void testValidator() {
+		final byte[][] chunks = { data(100, 1), data(100, 2), data(50, 3) };
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(42, 250, 100);
+		final byte[][] frames = new byte[chunks.length][];
+		for (int i = 0; i < chunks.length; i++) {
+			frames[i] = encoder.apply(chunks[i]);
+		}
+		final FrameValidator validator = new FrameValidator();
+		Assertions.assertArrayEquals(chunks[0], validator.apply(frames[0]));
+		Assertions.assertEquals(42, validator.getTransfer().getTransfer());
+		Assertions.assertArrayEquals(chunks[1], validator.apply(frames[1]));
+		Assertions.assertEquals(0, validator.apply(frames[0]).length, "seen before");
+		Assertions.assertEquals(0, validator.apply(FrameHeaderEncoder.of(43, 250, 100).apply(chunks[0])).length, "other transfer");
+		Assertions.assertThrows(IllegalStateException.class, validator::finish);
+		Assertions.assertArrayEquals(chunks[2], validator.apply(frames[2]));
+		validator.finish();
+	}
+
+	@Test
+	public void testValidatorMissing() {
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(42, 300, 100);
+		final byte[] first = encoder.apply(data(100, 1));
+		encoder.apply(data(100, 2));
+		final byte[] third = encoder.apply(data(100, 3));
+		final FrameValidator validator = new FrameValidator();
+		validator.apply(first);
+		Assertions.assertThrows(IllegalStateException.class, () -> validator.apply(third));
+		final byte[] corrupt = third.clone();
+		corrupt[50] ^= 1;
+		Assertions.assertThrows(IllegalStateException.class, () -> validator.apply(corrupt));
+	}
+
+	@Test
+	public void testValidatorLegacy() {
+		final FrameValidator validator = new FrameValidator();
+		final FrameEnumerator enumerator = new FrameEnumerator();
+		final byte[] chunk = data(10, 4);
+		Assertions.assertArrayEquals(chunk, validator.apply(enumerator.apply(chunk)));
+		Assertions.assertNull(validator.getTransfer());
+		final byte[] plain = data(10, 5);
+		Assertions.assertSame(plain, new FrameValidator().apply(plain));
+		validator.finish();
+	}
+
+	private static byte[] data(final int length, final long seed) {
+		final byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+}
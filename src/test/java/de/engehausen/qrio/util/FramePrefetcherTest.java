@@ -0,0 +1,75 @@
+package de.engehausen.qrio.util;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FramePrefetcherTest {
+
+	@Test
+	public void testOrder() {
+		try (final FramePrefetcher<Integer> prefetcher = new FramePrefetcher<>(IntStream.range(0, 100).boxed().iterator(), 4)) {
+			for (int i = 0; i < 100; i++) {
+				Assertions.assertEquals(i, prefetcher.take().intValue());
+			}
+			Assertions.assertFalse(prefetcher.isExhausted());
+			Assertions.assertNull(prefetcher.take());
+			Assertions.assertTrue(prefetcher.isExhausted());
+			Assertions.assertNull(prefetcher.poll());
+			Assertions.assertEquals(100, prefetcher.getCount());
+		}
+	}
+
+	@Test
+	public void testUnderrun() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final Iterator<Integer> source = Stream.of(1, 2)
+			.peek(i -> {
+				if (i.intValue() == 2) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			})
+			.iterator();
+		try (final FramePrefetcher<Integer> prefetcher = new FramePrefetcher<>(source, 4)) {
+			Assertions.assertEquals(1, prefetcher.take().intValue());
+			// the second element is not ready yet
+			Assertions.assertNull(prefetcher.poll());
+			Assertions.assertNull(prefetcher.poll());
+			Assertions.assertEquals(2, prefetcher.getUnderruns());
+			Assertions.assertFalse(prefetcher.isExhausted());
+			release.countDown();
+			Assertions.assertEquals(2, prefetcher.take().intValue());
+			Assertions.assertNull(prefetcher.take());
+			Assertions.assertEquals(2, prefetcher.getUnderruns());
+		}
+	}
+
+	@Test
+	public void testFailure() {
+		final Iterator<Integer> source = Stream.of(1, 2, 3)
+			.map(i -> {
+				if (i.intValue() == 3) {
+					throw new IllegalStateException("failed");
+				}
+				return i;
+			})
+			.iterator();
+		try (final FramePrefetcher<Integer> prefetcher = new FramePrefetcher<>(source, 4)) {
+			// the elements before the failure are returned first
+			Assertions.assertEquals(List.of(1, 2), List.of(prefetcher.take(), prefetcher.take()));
+			Assertions.assertThrows(IllegalStateException.class, prefetcher::take);
+			Assertions.assertTrue(prefetcher.isExhausted());
+		}
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new FramePrefetcher<>(source, 0));
+	}
+
+}
@@ -0,0 +1,78 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
+public class FrameTriageTest {
+
+	@Test
+	public void testUnchanged() {
+		final FrameTriage triage = new FrameTriage();
+		final BufferedImage image = createCode(1);
+		Assertions.assertEquals(FrameTriage.Verdict.DECODE, triage.check(image));
+		for (int i = 0; i < 3; i++) {
+			Assertions.assertEquals(FrameTriage.Verdict.UNCHANGED, triage.check(image));
+		}
+		// retry eventually
+		Assertions.assertEquals(FrameTriage.Verdict.DECODE, triage.check(image));
+		Assertions.assertEquals(FrameTriage.Verdict.DECODE, triage.check(createCode(2)));
+		Assertions.assertEquals(3, triage.getCount(FrameTriage.Verdict.DECODE));
+		Assertions.assertEquals(3, triage.getCount(FrameTriage.Verdict.UNCHANGED));
+	}
+
+	@Test
+	public void testBlended() {
+		final FrameTriage triage = new FrameTriage();
+		final BufferedImage first = createCode(1);
+		final BufferedImage second = createCode(2);
+		Assertions.assertEquals(FrameTriage.Verdict.DECODE, triage.check(first));
+		Assertions.assertEquals(FrameTriage.Verdict.BLURRED, triage.check(blend(first, second)));
+		Assertions.assertEquals(FrameTriage.Verdict.DECODE, triage.check(second));
+		Assertions.assertEquals(1, triage.getCount(FrameTriage.Verdict.BLURRED));
+	}
+
+	@Test
+	public void testLuminance() {
+		final FrameTriage triage = new FrameTriage();
+		final BufferedImage first = createCode(1);
+		Assertions.assertTrue(triage.luminance().test(new BufferedImageLuminanceSource(first)));
+		Assertions.assertFalse(triage.luminance().test(new BufferedImageLuminanceSource(first)));
+		Assertions.assertFalse(triage.luminance().test(new BufferedImageLuminanceSource(blend(first, createCode(2)))));
+	}
+
+	// random black and white modules, roughly like a QR code
+	private BufferedImage createCode(final long seed) {
+		final Random random = new Random(seed);
+		final BufferedImage result = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			for (int y = 0; y < 200; y += 8) {
+				for (int x = 0; x < 200; x += 8) {
+					g2d.setColor(random.nextBoolean() ? Color.BLACK : Color.WHITE);
+					g2d.fillRect(x, y, 8, 8);
+				}
+			}
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+	private BufferedImage blend(final BufferedImage a, final BufferedImage b) {
+		final BufferedImage result = new BufferedImage(a.getWidth(), a.getHeight(), BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				result.setRGB(x, y, ((a.getRGB(x, y) & 0xfefefe) >> 1) + ((b.getRGB(x, y) & 0xfefefe) >> 1));
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.engehausen.qrio.util;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FrameWriterTest {
+
+	@TempDir
+	protected Path tempDir;
+
+	@Test
+	public void testWrite() {
+		for (final int level : new int[] { FrameWriter.DEFAULT_LEVEL, 0, 9 }) {
+			final String prefix = tempDir.resolve("level" + level + "-").toString();
+			try (final FrameWriter writer = new FrameWriter(prefix, level, 2)) {
+				for (int i = 0; i < 20; i++) {
+					final BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_BINARY);
+					img.setRGB(i % 16, i / 16, 0xffffff);
+					writer.accept(img);
+				}
+				Assertions.assertEquals(20, writer.getCount());
+			}
+			final ImageIterator images = new ImageIterator(prefix);
+			int count = 0;
+			while (images.hasNext()) {
+				final BufferedImage img = images.next();
+				Assertions.assertEquals(0xffffffff, img.getRGB(count % 16, count / 16), String.format("level %d, image %d", level, count));
+				count++;
+			}
+			Assertions.assertEquals(20, count);
+		}
+	}
+
+	@Test
+	public void testFailure() {
+		final FrameWriter writer = new FrameWriter(tempDir.resolve("missing/image").toString(), 0, 2);
+		writer.accept(new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_BINARY));
+		final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> writer.close());
+		Assertions.assertTrue(e.getMessage().contains("image0001.png"), e.getMessage());
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new FrameWriter("image", 10, 1));
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.engehausen.qrio.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedChunkSpliteratorTest {
+
+	private static final String EXAMPLE = "hello world";
+
+	@TempDir
+	protected Path tempDir;
+
+	@Test
+	public void testChunks() throws IOException {
+		try (final FileChannel channel = createDemoChannel()) {
+			final Spliterator<ByteBuffer> spliterator = new MappedChunkSpliterator(channel, 4);
+			Assertions.assertEquals(3, spliterator.getExactSizeIfKnown());
+			Assertions.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+			Assertions.assertEquals(
+				Arrays.asList("hell", "o wo", "rld"),
+				toStrings(spliterator)
+			);
+		}
+	}
+
+	@Test
+	public void testNoSplit() throws IOException {
+		try (final FileChannel channel = createDemoChannel()) {
+			final Spliterator<ByteBuffer> spliterator = new MappedChunkSpliterator(channel, 2);
+			Assertions.assertNull(spliterator.trySplit());
+			Assertions.assertEquals(6, spliterator.estimateSize());
+		}
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		try (final FileChannel channel = createDemoChannel()) {
+			Assertions.assertEquals(
+				EXAMPLE,
+				StreamSupport
+					.stream(new MappedChunkSpliterator(channel, 1), true)
+					.map(buffer -> new String(MappedChunkSpliterator.toBytes(buffer), StandardCharsets.UTF_8))
+					.collect(Collectors.joining())
+			);
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		final Path empty = Files.createFile(tempDir.resolve("empty"));
+		try (final FileChannel channel = FileChannel.open(empty, StandardOpenOption.READ)) {
+			Assertions.assertEquals(0, new MappedChunkSpliterator(channel, 4).estimateSize());
+		}
+	}
+
+	private FileChannel createDemoChannel() throws IOException {
+		final Path file = Files.write(tempDir.resolve("demo"), EXAMPLE.getBytes(StandardCharsets.UTF_8));
+		return FileChannel.open(file, StandardOpenOption.READ);
+	}
+
+	private List<String> toStrings(final Spliterator<ByteBuffer> spliterator) {
+		return StreamSupport
+			.stream(spliterator, false)
+			.map(buffer -> new String(MappedChunkSpliterator.toBytes(buffer), StandardCharsets.UTF_8))
+			.collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,54 @@
+package de.engehausen.qrio.util;
+
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MissingChunksTest {
+
+	@Test
+	public void testFormat() {
+		final ChunkBitmap bitmap = new ChunkBitmap(20);
+		for (int i = 0; i < 20; i++) {
+			if (i < 3 || (i > 7 && i != 10 && i < 12) || i == 16) {
+				bitmap.set(i);
+			}
+		}
+		final MissingChunks missing = MissingChunks.of(0xcafe, bitmap);
+		Assertions.assertEquals("QRM1 0000cafe 20 3-7,10,12-15,17-19", missing.toString());
+		Assertions.assertEquals(13, missing.getCount());
+		Assertions.assertTrue(missing.contains(10));
+		Assertions.assertFalse(missing.contains(16));
+		Assertions.assertEquals(
+			"3,4,5,6,7,10,12,13,14,15,17,18,19",
+			missing.indices().mapToObj(Integer::toString).collect(Collectors.joining(","))
+		);
+		final MissingChunks parsed = MissingChunks.parse(missing.toString());
+		Assertions.assertEquals(missing.toString(), parsed.toString());
+		Assertions.assertEquals(0xcafe, parsed.getTransfer());
+		Assertions.assertEquals(20, parsed.getTotal());
+	}
+
+	@Test
+	public void testNone() {
+		final ChunkBitmap bitmap = new ChunkBitmap(3);
+		bitmap.set(0);
+		bitmap.set(1);
+		bitmap.set(2);
+		final MissingChunks missing = MissingChunks.parse(MissingChunks.of(-1, bitmap).toString());
+		Assertions.assertEquals("QRM1 ffffffff 3 -", missing.toString());
+		Assertions.assertEquals(0, missing.getCount());
+		Assertions.assertEquals(-1, missing.getTransfer());
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(IllegalStateException.class, () -> MissingChunks.parse("QRM1 0000cafe 20"));
+		Assertions.assertThrows(IllegalStateException.class, () -> MissingChunks.parse("QRM1 0000cafe 20 3-x"));
+		Assertions.assertThrows(IllegalStateException.class, () -> MissingChunks.parse("QRM1 0000cafe 20 7-3"));
+		Assertions.assertThrows(IllegalStateException.class, () -> MissingChunks.parse("QRM1 0000cafe 20 5,3"));
+		Assertions.assertThrows(IllegalStateException.class, () -> MissingChunks.parse("QRM1 0000cafe 20 19-20"));
+	}
+
+}
@@ -0,0 +1,103 @@
+package de.engehausen.qrio.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class OrderedParallelIteratorTest {
+
+	@Test
+	public void testOrder() {
+		final int count = 200;
+		final Set<Function<Integer, Integer>> workers = ConcurrentHashMap.newKeySet();
+		final OrderedParallelIterator<Integer, Integer> iterator = new OrderedParallelIterator<>(
+			IntStream.range(0, count).boxed().iterator(),
+			() -> {
+				final Function<Integer, Integer> worker = i -> {
+					try {
+						// finish in random order
+						Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return Integer.valueOf(2 * i.intValue());
+				};
+				workers.add(worker);
+				return worker;
+			},
+			4,
+			8
+		);
+		final List<Integer> result = new ArrayList<>();
+		while (iterator.hasNext()) {
+			result.add(iterator.next());
+		}
+		Assertions.assertEquals(
+			IntStream.range(0, count).map(i -> 2 * i).boxed().collect(Collectors.toList()),
+			result
+		);
+		Assertions.assertTrue(workers.size() <= 4, "one transformation per worker");
+		Assertions.assertThrows(NoSuchElementException.class, () -> iterator.next());
+	}
+
+	@Test
+	public void testWindow() {
+		final AtomicInteger pulled = new AtomicInteger();
+		final Iterator<Integer> source = new Iterator<>() {
+			public boolean hasNext() {
+				return true;
+			}
+			public Integer next() {
+				return Integer.valueOf(pulled.incrementAndGet());
+			}
+		};
+		final OrderedParallelIterator<Integer, Integer> iterator = new OrderedParallelIterator<>(source, () -> Function.identity(), 2, 3);
+		for (int i = 1; i <= 10; i++) {
+			Assertions.assertTrue(iterator.hasNext());
+			Assertions.assertEquals(i, iterator.next().intValue());
+			Assertions.assertEquals(i + 3, pulled.get());
+		}
+		iterator.shutdown();
+		Assertions.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testFailure() {
+		final OrderedParallelIterator<Integer, Integer> iterator = new OrderedParallelIterator<>(
+			IntStream.range(0, 10).boxed().iterator(),
+			() -> i -> {
+				if (i.intValue() == 3) {
+					throw new IllegalStateException("bad element");
+				}
+				return i;
+			},
+			2,
+			4
+		);
+		for (int i = 0; i < 3; i++) {
+			Assertions.assertEquals(i, iterator.next().intValue());
+		}
+		Assertions.assertThrows(IllegalStateException.class, () -> iterator.next());
+		Assertions.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(
+			IllegalArgumentException.class,
+			() -> new OrderedParallelIterator<Integer, Integer>(IntStream.range(0, 1).boxed().iterator(), () -> Function.identity(), 2, 1)
+		);
+	}
+
+}
@@ -0,0 +1,135 @@
+package de.engehausen.qrio.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ParityCodeTest {
+
+	@Test
+	public void testFrameFormat() {
+		final ParityCode.Frame position = new ParityCode.Frame(7, 2, 9, 8, 3, 4);
+		final byte[] payload = data(100, 1);
+		final byte[] frame = ParityCode.toFrame(position, payload);
+		Assertions.assertEquals(payload.length + ParityCode.OVERHEAD - 2, frame.length);
+		final ParityCode.Frame read = ParityCode.toPosition(frame);
+		Assertions.assertNotNull(read);
+		Assertions.assertEquals(7, read.block);
+		Assertions.assertEquals(2, read.group);
+		Assertions.assertEquals(9, read.index);
+		Assertions.assertEquals(8, read.data);
+		Assertions.assertEquals(3, read.parity);
+		Assertions.assertEquals(4, read.groups);
+		Assertions.assertFalse(read.isData());
+		Assertions.assertArrayEquals(payload, ParityCode.getPayload(frame));
+		frame[frame.length / 2] ^= 1;
+		Assertions.assertNull(ParityCode.toPosition(frame));
+		Assertions.assertNull(ParityCode.toPosition(data(100, 2)));
+		Assertions.assertNull(ParityCode.toPosition(new byte[0]));
+	}
+
+	@Test
+	public void testRebuild() {
+		final ParityCode code = new ParityCode(10, 4);
+		final Random random = new Random(3);
+		for (int round = 0; round < 50; round++) {
+			final byte[][] chunks = new byte[1 + random.nextInt(10)][];
+			final byte[][] shards = new byte[chunks.length][];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = data(random.nextInt(50), round * 100 + i);
+				shards[i] = ParityCode.toShard(chunks[i], 52);
+			}
+			final byte[][] parities = code.encode(shards);
+			// lose up to four of all frames
+			final int lost = random.nextInt(5);
+			for (int i = 0; i < lost; i++) {
+				final int index = random.nextInt(chunks.length + parities.length);
+				if (index < chunks.length) {
+					shards[index] = null;
+				} else {
+					parities[index - chunks.length] = null;
+				}
+			}
+			Assertions.assertTrue(new ParityCode(chunks.length, 4).decode(shards, parities));
+			for (int i = 0; i < chunks.length; i++) {
+				Assertions.assertArrayEquals(chunks[i], ParityCode.toChunk(shards[i]));
+			}
+		}
+	}
+
+	@Test
+	public void testTooManyLost() {
+		final ParityCode code = new ParityCode(4, 2);
+		final byte[][] shards = new byte[4][];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = ParityCode.toShard(data(10, i), 12);
+		}
+		final byte[][] parities = code.encode(shards);
+		shards[0] = null;
+		shards[2] = null;
+		parities[1] = null;
+		Assertions.assertFalse(code.decode(shards, parities));
+	}
+
+	@Test
+	public void testIterator() {
+		final List<byte[]> chunks = new ArrayList<>();
+		for (int i = 0; i < 95; i++) {
+			chunks.add(data(i == 94 ? 17 : 40, i));
+		}
+		final List<byte[]> frames = new ArrayList<>();
+		new ParityEncoder(chunks.iterator(), new ParityCode(8, 2), 3).forEachRemaining(frames::add);
+		Assertions.assertEquals(95 + 2 * 12, frames.size());
+		// bursts of six lost frames cost each interleaved group two frames
+		final List<byte[]> received = new ArrayList<>();
+		for (int i = 0; i < frames.size(); i++) {
+			if (i % 30 >= 6) {
+				received.add(frames.get(i));
+			}
+		}
+		final ParityIterator iterator = new ParityIterator(received.iterator());
+		Assertions.assertArrayEquals(collect(chunks.iterator()), collect(iterator));
+		Assertions.assertFalse(iterator.hasNext());
+		Assertions.assertTrue(iterator.getRebuilt() > 0);
+	}
+
+	@Test
+	public void testIteratorLost() {
+		final List<byte[]> chunks = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			chunks.add(data(40, i));
+		}
+		final List<byte[]> frames = new ArrayList<>();
+		new ParityEncoder(chunks.iterator(), new ParityCode(8, 1), 2).forEachRemaining(frames::add);
+		// frames 2 and 4 are in the same group
+		frames.remove(4);
+		frames.remove(2);
+		Assertions.assertThrows(IllegalStateException.class, () -> collect(new ParityIterator(frames.iterator())));
+	}
+
+	@Test
+	public void testIteratorPlain() {
+		final List<byte[]> chunks = List.of(data(10, 7), data(10, 8));
+		final ParityIterator iterator = new ParityIterator(chunks.iterator());
+		Assertions.assertArrayEquals(collect(chunks.iterator()), collect(iterator));
+		Assertions.assertFalse(new ParityIterator(List.<byte[]>of().iterator()).hasNext());
+	}
+
+	private static byte[] collect(final Iterator<byte[]> iterator) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		iterator.forEachRemaining(out::writeBytes);
+		return out.toByteArray();
+	}
+
+	private static byte[] data(final int length, final long seed) {
+		final byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,86 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+public class QrLocatorTest {
+
+	private static final Rectangle SCREEN = new Rectangle(1280, 800);
+	// version 1 code without quiet zone, twelve pixels per module
+	private static final Rectangle CODE = new Rectangle(700, 300, 21 * 12, 21 * 12);
+
+	@Test
+	public void testLocate() throws WriterException {
+		final Rectangle region = QrLocator.locate(screen(), 0.5);
+		Assertions.assertNotNull(region);
+		Assertions.assertTrue(region.contains(CODE), region.toString());
+		Assertions.assertTrue(region.width < 2 * CODE.width, region.toString());
+		Assertions.assertTrue(region.height < 2 * CODE.height, region.toString());
+	}
+
+	@Test
+	public void testLocateNothing() {
+		Assertions.assertNull(QrLocator.locate(new BufferedImage(SCREEN.width, SCREEN.height, BufferedImage.TYPE_INT_RGB), 0.5));
+	}
+
+	@Test
+	public void testReacquire() throws WriterException {
+		final BufferedImage screen = screen();
+		final List<Rectangle> shots = new ArrayList<>();
+		final QrLocator locator = new QrLocator(SCREEN, 0.5, 2, area -> {
+			shots.add(area);
+			return screen.getSubimage(area.x, area.y, area.width, area.height);
+		});
+		final QrCodeReader failing = locator.track(img -> {
+			throw NotFoundException.getNotFoundInstance();
+		});
+		locator.get();
+		final Rectangle region = locator.getRegion();
+		Assertions.assertNotNull(region);
+		Assertions.assertEquals(List.of(SCREEN, region), shots);
+		locator.get();
+		Assertions.assertEquals(region, shots.get(2));
+		Assertions.assertThrows(NotFoundException.class, () -> failing.read(screen));
+		Assertions.assertEquals(region, locator.getRegion());
+		Assertions.assertThrows(NotFoundException.class, () -> failing.read(screen));
+		Assertions.assertNull(locator.getRegion());
+		locator.get();
+		Assertions.assertEquals(SCREEN, shots.get(3));
+		Assertions.assertEquals(region, locator.getRegion());
+	}
+
+	private static BufferedImage screen() throws WriterException {
+		final BufferedImage result = new BufferedImage(SCREEN.width, SCREEN.height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setColor(Color.LIGHT_GRAY);
+			g2d.fillRect(0, 0, SCREEN.width, SCREEN.height);
+			g2d.drawImage(
+				MatrixToImageWriter.toBufferedImage(
+					new QRCodeWriter().encode("aGVsbG8gd29ybGQ=", BarcodeFormat.QR_CODE, CODE.width, CODE.height, Map.of(EncodeHintType.MARGIN, 0))
+				),
+				CODE.x,
+				CODE.y,
+				null);
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+}
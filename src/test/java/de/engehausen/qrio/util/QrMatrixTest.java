@@ -0,0 +1,41 @@
+package de.engehausen.qrio.util;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+public class QrMatrixTest {
+
+	private static final String EXAMPLE = "aGVsbG8gd29ybGQ=";
+	private static final Map<EncodeHintType, Object> HINTS = Map.of(
+		EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H,
+		EncodeHintType.MARGIN, 0
+		);
+
+	@Test
+	public void testRoundTrip() throws WriterException, ChecksumException, FormatException {
+		Assertions.assertEquals(EXAMPLE, new QrMatrix(EXAMPLE, HINTS).decode());
+	}
+
+	@Test
+	public void testRenderLikeWriter() throws WriterException {
+		final QrMatrix matrix = new QrMatrix(EXAMPLE, HINTS);
+		for (final int dimension : new int[] { 0, 64, 100, 128 }) {
+			Assertions.assertEquals(
+				new QRCodeWriter().encode(EXAMPLE, BarcodeFormat.QR_CODE, dimension, dimension, HINTS),
+				matrix.render(dimension, dimension, 0),
+				String.format("dimension %d", dimension)
+			);
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package de.engehausen.qrio.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReassemblerTest {
+
+	@TempDir
+	protected Path tempDir;
+
+	@Test
+	public void testBitmap() {
+		final ChunkBitmap bitmap = new ChunkBitmap(20);
+		Assertions.assertEquals(3, ChunkBitmap.getBytes(20));
+		Assertions.assertEquals(0, bitmap.nextMissing(0));
+		for (int i = 0; i < 19; i++) {
+			Assertions.assertTrue(bitmap.set(i));
+		}
+		Assertions.assertFalse(bitmap.set(3));
+		Assertions.assertEquals(19, bitmap.getCount());
+		Assertions.assertFalse(bitmap.isComplete());
+		Assertions.assertEquals(19, bitmap.nextMissing(0));
+		bitmap.set(19);
+		Assertions.assertTrue(bitmap.isComplete());
+		Assertions.assertEquals(-1, bitmap.nextMissing(0));
+		Assertions.assertThrows(IndexOutOfBoundsException.class, () -> bitmap.get(20));
+	}
+
+	@Test
+	public void testOutOfOrder() throws IOException {
+		final byte[] expected = data(1000, 1);
+		final List<byte[]> frames = frames(expected, 64);
+		Collections.shuffle(frames, new Random(2));
+		// duplicates and frames of another transfer are ignored
+		frames.add(3, frames.get(7));
+		frames.add(5, FrameHeaderEncoder.of(43, expected.length, 64).apply(data(64, 3)));
+		final File output = tempDir.resolve("out.bin").toFile();
+		try (final Reassembler reassembler = new Reassembler(output)) {
+			for (final byte[] frame : frames) {
+				reassembler.accept(frame);
+			}
+			Assertions.assertTrue(reassembler.isComplete());
+			Assertions.assertEquals(16, reassembler.getBitmap().getSize());
+		}
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+		Assertions.assertFalse(new File(output.getPath() + Reassembler.PART_SUFFIX).exists());
+	}
+
+	@Test
+	public void testCompressed() throws IOException {
+		final byte[] expected = new byte[5000];
+		final byte[] compressed = new BlockDeflater(new ByteArrayInputStream(expected), Deflater.BEST_COMPRESSION).readAllBytes();
+		final List<byte[]> frames = frames(compressed, 16);
+		Collections.reverse(frames);
+		final File output = tempDir.resolve("out.bin").toFile();
+		try (final Reassembler reassembler = new Reassembler(output)) {
+			frames.forEach(reassembler);
+		}
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		final byte[] expected = data(1000, 4);
+		final List<byte[]> frames = frames(expected, 64);
+		final File output = tempDir.resolve("out.bin").toFile();
+		final Reassembler first = new Reassembler(output);
+		frames.stream().filter(frame -> FrameHeader.of(frame).getSequence() % 3 != 1).forEach(first);
+		Assertions.assertFalse(first.isComplete());
+		Assertions.assertEquals(1, first.getBitmap().nextMissing(0));
+		Assertions.assertThrows(IllegalStateException.class, first::close);
+		Assertions.assertFalse(output.exists());
+		final MissingChunks missing = Reassembler.getMissing(output);
+		Assertions.assertEquals("QRM1 0000002a 16 1,4,7,10,13", missing.toString());
+		// the chunks received are kept, so the second session only needs the missing chunks
+		try (final Reassembler second = new Reassembler(output)) {
+			missing.indices().mapToObj(frames::get).forEach(second);
+			Assertions.assertTrue(second.isComplete());
+		}
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+		Assertions.assertNull(Reassembler.getMissing(output));
+		Assertions.assertFalse(new File(output.getPath() + TransferState.SUFFIX).exists());
+	}
+
+	@Test
+	public void testResumeOtherTransfer() throws IOException {
+		final File output = tempDir.resolve("out.bin").toFile();
+		final Reassembler first = new Reassembler(output);
+		first.accept(frames(data(1000, 5), 64).get(0));
+		Assertions.assertThrows(IllegalStateException.class, first::close);
+		// a different transfer to the same output starts over
+		final byte[] expected = data(100, 6);
+		final List<byte[]> frames = frames(expected, 64, 43);
+		try (final Reassembler second = new Reassembler(output)) {
+			frames.forEach(second);
+			Assertions.assertEquals(2, second.getBitmap().getCount());
+		}
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void testSequential() throws IOException {
+		final byte[] expected = data(100, 5);
+		final File output = tempDir.resolve("out.bin").toFile();
+		try (final Reassembler reassembler = new Reassembler(output)) {
+			reassembler.accept(expected);
+			Assertions.assertFalse(reassembler.isComplete());
+			Assertions.assertNull(reassembler.getBitmap());
+		}
+		Assertions.assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+	}
+
+	private static List<byte[]> frames(final byte[] input, final int chunkSize) {
+		return frames(input, chunkSize, 42);
+	}
+
+	private static List<byte[]> frames(final byte[] input, final int chunkSize, final int transfer) {
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(transfer, input.length, chunkSize);
+		final List<byte[]> result = new ArrayList<>();
+		final ChunkIterator chunks = new ChunkIterator(new ByteArrayInputStream(input), chunkSize);
+		while (chunks.hasNext()) {
+			result.add(encoder.apply(chunks.next()));
+		}
+		return result;
+	}
+
+	private static byte[] data(final int length, final long seed) {
+		final byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,44 @@
+package de.engehausen.qrio.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ScanRateControllerTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testInterval() {
+		final ScanRateController controller = new ScanRateController(2);
+		// nothing measured yet: as fast as possible
+		Assertions.assertEquals(ScanRateController.MIN_INTERVAL * MS, controller.getInterval());
+		// decoding takes 40 ms on two threads, the display has not changed yet
+		controller.decoded(40 * MS);
+		Assertions.assertEquals(20 * MS, controller.getInterval());
+		// the display changes every 100 ms: screenshots twice as often
+		for (int i = 0; i < 5; i++) {
+			controller.changed(i * 100 * MS);
+		}
+		Assertions.assertEquals(50 * MS, controller.getInterval());
+		// decoding gets slower than that
+		for (int i = 0; i < 50; i++) {
+			controller.decoded(200 * MS);
+		}
+		Assertions.assertEquals(100, Math.round(controller.getInterval() / (double) MS));
+	}
+
+	@Test
+	public void testBounds() {
+		final ScanRateController controller = new ScanRateController(1);
+		controller.decoded(1);
+		Assertions.assertEquals(ScanRateController.MIN_INTERVAL * MS, controller.getInterval());
+		// a display which hardly changes
+		controller.changed(0);
+		controller.changed(TimeUnit.SECONDS.toNanos(10));
+		Assertions.assertEquals(ScanRateController.MAX_INTERVAL * MS, controller.getInterval());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new ScanRateController(0));
+	}
+
+}
@@ -1,10 +1,14 @@
 package de.engehausen.qrio.util;
 
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -22,11 +26,11 @@ public class ScreenIteratorTest {
 			map.put(img, bytes);
 		}
 		final ScreenIterator iterator = new ScreenIterator(
-			500,
 			1,
-			() -> queue.removeFirst(),
+			// the last screenshot stays on the screen
+			() -> queue.size() > 1 ? queue.removeFirst() : queue.getFirst(),
 			(image) -> map.get(image));
-		Assertions.assertNotNull(iterator.timer);
+		Assertions.assertTrue(iterator.running);
 		int count = 0;
 		while (iterator.hasNext()) {
 			final byte[] b = iterator.next();
@@ -35,7 +39,84 @@ public class ScreenIteratorTest {
 			count++;
 		}
 		Assertions.assertEquals(5, count);
-		Assertions.assertNull(iterator.timer);
+		Assertions.assertFalse(iterator.running);
+	}
+
+	@Test
+	public void testParallelDecoding() {
+		final Map<BufferedImage, byte[]> map = new HashMap<>();
+		final Deque<BufferedImage> queue = new LinkedList<>();
+		for (int i = 0; i < 50; i++) {
+			final BufferedImage img = new BufferedImage(2, 2, BufferedImage.TYPE_BYTE_BINARY);
+			// each QR code is seen on several screenshots, some do not show one
+			map.put(img, i % 7 == 6 ? null : new byte[] { (byte) (i / 3) });
+			queue.add(img);
+		}
+		final ScreenIterator iterator = new ScreenIterator(
+			1,
+			() -> queue.size() > 1 ? queue.removeFirst() : queue.getFirst(),
+			() -> image -> {
+				// slow decoding
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return map.get(image);
+			},
+			4,
+			new StatefulQrReader(0)::filter,
+			image -> true);
+		final List<Integer> actual = new ArrayList<>();
+		while (iterator.hasNext()) {
+			actual.add(Integer.valueOf(iterator.next()[0]));
+		}
+		final List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 17; i++) {
+			expected.add(Integer.valueOf(i));
+		}
+		Assertions.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testBackPressure() throws InterruptedException {
+		final AtomicInteger shots = new AtomicInteger();
+		final ScreenIterator iterator = new ScreenIterator(
+			0,
+			() -> {
+				final BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+				img.setRGB(0, 0, shots.getAndIncrement());
+				return img;
+			},
+			(image) -> ByteBuffer.allocate(4).putInt(image.getRGB(0, 0) & 0xffffff).array());
+		Assertions.assertTrue(iterator.hasNext());
+		// nothing is consumed: taking screenshots stops once the buffer is full
+		Thread.sleep(1000);
+		final int taken = shots.get();
+		Assertions.assertTrue(taken <= ScreenIterator.BUFFER + 8, Integer.toString(taken));
+		Thread.sleep(200);
+		Assertions.assertEquals(taken, shots.get());
+		iterator.stop();
+		// all bytes decoded before stopping are returned, in order
+		int count = 0;
+		while (iterator.hasNext()) {
+			Assertions.assertEquals(count, ByteBuffer.wrap(iterator.next()).getInt());
+			count++;
+		}
+		Assertions.assertEquals(shots.get(), count);
+		Assertions.assertFalse(iterator.running);
+		Assertions.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testFailure() {
+		final ScreenIterator iterator = new ScreenIterator(
+			1,
+			() -> {
+				throw new IllegalStateException("no screen");
+			},
+			(image) -> new byte[1]);
+		Assertions.assertThrows(IllegalStateException.class, iterator::hasNext);
 	}
 
 }
@@ -0,0 +1,103 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jcodec.api.JCodecException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SegmentedVideoIteratorTest {
+
+	private static final String VIDEO_FILE = "/video.mp4";
+
+	@Test
+	public void testSameAsSequential() throws URISyntaxException, IOException, JCodecException {
+		final File file = Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile();
+		final List<Integer> expected = hashes(new VideoIterator<>(file, VideoIterator.IMAGE));
+		final List<Integer> actual = hashes(new SegmentedVideoIterator<>(file, VideoIterator.IMAGE, 3));
+		Assertions.assertEquals(expected.size(), actual.size());
+		Assertions.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testParallelSegments() throws URISyntaxException, IOException, JCodecException, InterruptedException {
+		final File file = Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile();
+		final Set<String> threads = ConcurrentHashMap.newKeySet();
+		final AtomicInteger decoded = new AtomicInteger();
+		try (final SegmentedVideoIterator<Integer> iterator = new SegmentedVideoIterator<>(file, picture -> {
+			threads.add(Thread.currentThread().getName());
+			return Integer.valueOf(decoded.incrementAndGet());
+		}, 3, Long.MAX_VALUE)) {
+			// key frames at 0, 74, 119 and 165 of 232 frames: without consuming anything,
+			// the first three segments are decoded completely, each on its own thread
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (decoded.get() < 165 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Assertions.assertEquals(165, decoded.get());
+			Assertions.assertEquals(3, threads.size());
+			int count = 0;
+			while (iterator.hasNext()) {
+				iterator.next();
+				count++;
+			}
+			Assertions.assertEquals(232, count);
+			Assertions.assertEquals(232, decoded.get());
+		}
+	}
+
+	@Test
+	public void testShortGroupsOfPictures(@TempDir final Path tempDir) throws IOException, JCodecException {
+		// a key frame every second frame, as written by VideoWriter
+		final File file = tempDir.resolve("short.mp4").toFile();
+		try (final VideoWriter writer = new VideoWriter(file, 10, 2)) {
+			for (int i = 0; i < 15; i++) {
+				final BufferedImage img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+				final Graphics2D g2d = img.createGraphics();
+				g2d.setColor(Color.WHITE);
+				g2d.fillRect(0, 0, 4 * i, 64);
+				g2d.dispose();
+				writer.accept(img);
+			}
+		}
+		final List<Integer> expected = hashes(new VideoIterator<>(file, VideoIterator.IMAGE));
+		Assertions.assertEquals(30, expected.size());
+		Assertions.assertEquals(expected, hashes(new SegmentedVideoIterator<>(file, VideoIterator.IMAGE, 3)));
+	}
+
+	@Test
+	public void testFailure() throws URISyntaxException, IOException, JCodecException {
+		final File file = Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile();
+		final Iterator<BufferedImage> iterator = new SegmentedVideoIterator<BufferedImage>(file, picture -> {
+			throw new IllegalStateException("cannot convert");
+		}, 3);
+		final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, iterator::hasNext);
+		Assertions.assertEquals("cannot convert", e.getMessage());
+	}
+
+	private List<Integer> hashes(final Iterator<BufferedImage> iterator) {
+		final List<Integer> result = new ArrayList<>();
+		while (iterator.hasNext()) {
+			final BufferedImage img = iterator.next();
+			result.add(Integer.valueOf(Arrays.hashCode(img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth()))));
+		}
+		return result;
+	}
+
+}
@@ -47,6 +47,28 @@ public class StatefulQrReaderTest {
 		Assertions.assertNotNull(actual);
 		Assertions.assertEquals(0, actual.length);
 	}
-	
 
-}
\ No newline at end of file
+	@Test
+	public void testFilter() {
+		final StatefulQrReader reader = new StatefulQrReader(2, (img) -> { throw NotFoundException.getNotFoundInstance(); });
+		Assertions.assertEquals(0, reader.filter(null).length);
+		final byte[] bytes = new byte[] { 1, 2, 3 };
+		Assertions.assertSame(bytes, reader.filter(bytes));
+		Assertions.assertEquals(0, reader.filter(bytes.clone()).length);
+		Assertions.assertEquals(2, reader.filter(new byte[] { 4, 5 }).length);
+		Assertions.assertEquals(0, reader.filter(bytes.clone()).length, "recently seen");
+	}
+
+	@Test
+	public void testIdentified() {
+		final StatefulQrReader reader = new StatefulQrReader(2, (img) -> { throw NotFoundException.getNotFoundInstance(); });
+		final FrameHeaderEncoder encoder = FrameHeaderEncoder.of(1, 6, 3);
+		final byte[] first = encoder.apply(new byte[] { 1, 2, 3 });
+		Assertions.assertEquals(first.length, reader.filter(first).length);
+		Assertions.assertEquals(0, reader.filter(first.clone()).length, "same as last");
+		reader.filter(encoder.apply(new byte[] { 4, 5, 6 }));
+		// left to the frame validator, which knows the position of the frame
+		Assertions.assertEquals(first.length, reader.filter(first.clone()).length, "not remembered");
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+public class SymbolGridTest {
+
+	private static final ConcurrentQrReader READER = new ConcurrentQrReader(text -> Base64.getDecoder().decode(text));
+
+	@Test
+	public void testLayout() {
+		final SymbolGrid grid = SymbolGrid.parse("2x3");
+		Assertions.assertEquals(2, grid.getRows());
+		Assertions.assertEquals(3, grid.getColumns());
+		Assertions.assertEquals(6, grid.getSize());
+		Assertions.assertEquals("2x3", grid.toString());
+		Assertions.assertEquals(3 * 128 + 4 * 16, grid.getWidth(128));
+		Assertions.assertEquals(2 * 128 + 3 * 16, grid.getHeight(128));
+		// the tiles cover the frame
+		Assertions.assertEquals(new Rectangle(0, 0, 33, 50), grid.getTile(0, 100, 100));
+		Assertions.assertEquals(new Rectangle(66, 50, 34, 50), grid.getTile(5, 100, 100));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SymbolGrid.parse("2"));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SymbolGrid.parse("0x2"));
+	}
+
+	@Test
+	public void testTileAndRead() throws WriterException {
+		final SymbolGrid grid = new SymbolGrid(2, 3);
+		final List<byte[]> expected = new ArrayList<>();
+		final List<BufferedImage> symbols = new ArrayList<>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 8; i++) {
+			final byte[] bytes = new byte[100];
+			random.nextBytes(bytes);
+			expected.add(bytes);
+			symbols.add(encode(bytes));
+		}
+		final List<BufferedImage> frames = grid.tile(symbols.stream()).collect(Collectors.toList());
+		Assertions.assertEquals(2, frames.size());
+		Assertions.assertEquals(grid.getWidth(128), frames.get(0).getWidth());
+		final List<byte[]> first = READER.readAll(frames.get(0), grid);
+		Assertions.assertEquals(6, first.size());
+		for (int i = 0; i < first.size(); i++) {
+			Assertions.assertArrayEquals(expected.get(i), first.get(i), Integer.toString(i));
+		}
+		// the cells of the last frame without a QR code are blank
+		final List<byte[]> second = READER.readAll(frames.get(1), grid);
+		Assertions.assertArrayEquals(expected.get(6), second.get(0));
+		Assertions.assertArrayEquals(expected.get(7), second.get(1));
+		Assertions.assertNull(second.get(2));
+		Assertions.assertNull(second.get(5));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> grid.tile(symbols));
+		Assertions.assertEquals(0, grid.tile(Stream.<BufferedImage>empty()).count());
+	}
+
+	private static BufferedImage encode(final byte[] bytes) throws WriterException {
+		return MatrixToImageWriter.toBufferedImage(new QRCodeWriter().encode(
+			Base64.getEncoder().encodeToString(bytes),
+			BarcodeFormat.QR_CODE,
+			128,
+			128,
+			Map.of(EncodeHintType.MARGIN, Integer.valueOf(0))
+		));
+	}
+
+}
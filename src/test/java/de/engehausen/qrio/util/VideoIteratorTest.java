@@ -1,5 +1,7 @@
 package de.engehausen.qrio.util;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
@@ -8,6 +10,9 @@ import org.jcodec.api.JCodecException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
 public class VideoIteratorTest {
 
 	private static final String VIDEO_FILE = "/video.mp4";
@@ -15,8 +20,9 @@ public class VideoIteratorTest {
 
 	@Test
 	public void testReadVideo() throws URISyntaxException, IOException, JCodecException {
-		final VideoIterator iterator = new VideoIterator(
-			Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile()
+		final VideoIterator<BufferedImage> iterator = new VideoIterator<>(
+			Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile(),
+			VideoIterator.IMAGE
 		);
 		int count = 0;
 		while (iterator.hasNext()) {
@@ -26,4 +32,26 @@ public class VideoIteratorTest {
 		Assertions.assertEquals(FRAME_COUNT, count);
 	}
 
+	@Test
+	public void testLuminance() throws URISyntaxException, IOException, JCodecException {
+		final File file = Paths.get(getClass().getResource(VIDEO_FILE).toURI()).toFile();
+		final VideoIterator<BufferedImage> images = new VideoIterator<>(file, VideoIterator.IMAGE);
+		Assertions.assertTrue(images.hasNext());
+		final LuminanceSource expected = new BufferedImageLuminanceSource(images.next());
+		final VideoIterator<LuminanceSource> iterator = new VideoIterator<>(file, VideoIterator.LUMINANCE);
+		Assertions.assertTrue(iterator.hasNext());
+		final LuminanceSource actual = iterator.next();
+		Assertions.assertEquals(expected.getWidth(), actual.getWidth());
+		Assertions.assertEquals(expected.getHeight(), actual.getHeight());
+		final byte[] expectedLuma = expected.getMatrix();
+		final byte[] actualLuma = actual.getMatrix();
+		long difference = 0;
+		for (int i = 0; i < expectedLuma.length; i++) {
+			difference += Math.abs((expectedLuma[i] & 0xff) - (actualLuma[i] & 0xff));
+		}
+		// the RGB conversion is lossy and expands the limited range
+		// of the luma plane, but the luminance must be about the same
+		Assertions.assertTrue(difference / expectedLuma.length < 24, Long.toString(difference / expectedLuma.length));
+	}
+
 }
@@ -0,0 +1,78 @@
+package de.engehausen.qrio.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.jcodec.api.JCodecException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class VideoWriterTest {
+
+	@TempDir
+	protected Path tempDir;
+
+	@Test
+	public void testWrite() throws IOException, JCodecException {
+		final File file = tempDir.resolve("video.mp4").toFile();
+		try (final VideoWriter writer = new VideoWriter(file, 10, 3)) {
+			for (int i = 0; i < 5; i++) {
+				writer.accept(image(100, 90, i));
+			}
+			// smaller images are centered
+			writer.accept(image(50, 50, 2));
+			Assertions.assertEquals(6, writer.getCount());
+		}
+		// each image is held for three frames, the size is padded to macroblocks
+		final VideoIterator<BufferedImage> frames = new VideoIterator<>(file, VideoIterator.IMAGE);
+		int count = 0;
+		while (frames.hasNext()) {
+			final BufferedImage frame = frames.next();
+			Assertions.assertEquals(112, frame.getWidth());
+			Assertions.assertEquals(96, frame.getHeight());
+			final int index = count / 3;
+			// the black bar of the image, at its position
+			final int x = index < 5 ? 6 + index * 10 + 5 : 31 + 20 + 5;
+			Assertions.assertTrue((frame.getRGB(x, 48) & 0xff) < 64, String.format("frame %d", Integer.valueOf(count)));
+			Assertions.assertTrue((frame.getRGB(x + 20, 48) & 0xff) > 192, String.format("frame %d", Integer.valueOf(count)));
+			count++;
+		}
+		Assertions.assertEquals(18, count);
+	}
+
+	@Test
+	public void testFailure() {
+		final VideoWriter writer = new VideoWriter(tempDir.resolve("video.mp4").toFile(), 10, 1);
+		writer.accept(image(32, 32, 0));
+		writer.accept(image(64, 64, 1));
+		final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> writer.close());
+		Assertions.assertTrue(e.getMessage().contains("image 2"), e.getMessage());
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new VideoWriter(new File("video.mp4"), 0, 1));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new VideoWriter(new File("video.mp4"), 10, 0));
+	}
+
+	// a white image with a black vertical bar, moving with the index
+	private static BufferedImage image(final int width, final int height, final int index) {
+		final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		final Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, width, height);
+			g2d.setColor(Color.BLACK);
+			g2d.fillRect(index * 10, 0, 10, height);
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+
+}